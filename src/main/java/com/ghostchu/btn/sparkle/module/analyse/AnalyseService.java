@@ -89,7 +89,7 @@ public class AnalyseService {
                     FROM
                         snapshot s
                     WHERE
-                        s.insert_time >= ? AND s.to_peer_traffic > 0
+                        (s.insert_time >= ? OR s.last_seen_time >= ?) AND s.to_peer_traffic > 0
                 ),
                 AggregatedUploads AS (
                     SELECT
@@ -121,8 +121,11 @@ public class AnalyseService {
                 ORDER BY
                     au.total_uploaded DESC;
                 """);
-        query.setParameter(1, new Timestamp(System.currentTimeMillis() - overDownloadGenerateOffset));
-        query.setParameter(2, overDownloadGenerateThreshold);
+        // 重复提交只会更新 last_seen_time，窗口内仍被看到的旧行同样参与统计
+        var windowStart = new Timestamp(System.currentTimeMillis() - overDownloadGenerateOffset);
+        query.setParameter(1, windowStart);
+        query.setParameter(2, windowStart);
+        query.setParameter(3, overDownloadGenerateThreshold);
         List<Object[]> queryResult = query.getResultList();
         var ips = ipMerger.merge(queryResult.stream().map(arr -> IPUtil.toString(((InetAddress) arr[1]))).collect(Collectors.toList()));
         List<AnalysedRule> rules = new ArrayList<>();
@@ -4,26 +4,92 @@ import com.ghostchu.btn.sparkle.module.audit.impl.Audit;
 import com.ghostchu.btn.sparkle.module.audit.impl.AuditRepository;
 import com.ghostchu.btn.sparkle.util.IPUtil;
 import com.ghostchu.btn.sparkle.util.ServletUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.util.LinkedMultiValueMap;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 @Service
+@Slf4j
 public class AuditService {
+    private static final int ROWS_PER_BATCH = 500;
+
     private final AuditRepository auditRepository;
+    /**
+     * 等待批量写入的审计日志，只由 {@link #logAsync} 写入
+     */
+    private final BlockingQueue<Audit> pending;
+    private final Counter droppedCounter;
 
-    public AuditService(AuditRepository auditRepository) {
+    public AuditService(AuditRepository auditRepository,
+                        @Value("${service.audit.queue-size}") int queueSize,
+                        MeterRegistry meterRegistry) {
         this.auditRepository = auditRepository;
+        this.pending = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.droppedCounter = Counter.builder("sparkle.audit.dropped")
+                .description("因队列已满而未写入的审计日志数")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.audit.queue.depth", pending, Collection::size)
+                .description("等待批量写入的审计日志数")
+                .register(meterRegistry);
     }
 
     public Audit log(HttpServletRequest req, String action, boolean success, Map<String, Object> node) {
-        var audit = new Audit(null, new Timestamp(System.currentTimeMillis()), IPUtil.toInet(ServletUtil.getIP(req)), action, success, getHeaders(req), node);
-        return auditRepository.save(audit);
+        return auditRepository.save(create(req, action, success, node));
+    }
+
+    /**
+     * 在调用线程中记录请求信息，之后批量写入；不访问数据库，供不能被数据库阻塞的请求路径使用
+     * <p>
+     * 数据库不可用时审计日志在内存中排队，队列已满后丢弃新的日志并计数。
+     */
+    public void logAsync(HttpServletRequest req, String action, boolean success, Map<String, Object> node) {
+        if (!pending.offer(create(req, action, success, node))) {
+            droppedCounter.increment();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${service.audit.flush-interval}")
+    @PreDestroy
+    public void flush() {
+        List<Audit> batch = new ArrayList<>(ROWS_PER_BATCH);
+        while (pending.drainTo(batch, ROWS_PER_BATCH) > 0) {
+            try {
+                auditRepository.saveAll(batch);
+            } catch (DataAccessException e) {
+                // 放回队列等下次写入，放不下的丢弃
+                int requeued = 0;
+                for (Audit audit : batch) {
+                    audit.setId(null);
+                    if (pending.offer(audit)) {
+                        requeued++;
+                    }
+                }
+                droppedCounter.increment(batch.size() - requeued);
+                log.error("无法写入 {} 条审计日志，{} 条将在下次重试", batch.size(), requeued, e);
+                return;
+            }
+            batch.clear();
+        }
+    }
+
+    private Audit create(HttpServletRequest req, String action, boolean success, Map<String, Object> node) {
+        return new Audit(null, new Timestamp(System.currentTimeMillis()), IPUtil.toInet(ServletUtil.getIP(req)), action, success, getHeaders(req), node);
     }
 
     public Map<String, List<String>> getHeaders(HttpServletRequest req) {
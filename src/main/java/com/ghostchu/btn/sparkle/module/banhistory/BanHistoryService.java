@@ -1,10 +1,15 @@
 package com.ghostchu.btn.sparkle.module.banhistory;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ghostchu.btn.sparkle.module.banhistory.internal.BanHistory;
 import com.ghostchu.btn.sparkle.module.banhistory.internal.BanHistoryRepository;
 import com.ghostchu.btn.sparkle.module.torrent.TorrentService;
 import com.ghostchu.btn.sparkle.util.ipdb.GeoIPManager;
+import com.ghostchu.btn.sparkle.util.ipdb.IPGeoData;
 import com.ghostchu.btn.sparkle.util.paging.SparklePage;
+import com.ghostchu.btn.sparkle.util.pgcopy.PgBulkInserter;
+import com.ghostchu.btn.sparkle.util.pgcopy.PooledSequence;
 import jakarta.transaction.Transactional;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.domain.PageRequest;
@@ -19,13 +24,25 @@ import java.util.List;
 
 @Service
 public class BanHistoryService {
+    private static final List<String> COPY_COLUMNS = List.of("id", "insert_time", "populate_time", "user_application",
+            "submit_id", "peer_ip", "peer_port", "peer_id", "peer_client_name", "torrent", "from_peer_traffic",
+            "from_peer_traffic_speed", "to_peer_traffic", "to_peer_traffic_speed", "peer_progress",
+            "downloader_progress", "flags", "submitter_ip", "btn_ban", "module", "rule", "ban_unique_id", "geoip");
+
     private final TorrentService torrentService;
     private final BanHistoryRepository banHistoryRepository;
+    private final PgBulkInserter bulkInserter;
+    private final PooledSequence idSequence;
+    private final ObjectMapper objectMapper;
 
     public BanHistoryService(BanHistoryRepository banHistoryRepository,
-                             TorrentService torrentService, GeoIPManager geoIPManager) {
+                             TorrentService torrentService, GeoIPManager geoIPManager,
+                             PgBulkInserter bulkInserter, ObjectMapper objectMapper) {
         this.banHistoryRepository = banHistoryRepository;
         this.torrentService = torrentService;
+        this.bulkInserter = bulkInserter;
+        this.idSequence = bulkInserter.sequence("ban_history_seq");
+        this.objectMapper = objectMapper;
 //        AtomicInteger count = new AtomicInteger();
 //        CompletableFuture.runAsync(() -> {
 //            while(true){
@@ -82,7 +99,62 @@ public class BanHistoryService {
     @Transactional
     @Async
     public void saveBanHistories(List<BanHistory> banHistoryList) {
-        banHistoryRepository.saveAll(banHistoryList);
+        copyBanHistories(banHistoryList);
+    }
+
+    /**
+     * 同步写入一批 BanHistory，在独立的事务中提交
+     *
+     * @param banHistoryList 一批 BanHistory
+     */
+    @Modifying
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public void saveBanHistoryBatch(List<BanHistory> banHistoryList) {
+        copyBanHistories(banHistoryList);
+    }
+
+    /**
+     * 通过 COPY 写入，id 从 ban_history_seq 按段分配并回填到实体上
+     */
+    private void copyBanHistories(List<BanHistory> banHistoryList) {
+        idSequence.reserve(banHistoryList.size());
+        bulkInserter.copy("banhistory", COPY_COLUMNS, banHistoryList, (banHistory, row) -> {
+            banHistory.setId(idSequence.next());
+            row.int8(banHistory.getId())
+                    .timestamp(banHistory.getInsertTime())
+                    .timestamp(banHistory.getPopulateTime())
+                    .int8(banHistory.getUserApplication() == null ? null : banHistory.getUserApplication().getId())
+                    .text(banHistory.getSubmitId())
+                    .inet(banHistory.getPeerIp())
+                    .int4(banHistory.getPeerPort())
+                    .text(banHistory.getPeerId())
+                    .text(banHistory.getPeerClientName())
+                    .int8(banHistory.getTorrent() == null ? null : banHistory.getTorrent().getId())
+                    .int8(banHistory.getFromPeerTraffic())
+                    .int8(banHistory.getFromPeerTrafficSpeed())
+                    .int8(banHistory.getToPeerTraffic())
+                    .int8(banHistory.getToPeerTrafficSpeed())
+                    .float8(banHistory.getPeerProgress())
+                    .float8(banHistory.getDownloaderProgress())
+                    .text(banHistory.getFlags())
+                    .inet(banHistory.getSubmitterIp())
+                    .bool(banHistory.getBtnBan())
+                    .text(banHistory.getModule())
+                    .text(banHistory.getRule())
+                    .text(banHistory.getBanUniqueId())
+                    .jsonb(toJson(banHistory.getGeoIP()));
+        });
+    }
+
+    private byte[] toJson(IPGeoData geoData) {
+        if (geoData == null) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsBytes(geoData);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to serialize geoIP", e);
+        }
     }
 
     public SparklePage<BanHistory, BanHistoryDto> queryRecent(PageRequest pageable) {
@@ -6,47 +6,176 @@ import com.ghostchu.btn.sparkle.module.user.UserService;
 import com.ghostchu.btn.sparkle.module.user.internal.User;
 import com.ghostchu.btn.sparkle.util.ByteUtil;
 import com.ghostchu.btn.sparkle.util.paging.SparklePage;
-import jakarta.persistence.LockModeType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.transaction.Transactional;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.domain.Specification;
-import org.springframework.data.jpa.repository.Lock;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.io.Serializable;
 import java.sql.Timestamp;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * 客户端发现
+ * <p>
+ * 已经存在于数据库中的 ClientIdentity 哈希常驻内存（{@link KnownIdentitySet}，启动时加载），
+ * 绝大多数提交中的客户端都已被发现过，这时只在内存中合并 last_seen，每分钟以一条 UPDATE ... FROM (VALUES ...) 刷写，
+ * 提交本身不产生任何数据库操作。新的客户端以 INSERT ... ON CONFLICT (hash) DO NOTHING 写入，
+ * 与其他并发提交竞争同一个客户端时不需要加锁。
+ */
 @Service
+@Slf4j
 public class ClientDiscoveryService {
+    private static final int ROWS_PER_STATEMENT = 1000;
+    private static final int LOAD_PAGE_SIZE = 100000;
+
     private final ClientDiscoveryRepository clientDiscoveryRepository;
     private final UserService userService;
+    private final JdbcTemplate jdbcTemplate;
+    private final KnownIdentitySet knownIdentities = new KnownIdentitySet();
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private Map<Long, LastSeen> pendingLastSeen = new ConcurrentHashMap<>();
+    private final Counter discoveredCounter;
+    private final Counter lastSeenFlushedCounter;
 
-    public ClientDiscoveryService(ClientDiscoveryRepository clientDiscoveryRepository, UserService userService) {
+    public ClientDiscoveryService(ClientDiscoveryRepository clientDiscoveryRepository, UserService userService,
+                                  JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
         this.clientDiscoveryRepository = clientDiscoveryRepository;
         this.userService = userService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.discoveredCounter = Counter.builder("sparkle.clientdiscovery.discovered")
+                .description("新发现并写入的客户端数")
+                .register(meterRegistry);
+        this.lastSeenFlushedCounter = Counter.builder("sparkle.clientdiscovery.lastseen.flushed")
+                .description("合并后写入数据库的 last_seen 更新数")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.clientdiscovery.known", knownIdentities, KnownIdentitySet::size)
+                .description("内存中已知的客户端数")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.clientdiscovery.lastseen.pending", this, s -> s.pendingLastSeen.size())
+                .description("等待刷写的 last_seen 更新数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 按主键分页加载全部已知哈希，每页只有一列 bigint
+     */
+    @PostConstruct
+    public void loadKnownIdentities() {
+        long start = System.currentTimeMillis();
+        var page = jdbcTemplate.queryForList("SELECT hash FROM clientdiscovery ORDER BY hash LIMIT ?", Long.class, LOAD_PAGE_SIZE);
+        while (true) {
+            page.forEach(knownIdentities::add);
+            if (page.size() < LOAD_PAGE_SIZE) {
+                break;
+            }
+            page = jdbcTemplate.queryForList("SELECT hash FROM clientdiscovery WHERE hash > ? ORDER BY hash LIMIT ?",
+                    Long.class, page.getLast(), LOAD_PAGE_SIZE);
+        }
+        log.info("已加载 {} 个已知客户端，耗时 {}ms", knownIdentities.size(), System.currentTimeMillis() - start);
     }
 
-    @Transactional
-    @Lock(LockModeType.PESSIMISTIC_WRITE)
-    @Async
+    @Modifying
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
     public void handleIdentities(User user, Timestamp timeForFoundAt, Timestamp timeForLastSeenAt, Set<ClientIdentity> clientIdentities) {
-        clientDiscoveryRepository.updateLastSeen(clientIdentities.stream().map(ClientIdentity::hash).toList(), timeForLastSeenAt, user);
-        var found = clientDiscoveryRepository.findAllById(clientIdentities.stream().map(ClientIdentity::hash).toList());
-        List<Long> hashInDatabase = new ArrayList<>();
-        found.forEach(clientDiscoveryEntity -> hashInDatabase.add(clientDiscoveryEntity.getHash()));
-        var notInDatabase = clientIdentities.stream()
-                .filter(c -> !hashInDatabase.contains(c.hash()))
-                .map(ci -> new ClientDiscovery(
-                        ci.hash(),
-                        ByteUtil.filterUTF8(ci.getClientName()),
-                        ByteUtil.filterUTF8(ci.getPeerId()), timeForFoundAt, user, timeForLastSeenAt, user))
-                .toList();
-        clientDiscoveryRepository.saveAll(notInDatabase);
+        List<ClientIdentity> unknown = new ArrayList<>();
+        for (ClientIdentity identity : clientIdentities) {
+            if (knownIdentities.contains(identity.hash())) {
+                touch(identity.hash(), new LastSeen(timeForLastSeenAt, user.getId()));
+            } else {
+                unknown.add(identity);
+            }
+        }
+        if (!unknown.isEmpty()) {
+            insertIdentities(user, timeForFoundAt, timeForLastSeenAt, unknown);
+        }
+    }
+
+    /**
+     * 写入新发现的客户端；已被其他提交抢先写入的按已知客户端处理
+     */
+    private void insertIdentities(User user, Timestamp foundAt, Timestamp lastSeenAt, List<ClientIdentity> identities) {
+        for (int from = 0; from < identities.size(); from += ROWS_PER_STATEMENT) {
+            var chunk = identities.subList(from, Math.min(identities.size(), from + ROWS_PER_STATEMENT));
+            StringJoiner joiner = new StringJoiner(", ",
+                    "INSERT INTO clientdiscovery (hash, client_name, peer_id, found_at, found_by, last_seen_at, last_seen_by) VALUES ",
+                    " ON CONFLICT (hash) DO NOTHING RETURNING hash");
+            List<Object> args = new ArrayList<>(chunk.size() * 7);
+            for (ClientIdentity identity : chunk) {
+                joiner.add("(?, ?, ?, ?, ?, ?, ?)");
+                Collections.addAll(args, identity.hash(), ByteUtil.filterUTF8(identity.getClientName()),
+                        ByteUtil.filterUTF8(identity.getPeerId()), foundAt, user.getId(), lastSeenAt, user.getId());
+            }
+            Set<Long> inserted = new HashSet<>(jdbcTemplate.queryForList(joiner.toString(), Long.class, args.toArray()));
+            discoveredCounter.increment(inserted.size());
+            for (ClientIdentity identity : chunk) {
+                knownIdentities.add(identity.hash());
+                if (!inserted.contains(identity.hash())) {
+                    touch(identity.hash(), new LastSeen(lastSeenAt, user.getId()));
+                }
+            }
+        }
+    }
+
+    private void touch(long hash, LastSeen lastSeen) {
+        swapLock.readLock().lock();
+        try {
+            pendingLastSeen.merge(hash, lastSeen, LastSeen::latest);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${service.clientdiscovery.lastseen-flush-interval}")
+    @PreDestroy
+    public synchronized void flushLastSeen() {
+        Map<Long, LastSeen> pending;
+        swapLock.writeLock().lock();
+        try {
+            pending = pendingLastSeen;
+            pendingLastSeen = new ConcurrentHashMap<>();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<Long, LastSeen>> entries = new ArrayList<>(pending.entrySet());
+        try {
+            for (int from = 0; from < entries.size(); from += ROWS_PER_STATEMENT) {
+                var chunk = entries.subList(from, Math.min(entries.size(), from + ROWS_PER_STATEMENT));
+                StringJoiner joiner = new StringJoiner(", ", "UPDATE clientdiscovery cd SET last_seen_at = v.last_seen_at, last_seen_by = v.last_seen_by FROM (VALUES ",
+                        ") AS v(hash, last_seen_at, last_seen_by) WHERE cd.hash = v.hash AND cd.last_seen_at < v.last_seen_at");
+                List<Object> args = new ArrayList<>(chunk.size() * 3);
+                for (var entry : chunk) {
+                    joiner.add("(?::bigint, ?::timestamp, ?::bigint)");
+                    Collections.addAll(args, entry.getKey(), entry.getValue().at(), entry.getValue().userId());
+                }
+                jdbcTemplate.update(joiner.toString(), args.toArray());
+            }
+            lastSeenFlushedCounter.increment(entries.size());
+        } catch (DataAccessException e) {
+            log.error("无法刷写 {} 个客户端的 last_seen，将在下次重试", entries.size(), e);
+            swapLock.readLock().lock();
+            try {
+                pending.forEach((hash, lastSeen) -> pendingLastSeen.merge(hash, lastSeen, LastSeen::latest));
+            } finally {
+                swapLock.readLock().unlock();
+            }
+        }
     }
 
     @Cacheable(value = "clientDiscoveryMetrics#1800000", key = "#from+'-'+#to")
@@ -79,6 +208,12 @@ public class ClientDiscoveryService {
         return new SparklePage<>(page, ct -> ct.map(this::toDto));
     }
 
+    private record LastSeen(Timestamp at, long userId) {
+        LastSeen latest(LastSeen other) {
+            return other.at.after(at) ? other : this;
+        }
+    }
+
     public record ClientDiscoveryMetrics(
             long total,
             long recent
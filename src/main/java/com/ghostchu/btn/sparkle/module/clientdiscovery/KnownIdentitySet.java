@@ -0,0 +1,102 @@
+package com.ghostchu.btn.sparkle.module.clientdiscovery;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 已存在于数据库中的 ClientIdentity 哈希集合
+ * <p>
+ * 以 long[] 开放寻址保存，每个哈希只占 8 字节（负载因子 0.5 时约 16 字节），没有装箱开销。
+ * 使用精确集合而不是布隆过滤器：误判会让一个新的客户端永远不被写入。
+ */
+final class KnownIdentitySet {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long[] table = new long[INITIAL_CAPACITY];
+    private int size;
+    /**
+     * 0 是空槽的标记，单独记录
+     */
+    private boolean containsZero;
+
+    boolean contains(long hash) {
+        lock.readLock().lock();
+        try {
+            if (hash == 0) {
+                return containsZero;
+            }
+            int mask = table.length - 1;
+            for (int slot = slot(hash, mask); ; slot = (slot + 1) & mask) {
+                long value = table[slot];
+                if (value == hash) {
+                    return true;
+                }
+                if (value == 0) {
+                    return false;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void add(long hash) {
+        lock.writeLock().lock();
+        try {
+            if (hash == 0) {
+                if (!containsZero) {
+                    containsZero = true;
+                    size++;
+                }
+                return;
+            }
+            if ((size + 1) * 2L > table.length) {
+                resize(table.length * 2);
+            }
+            if (insert(table, hash)) {
+                size++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] resized = new long[capacity];
+        for (long value : table) {
+            if (value != 0) {
+                insert(resized, value);
+            }
+        }
+        table = resized;
+    }
+
+    private static boolean insert(long[] table, long hash) {
+        int mask = table.length - 1;
+        for (int slot = slot(hash, mask); ; slot = (slot + 1) & mask) {
+            if (table[slot] == hash) {
+                return false;
+            }
+            if (table[slot] == 0) {
+                table[slot] = hash;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 哈希本身来自 SHA-256，高低位折叠即可均匀分布
+     */
+    private static int slot(long hash, int mask) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,344 @@
+package com.ghostchu.btn.sparkle.module.ping;
+
+import com.ghostchu.btn.sparkle.module.ping.dto.BtnRule;
+import inet.ipaddr.IPAddress;
+import inet.ipaddr.IPAddressString;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * {@link BtnRule} 的紧凑二进制格式，客户端通过 Accept: {@value #MEDIA_TYPE} 协商
+ * <p>
+ * 所有整数均为大端序，字符串为 u16 字节长度 + UTF-8：
+ * <pre>
+ * magic "BTNR" | u8 格式版本 (1) | 字符串 version
+ * 字符串规则段 × 4（peer_id, peer_id_exclude, client_name, client_name_exclude）：
+ *     u32 分类数，每个分类：字符串 分类名 | u32 条目数 | 条目数 × 字符串
+ * IP 规则段：
+ *     u32 分类数，每个分类：字符串 分类名
+ *         | u32 IPv4 条目数 | 条目数 × (4 字节网络地址 | u8 前缀长度)
+ *         | u32 IPv6 条目数 | 条目数 × (16 字节网络地址 | u8 前缀长度)
+ *         | u32 无法解析为 CIDR 的条目数 | 条目数 × 字符串
+ * 端口规则段：
+ *     u32 分类数，每个分类：字符串 分类名 | u32 条目数 | 条目数 × u16 端口
+ * </pre>
+ * IP 条目的主机位已清零，按地址（无符号）排序，并去掉了被同一分类中更大网段包含的条目，
+ * 因此同一分类的网段互不重叠、记录定长，客户端无需解析字符串即可直接在原始字节上二分查找，见 {@link CidrTable#contains}。
+ * <p>
+ * {@link #decode} 是参考解码器，只依赖 JDK，可以直接复制到客户端使用。
+ */
+public final class BtnRuleBinaryCodec {
+    public static final String MEDIA_TYPE = "application/vnd.btn.rule";
+    private static final byte[] MAGIC = {'B', 'T', 'N', 'R'};
+    private static final int FORMAT_VERSION = 1;
+
+    private BtnRuleBinaryCodec() {
+    }
+
+    public static byte[] encode(BtnRule rule) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        writeString(out, rule.getVersion() == null ? "" : rule.getVersion());
+        writeStringSection(out, rule.getPeerIdRules());
+        writeStringSection(out, rule.getExcludePeerIdRules());
+        writeStringSection(out, rule.getClientNameRules());
+        writeStringSection(out, rule.getExcludeClientNameRules());
+        Map<String, List<String>> ipRules = sorted(rule.getIpRules());
+        out.writeInt(ipRules.size());
+        for (var entry : ipRules.entrySet()) {
+            writeString(out, entry.getKey());
+            writeIpCategory(out, entry.getValue());
+        }
+        Map<String, List<Integer>> portRules = sorted(rule.getPortRules());
+        out.writeInt(portRules.size());
+        for (var entry : portRules.entrySet()) {
+            writeString(out, entry.getKey());
+            int[] ports = entry.getValue().stream().mapToInt(Integer::intValue).filter(p -> p >= 0 && p <= 0xFFFF)
+                    .sorted().distinct().toArray();
+            out.writeInt(ports.length);
+            for (int port : ports) {
+                out.writeShort(port);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeStringSection(DataOutputStream out, Map<String, List<String>> rules) throws IOException {
+        Map<String, List<String>> sorted = sorted(rules);
+        out.writeInt(sorted.size());
+        for (var entry : sorted.entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (String value : entry.getValue()) {
+                writeString(out, value);
+            }
+        }
+    }
+
+    private static void writeIpCategory(DataOutputStream out, List<String> entries) throws IOException {
+        List<Cidr> v4 = new ArrayList<>();
+        List<Cidr> v6 = new ArrayList<>();
+        List<String> others = new ArrayList<>();
+        for (String entry : entries) {
+            IPAddress address = new IPAddressString(entry).getAddress();
+            // 地址范围（如 1.2.3.4-1.2.3.9）无法表示为单个网段，原样保留
+            if (address == null || (address.isMultiple() && !address.isPrefixBlock())) {
+                others.add(entry);
+                continue;
+            }
+            Integer prefix = address.getNetworkPrefixLength();
+            IPAddress block = prefix == null ? address : address.toPrefixBlock();
+            Cidr cidr = new Cidr(block.getLower().getBytes(), prefix == null ? address.getBitCount() : prefix);
+            (cidr.address().length == 4 ? v4 : v6).add(cidr);
+        }
+        writeCidrs(out, v4);
+        writeCidrs(out, v6);
+        out.writeInt(others.size());
+        for (String other : others) {
+            writeString(out, other);
+        }
+    }
+
+    private static void writeCidrs(DataOutputStream out, List<Cidr> cidrs) throws IOException {
+        // 同一起始地址时较大的网段排在前面，之后被它包含的网段都可以跳过
+        cidrs.sort((a, b) -> {
+            int c = Arrays.compareUnsigned(a.address(), b.address());
+            return c != 0 ? c : Integer.compare(a.prefix(), b.prefix());
+        });
+        List<Cidr> disjoint = new ArrayList<>(cidrs.size());
+        for (Cidr cidr : cidrs) {
+            if (disjoint.isEmpty() || !disjoint.getLast().contains(cidr.address())) {
+                disjoint.add(cidr);
+            }
+        }
+        out.writeInt(disjoint.size());
+        for (Cidr cidr : disjoint) {
+            out.write(cidr.address());
+            out.writeByte(cidr.prefix());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("规则条目过长：" + bytes.length + " 字节");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static <T> Map<String, List<T>> sorted(Map<String, List<T>> rules) {
+        return rules == null ? Map.of() : new TreeMap<>(rules);
+    }
+
+    /**
+     * 参考解码器
+     *
+     * @throws IOException 数据不是该格式或已截断
+     */
+    public static DecodedRules decode(byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("不是二进制规则格式");
+            }
+            int format = buffer.get() & 0xFF;
+            if (format != FORMAT_VERSION) {
+                throw new IOException("不支持的二进制规则格式版本：" + format);
+            }
+            String version = readString(buffer);
+            var peerId = readStringSection(buffer);
+            var excludePeerId = readStringSection(buffer);
+            var clientName = readStringSection(buffer);
+            var excludeClientName = readStringSection(buffer);
+            int ipCategories = buffer.getInt();
+            Map<String, CidrTable> ip = new LinkedHashMap<>();
+            for (int i = 0; i < ipCategories; i++) {
+                String category = readString(buffer);
+                byte[] v4 = readRecords(buffer, 5);
+                byte[] v6 = readRecords(buffer, 17);
+                int otherCount = buffer.getInt();
+                List<String> others = new ArrayList<>(Math.min(otherCount, buffer.remaining() / 2));
+                for (int j = 0; j < otherCount; j++) {
+                    others.add(readString(buffer));
+                }
+                ip.put(category, new CidrTable(v4, v6, others));
+            }
+            int portCategories = buffer.getInt();
+            Map<String, int[]> port = new LinkedHashMap<>();
+            for (int i = 0; i < portCategories; i++) {
+                String category = readString(buffer);
+                int count = buffer.getInt();
+                if (count < 0 || count > buffer.remaining() / 2) {
+                    throw new IOException("二进制规则已截断");
+                }
+                int[] ports = new int[count];
+                for (int j = 0; j < count; j++) {
+                    ports[j] = buffer.getShort() & 0xFFFF;
+                }
+                port.put(category, ports);
+            }
+            return new DecodedRules(version, peerId, excludePeerId, clientName, excludeClientName, ip, port);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("二进制规则已截断", e);
+        }
+    }
+
+    private static Map<String, List<String>> readStringSection(ByteBuffer buffer) throws IOException {
+        int categories = buffer.getInt();
+        Map<String, List<String>> section = new LinkedHashMap<>();
+        for (int i = 0; i < categories; i++) {
+            String category = readString(buffer);
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / 2) {
+                throw new IOException("二进制规则已截断");
+            }
+            List<String> values = new ArrayList<>(count);
+            for (int j = 0; j < count; j++) {
+                values.add(readString(buffer));
+            }
+            section.put(category, values);
+        }
+        return section;
+    }
+
+    private static byte[] readRecords(ByteBuffer buffer, int recordSize) throws IOException {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / recordSize) {
+            throw new IOException("二进制规则已截断");
+        }
+        byte[] records = new byte[count * recordSize];
+        buffer.get(records);
+        return records;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private record Cidr(byte[] address, int prefix) {
+        boolean contains(byte[] other) {
+            return other.length == address.length && prefixMatches(address, 0, other, prefix);
+        }
+    }
+
+    private static boolean prefixMatches(byte[] network, int offset, byte[] address, int prefix) {
+        int fullBytes = prefix / 8;
+        for (int i = 0; i < fullBytes; i++) {
+            if (network[offset + i] != address[i]) {
+                return false;
+            }
+        }
+        int remainingBits = prefix % 8;
+        if (remainingBits == 0) {
+            return true;
+        }
+        int mask = (0xFF << (8 - remainingBits)) & 0xFF;
+        return (network[offset + fullBytes] & mask) == (address[fullBytes] & mask);
+    }
+
+    /**
+     * 解码后的规则；IP 规则保持为定长记录，不展开为字符串
+     */
+    public record DecodedRules(String version,
+                               Map<String, List<String>> peerIdRules,
+                               Map<String, List<String>> excludePeerIdRules,
+                               Map<String, List<String>> clientNameRules,
+                               Map<String, List<String>> excludeClientNameRules,
+                               Map<String, CidrTable> ipRules,
+                               Map<String, int[]> portRules) {
+        /**
+         * 还原为 {@link BtnRule}；IP 条目统一写成 地址/前缀长度 的形式
+         */
+        public BtnRule toBtnRule() {
+            Map<String, List<String>> ip = new LinkedHashMap<>();
+            ipRules.forEach((category, table) -> ip.put(category, table.toStrings()));
+            Map<String, List<Integer>> port = new LinkedHashMap<>();
+            portRules.forEach((category, ports) -> port.put(category, Arrays.stream(ports).boxed().toList()));
+            return new BtnRule(version.isEmpty() ? null : version, peerIdRules, excludePeerIdRules,
+                    clientNameRules, excludeClientNameRules, ip, port);
+        }
+    }
+
+    /**
+     * 一个分类的 IP 网段：按地址排序且互不重叠的定长记录
+     */
+    public static final class CidrTable {
+        private final byte[] v4;
+        private final byte[] v6;
+        private final List<String> others;
+
+        CidrTable(byte[] v4, byte[] v6, List<String> others) {
+            this.v4 = v4;
+            this.v6 = v6;
+            this.others = others;
+        }
+
+        public int size() {
+            return v4.length / 5 + v6.length / 17 + others.size();
+        }
+
+        /**
+         * 二分查找最后一个起始地址不大于 address 的网段，再检查它是否包含 address；
+         * 网段互不重叠，因此只需检查这一个。无法解析为 CIDR 的条目不参与匹配。
+         */
+        public boolean contains(InetAddress address) {
+            byte[] target = address.getAddress();
+            byte[] records = target.length == 4 ? v4 : v6;
+            int recordSize = target.length + 1;
+            int low = 0;
+            int high = records.length / recordSize - 1;
+            int candidate = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int offset = mid * recordSize;
+                if (Arrays.compareUnsigned(records, offset, offset + target.length, target, 0, target.length) <= 0) {
+                    candidate = offset;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return candidate >= 0
+                   && prefixMatches(records, candidate, target, records[candidate + target.length] & 0xFF);
+        }
+
+        public List<String> toStrings() {
+            List<String> result = new ArrayList<>(size());
+            appendCidrs(result, v4, 4);
+            appendCidrs(result, v6, 16);
+            result.addAll(others);
+            return result;
+        }
+
+        private static void appendCidrs(List<String> result, byte[] records, int addressLength) {
+            for (int offset = 0; offset < records.length; offset += addressLength + 1) {
+                try {
+                    String host = InetAddress.getByAddress(Arrays.copyOfRange(records, offset, offset + addressLength)).getHostAddress();
+                    result.add(host + "/" + (records[offset + addressLength] & 0xFF));
+                } catch (UnknownHostException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.ghostchu.btn.sparkle.module.ping;
+
+/**
+ * 一条提交中已经提交到数据库的条目数
+ * <p>
+ * Peers/Bans 按批在独立事务中提交，处理中途失败时前面的批次已经写入。重试同一条提交时传入同一个对象，
+ * 已提交的条目会被跳过而不是重复写入；条目的顺序由请求体决定，每次解析都相同。
+ */
+public final class IngestProgress {
+    private long committed;
+
+    public long committed() {
+        return committed;
+    }
+
+    void advance(long count) {
+        committed += count;
+    }
+}
@@ -10,29 +10,29 @@ import com.ghostchu.btn.sparkle.module.ping.ability.impl.ReconfigureAbility;
 import com.ghostchu.btn.sparkle.module.ping.ability.impl.SubmitBansAbility;
 import com.ghostchu.btn.sparkle.module.ping.ability.impl.SubmitPeersAbility;
 import com.ghostchu.btn.sparkle.module.ping.dto.BtnBanPing;
-import com.ghostchu.btn.sparkle.module.ping.dto.BtnPeerPing;
-import com.ghostchu.btn.sparkle.module.ping.dto.BtnRule;
+import com.ghostchu.btn.sparkle.module.ping.ingest.IngestionLog;
 import com.ghostchu.btn.sparkle.module.userapp.UserApplicationService;
 import com.ghostchu.btn.sparkle.module.userapp.internal.UserApplication;
 import com.ghostchu.btn.sparkle.util.ServletUtil;
 import com.ghostchu.btn.sparkle.util.ipdb.GeoIPManager;
-import com.google.common.hash.Hashing;
 import inet.ipaddr.IPAddress;
 import inet.ipaddr.IPAddressString;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.transaction.Transactional;
+import jakarta.validation.Validator;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.nio.charset.StandardCharsets;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -41,6 +41,7 @@ import java.util.Map;
 @Transactional
 @Slf4j
 public class PingController extends SparkleController {
+    private static final MediaType BINARY_RULE_MEDIA_TYPE = MediaType.parseMediaType(BtnRuleBinaryCodec.MEDIA_TYPE);
     @Autowired
     private PingService service;
     @Autowired
@@ -67,10 +68,22 @@ public class PingController extends SparkleController {
     private String sparkleRootChina;
     @Autowired
     private GeoIPManager geoIPManager;
+    @Autowired
+    private IngestionLog ingestionLog;
+    @Autowired
+    private RuleBundlePublisher ruleBundlePublisher;
+    @Autowired
+    private Validator validator;
+    @Value("${service.ping.ingest.retry-after}")
+    private long ingestRetryAfter;
 
 
+    /**
+     * 不在事务中执行：启用接收日志时确认前只写入日志，不占用数据库连接；未启用时每批各自在独立事务中提交
+     */
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
     @PostMapping("/peers/submit")
-    public ResponseEntity<String> submitPeers(@RequestBody @Validated BtnPeerPing ping) throws AccessDeniedException {
+    public ResponseEntity<String> submitPeers() throws AccessDeniedException, IOException {
         var cred = cred();
         var audit = new LinkedHashMap<String, Object>();
         audit.put("appId", cred.getAppId());
@@ -78,21 +91,34 @@ public class PingController extends SparkleController {
             log.warn("[BANNED] [Ping] [{}] 正在以遭到封禁的 UserApplication 请求提交 Peers 数据：(AppId={}, AppSecret={}, UA={})",
                     ip(req), cred.getAppId(), cred.getAppSecret(), ua(req));
             audit.put("error", "UserApplication Banned");
-            auditService.log(req, "BTN_PEERS_SUBMIT", false, audit);
+            auditService.logAsync(req, "BTN_PEERS_SUBMIT", false, audit);
             return ResponseEntity.status(403).body("UserApplication 已被管理员封禁，请与服务器管理员联系");
         }
         IPAddress ip = new IPAddressString(ip(req)).getAddress();
-        var handled = service.handlePeers(ip.toInetAddress(), cred, ping);
+        if (ingestionLog.isEnabled()) {
+            return appendToIngestionLog(IngestionLog.RecordType.PEERS, "BTN_PEERS_SUBMIT", cred, ip.toInetAddress(), audit);
+        }
+        PingService.PeerIngestResult result;
+        try {
+            result = service.handlePeers(ip.toInetAddress(), cred, req.getInputStream());
+        } catch (JsonProcessingException e) {
+            log.warn("[FAIL] [Ping] [{}] 提交的 Peers 数据格式错误：(AppId={}, AppSecret={}, UA={})：{}",
+                    ip(req), cred.getAppId(), cred.getAppSecret(), ua(req), e.getOriginalMessage());
+            audit.put("error", "Malformed JSON");
+            auditService.logAsync(req, "BTN_PEERS_SUBMIT", false, audit);
+            return ResponseEntity.status(400).body("无法解析提交的 Peers 数据：" + e.getOriginalMessage());
+        }
         log.info("[OK] [Ping] [{}] 已提交 {}/{} 个 Peers 信息：(AppId={}, AppSecret={}, UA={})",
-                ip(req), ping.getPeers().size(), handled, cred.getAppId(), cred.getAppSecret(), ua(req));
-        audit.put("peers_size", ping.getPeers().size());
-        audit.put("peers_handled", handled);
-        auditService.log(req, "BTN_PEERS_SUBMIT", true, audit);
+                ip(req), result.received(), result.handled(), cred.getAppId(), cred.getAppSecret(), ua(req));
+        audit.put("peers_size", result.received());
+        audit.put("peers_handled", result.handled());
+        auditService.logAsync(req, "BTN_PEERS_SUBMIT", true, audit);
         return ResponseEntity.status(200).build();
     }
 
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
     @PostMapping("/bans/submit")
-    public ResponseEntity<String> submitBans(@RequestBody @Validated BtnBanPing ping) throws AccessDeniedException {
+    public ResponseEntity<String> submitBans() throws AccessDeniedException, IOException {
         var cred = cred();
         var audit = new LinkedHashMap<String, Object>();
         audit.put("appId", cred.getAppId());
@@ -100,16 +126,32 @@ public class PingController extends SparkleController {
             log.warn("[BANNED] [Ping] [{}] 正在以遭到封禁的 UserApplication 请求提交 Bans 数据：(AppId={}, AppSecret={}, UA={})",
                     ip(req), cred.getAppId(), cred.getAppSecret(), ua(req));
             audit.put("error", "UserApplication Banned");
-            auditService.log(req, "BTN_BANS_SUBMIT", false, audit);
+            auditService.logAsync(req, "BTN_BANS_SUBMIT", false, audit);
             return ResponseEntity.status(403).body("UserApplication 已被管理员封禁，请与服务器管理员联系");
         }
         IPAddress ip = new IPAddressString(ip(req)).getAddress();
+        if (ingestionLog.isEnabled()) {
+            return appendToIngestionLog(IngestionLog.RecordType.BANS, "BTN_BANS_SUBMIT", cred, ip.toInetAddress(), audit);
+        }
+        BtnBanPing ping;
+        try {
+            ping = objectMapper.readValue(req.getInputStream(), BtnBanPing.class);
+        } catch (JsonProcessingException e) {
+            audit.put("error", "Malformed JSON");
+            auditService.logAsync(req, "BTN_BANS_SUBMIT", false, audit);
+            return ResponseEntity.status(400).body("无法解析提交的 Bans 数据：" + e.getOriginalMessage());
+        }
+        if (!validator.validate(ping).isEmpty()) {
+            audit.put("error", "Validation Failed");
+            auditService.logAsync(req, "BTN_BANS_SUBMIT", false, audit);
+            return ResponseEntity.status(400).body("提交的 Bans 数据校验失败");
+        }
         var handled = service.handleBans(ip.toInetAddress(), cred, ping);
         log.info("[OK] [Ping] [{}] 已提交 {}/{} 个 封禁信息：(AppId={}, AppSecret={}, UA={})",
                 ip(req), ping.getBans().size(), handled, cred.getAppId(), cred.getAppSecret(), ua(req));
         audit.put("bans_size", ping.getBans().size());
         audit.put("bans_handled", handled);
-        auditService.log(req, "BTN_PEERS_SUBMIT", true, audit);
+        auditService.logAsync(req, "BTN_PEERS_SUBMIT", true, audit);
         return ResponseEntity.status(200).build();
     }
 
@@ -151,8 +193,12 @@ public class PingController extends SparkleController {
         return ResponseEntity.ok().body(json);
     }
 
+    /**
+     * 直接写出预编译的规则包；If-None-Match 或 rev 参数与当前版本一致时不返回规则内容。
+     * Accept 中包含 {@value BtnRuleBinaryCodec#MEDIA_TYPE} 时返回二进制格式，否则返回 JSON
+     */
     @GetMapping("/rules/retrieve")
-    public ResponseEntity<String> rule() throws IOException, AccessDeniedException {
+    public ResponseEntity<Object> rule() throws IOException, AccessDeniedException {
         var cred = cred();
         var audit = new LinkedHashMap<String, Object>();
         audit.put("appId", cred.getAppId());
@@ -164,20 +210,173 @@ public class PingController extends SparkleController {
             return ResponseEntity.status(403).body("UserApplication 已被管理员封禁，请与服务器管理员联系");
         }
         String version = req.getParameter("rev");
-        BtnRule btn = service.generateBtnRule();
-        String rev = Hashing.goodFastHash(32).hashString(objectMapper.writeValueAsString(btn), StandardCharsets.UTF_8).toString();
-        if (rev.equals(version)) {
+        var bundle = ruleBundlePublisher.current();
+        if (etagMatches(req.getHeader(HttpHeaders.IF_NONE_MATCH), bundle.revision())) {
+            log.info("[OK] [Rule] [{}] 规则无变化，响应 304 状态码 (AppId={}, AppSecret={}, UA={})",
+                    ip(req), cred.getAppId(), cred.getAppSecret(), ua(req));
+            return ResponseEntity.status(304).eTag(bundle.etag()).cacheControl(CacheControl.noCache()).build();
+        }
+        if (bundle.revision().equals(version)) {
             log.info("[OK] [Rule] [{}] 规则无变化，响应 204 状态码 (AppId={}, AppSecret={}, UA={})",
                     ip(req), cred.getAppId(), cred.getAppSecret(), ua(req));
-            return ResponseEntity.status(204).build();
+            return ResponseEntity.status(204).eTag(bundle.etag()).build();
         }
-        btn.setVersion(rev);
         log.info("[OK] [Rule] [{}] 已发送新的规则 {} -> {} (AppId={}, AppSecret={}, UA={})",
-                ip(req), version, rev, cred.getAppId(), cred.getAppSecret(), ua(req));
+                ip(req), version, bundle.revision(), cred.getAppId(), cred.getAppSecret(), ua(req));
         audit.put("from", version);
-        audit.put("to", rev);
+        audit.put("to", bundle.revision());
         auditService.log(req, "BTN_RULES_RETRIEVE", true, audit);
-        return ResponseEntity.status(200).contentType(MediaType.APPLICATION_JSON).body(objectMapper.writeValueAsString(btn));
+        if (acceptsBinaryRules(req.getHeader(HttpHeaders.ACCEPT))) {
+            return rulePayload(bundle, bundle.binary(), BINARY_RULE_MEDIA_TYPE);
+        }
+        return rulePayload(bundle, bundle.full(), MediaType.APPLICATION_JSON);
+    }
+
+    /**
+     * 增量同步规则：rev 为客户端当前的版本。
+     * 该版本仍在历史窗口内时返回 {@link com.ghostchu.btn.sparkle.module.ping.dto.BtnRuleDelta}（带有 from 字段），
+     * 否则回退为与 /rules/retrieve 相同的完整规则（没有 from 字段）
+     */
+    @GetMapping("/rules/delta")
+    public ResponseEntity<Object> ruleDelta() throws IOException, AccessDeniedException {
+        var cred = cred();
+        var audit = new LinkedHashMap<String, Object>();
+        audit.put("appId", cred.getAppId());
+        if (isCredBanned(cred)) {
+            log.warn("[BANNED] [Ping] [{}] 正在以遭到封禁的 UserApplication 请求云端规则增量：(AppId={}, AppSecret={}, UA={})",
+                    ip(req), cred.getAppId(), cred.getAppSecret(), ua(req));
+            audit.put("error", "UserApplication Banned");
+            auditService.log(req, "BTN_RULES_DELTA", false, audit);
+            return ResponseEntity.status(403).body("UserApplication 已被管理员封禁，请与服务器管理员联系");
+        }
+        String version = req.getParameter("rev");
+        var bundle = ruleBundlePublisher.current();
+        if (etagMatches(req.getHeader(HttpHeaders.IF_NONE_MATCH), bundle.revision())) {
+            log.info("[OK] [Rule] [{}] 规则无变化，响应 304 状态码 (AppId={}, AppSecret={}, UA={})",
+                    ip(req), cred.getAppId(), cred.getAppSecret(), ua(req));
+            return ResponseEntity.status(304).eTag(bundle.etag()).cacheControl(CacheControl.noCache()).build();
+        }
+        if (bundle.revision().equals(version)) {
+            log.info("[OK] [Rule] [{}] 规则无变化，响应 204 状态码 (AppId={}, AppSecret={}, UA={})",
+                    ip(req), cred.getAppId(), cred.getAppSecret(), ua(req));
+            return ResponseEntity.status(204).eTag(bundle.etag()).build();
+        }
+        var delta = version == null ? null : bundle.deltas().get(version);
+        audit.put("from", version);
+        audit.put("to", bundle.revision());
+        audit.put("delta", delta != null);
+        auditService.log(req, "BTN_RULES_DELTA", true, audit);
+        if (delta == null) {
+            log.info("[OK] [Rule] [{}] 版本 {} 不在增量历史中，发送完整规则 {} (AppId={}, AppSecret={}, UA={})",
+                    ip(req), version, bundle.revision(), cred.getAppId(), cred.getAppSecret(), ua(req));
+            return rulePayload(bundle, bundle.full(), MediaType.APPLICATION_JSON);
+        }
+        log.info("[OK] [Rule] [{}] 已发送规则增量 {} -> {} (AppId={}, AppSecret={}, UA={})",
+                ip(req), version, bundle.revision(), cred.getAppId(), cred.getAppSecret(), ua(req));
+        return rulePayload(bundle, delta, MediaType.APPLICATION_JSON);
+    }
+
+    private ResponseEntity<Object> rulePayload(RuleBundlePublisher.RuleBundle bundle, RuleBundlePublisher.Payload payload,
+                                               MediaType contentType) {
+        var response = ResponseEntity.status(200)
+                .contentType(contentType)
+                .eTag(bundle.etag())
+                .cacheControl(CacheControl.noCache())
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+        if (acceptsGzip(req.getHeader(HttpHeaders.ACCEPT_ENCODING))) {
+            // 已带 Content-Encoding 的响应不会再被容器压缩
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(payload.gzip());
+        }
+        return response.body(payload.data());
+    }
+
+    private static boolean etagMatches(String ifNoneMatch, String revision) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("\"" + revision + "\"")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 只有明确列出二进制格式时才返回二进制格式，通配的 Accept 仍然返回 JSON
+    private static boolean acceptsBinaryRules(String accept) {
+        if (accept == null) {
+            return false;
+        }
+        try {
+            for (MediaType mediaType : MediaType.parseMediaTypes(accept)) {
+                if (!mediaType.isWildcardType() && !mediaType.isWildcardSubtype()
+                    && mediaType.isCompatibleWith(BINARY_RULE_MEDIA_TYPE) && mediaType.getQualityValue() > 0) {
+                    return true;
+                }
+            }
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+        return false;
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (!parts[0].trim().equalsIgnoreCase("gzip")) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=") && param.substring(2).trim().matches("0(\\.0*)?")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 请求体写入接收日志后立即确认，由 IngestionConsumer 异步写入数据库；积压过多时返回 503 让客户端稍后重试
+     * <p>
+     * 确认路径上不访问数据库，审计日志也异步批量写入，数据库停顿不会阻塞提交
+     */
+    private ResponseEntity<String> appendToIngestionLog(IngestionLog.RecordType type, String auditAction, UserApplication cred,
+                                                        InetAddress submitterIp, Map<String, Object> audit) throws IOException {
+        long offset;
+        try {
+            offset = ingestionLog.append(type, cred.getAppId(), submitterIp, req.getInputStream());
+        } catch (IngestionLog.BackpressureException e) {
+            log.warn("[BUSY] [Ping] [{}] 接收日志积压过多，拒绝提交的 {} 数据：(AppId={}, AppSecret={}, UA={})",
+                    ip(req), type, cred.getAppId(), cred.getAppSecret(), ua(req));
+            audit.put("error", "Ingestion Backlog Full");
+            auditService.logAsync(req, auditAction, false, audit);
+            return ResponseEntity.status(503)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(ingestRetryAfter))
+                    .body("服务器正忙，请稍后重试");
+        } catch (IngestionLog.RecordTooLargeException e) {
+            log.warn("[FAIL] [Ping] [{}] 提交的 {} 数据过大：(AppId={}, AppSecret={}, UA={})",
+                    ip(req), type, cred.getAppId(), cred.getAppSecret(), ua(req));
+            audit.put("error", "Payload Too Large");
+            auditService.logAsync(req, auditAction, false, audit);
+            return ResponseEntity.status(413).body(e.getMessage());
+        }
+        log.info("[OK] [Ping] [{}] 已接收 {} 数据，等待写入数据库：(AppId={}, AppSecret={}, UA={}, Offset={})",
+                ip(req), type, cred.getAppId(), cred.getAppSecret(), ua(req), offset);
+        audit.put("ingest_offset", offset);
+        auditService.logAsync(req, auditAction, true, audit);
+        return ResponseEntity.status(200).build();
     }
 
     private void checkIfInvalidPBH() throws AccessDeniedException {
@@ -1,12 +1,16 @@
 package com.ghostchu.btn.sparkle.module.ping;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ghostchu.btn.sparkle.module.analyse.AnalyseService;
 import com.ghostchu.btn.sparkle.module.banhistory.BanHistoryService;
 import com.ghostchu.btn.sparkle.module.banhistory.internal.BanHistory;
 import com.ghostchu.btn.sparkle.module.clientdiscovery.ClientDiscoveryService;
 import com.ghostchu.btn.sparkle.module.clientdiscovery.ClientIdentity;
 import com.ghostchu.btn.sparkle.module.ping.dto.BtnBanPing;
-import com.ghostchu.btn.sparkle.module.ping.dto.BtnPeerPing;
+import com.ghostchu.btn.sparkle.module.ping.dto.BtnPeer;
 import com.ghostchu.btn.sparkle.module.ping.dto.BtnRule;
 import com.ghostchu.btn.sparkle.module.rule.RuleDto;
 import com.ghostchu.btn.sparkle.module.rule.RuleService;
@@ -18,8 +22,9 @@ import com.ghostchu.btn.sparkle.module.userapp.internal.UserApplication;
 import com.ghostchu.btn.sparkle.util.ByteUtil;
 import com.ghostchu.btn.sparkle.util.IPUtil;
 import com.ghostchu.btn.sparkle.util.PeerUtil;
-import com.ghostchu.btn.sparkle.util.ipdb.GeoIPManager;
+import com.ghostchu.btn.sparkle.util.ipdb.GeoIPEnricher;
 import jakarta.transaction.Transactional;
+import jakarta.validation.Validator;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -27,9 +32,12 @@ import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetAddress;
 import java.sql.Timestamp;
 import java.util.*;
+import java.util.function.Function;
 
 @Service
 @Data
@@ -42,64 +50,183 @@ public class PingService {
     private final ClientDiscoveryService clientDiscoveryService;
     private final AnalyseService analyseService;
     private final UserService userService;
-    private final GeoIPManager geoIPManager;
+    private final GeoIPEnricher geoIPEnricher;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
     @Value("${service.ping.protocol.min-version}")
     private int minProtocolVersion;
     @Value("${service.ping.protocol.max-version}")
     private int maxProtocolVersion;
+    @Value("${service.ping.ingest.batch-size}")
+    private int ingestBatchSize;
 
-    @Modifying
-    @Transactional
-    public long handlePeers(InetAddress submitterIp, UserApplication userApplication, BtnPeerPing ping) {
+    /**
+     * 流式处理 /ping/peers/submit 的请求体
+     * <p>
+     * 同一时刻只有一个 {@link BtnPeer} 在内存中：逐个读取、校验并转换为 Snapshot，攒满 ingestBatchSize 个就写入一批，
+     * 每批在独立的事务中提交，单个请求的内存占用与提交的 Peers 数量无关。
+     * 不在外层事务中执行：外层事务会在读取请求体期间一直占用一个连接，每批再占用一个，连接池耗尽时互相等待。
+     * 请求体中途损坏时，之前已写入的批次会保留；重试同一请求体时传入同一个 progress，已提交的 Peers 会被跳过。
+     * <p>
+     * populate_time 出现在 peers 之后时，在此之前读到的 Peer 使用接收时间作为 populate_time。
+     *
+     * @param body     请求体（已经过 GzipBodyDecompressFilter 解压）
+     * @param progress 此前尝试中已提交的 Peers 数量，每写入一批就推进
+     * @return 收到与实际写入的 Peers 数量（包括此前尝试中写入的）
+     * @throws IOException JSON 格式错误或读取失败
+     */
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public PeerIngestResult handlePeers(InetAddress submitterIp, UserApplication userApplication, InputStream body,
+                                        IngestProgress progress) throws IOException {
         Timestamp now = new Timestamp(System.currentTimeMillis());
-        var usr = userApplication.getUser();
-        usr.setLastAccessAt(now);
-        userService.saveUser(usr);
+        userService.touchLastAccess(userApplication.getUser().getId(), now);
+        Timestamp populateTime = now;
+        long received = 0;
+        long accepted = 0;
+        long skip = progress.committed();
+        List<Snapshot> batch = new ArrayList<>(ingestBatchSize);
+        List<TorrentService.TorrentKey> batchTorrents = new ArrayList<>(ingestBatchSize);
         Set<ClientIdentity> identitySet = new HashSet<>();
-        List<Snapshot> snapshotList = ping.getPeers().stream()
-                .peek(peer -> identitySet.add(new ClientIdentity(PeerUtil.cutPeerId(peer.getPeerId()), PeerUtil.cutClientName(peer.getClientName()))))
-                .map(peer -> {
-                    try {
-                        return Snapshot.builder()
-                                .insertTime(now)
-                                .populateTime(new Timestamp(ping.getPopulateTime()))
-                                .userApplication(userApplication)
-                                .submitId(UUID.randomUUID().toString())
-                                .peerIp(IPUtil.toInet(peer.getIpAddress()))
-                                .peerPort(peer.getPeerPort())
-                                .peerId(ByteUtil.filterUTF8(PeerUtil.cutPeerId(peer.getPeerId())))
-                                .peerClientName(ByteUtil.filterUTF8(PeerUtil.cutClientName(peer.getClientName())))
-                                .torrent(torrentService.createOrGetTorrent(peer.getTorrentIdentifier(), peer.getTorrentSize()))
-                                .fromPeerTraffic(peer.getDownloaded())
-                                .fromPeerTrafficSpeed(peer.getRtDownloadSpeed())
-                                .toPeerTraffic(peer.getUploaded())
-                                .toPeerTrafficSpeed(peer.getRtUploadSpeed())
-                                .peerProgress(peer.getPeerProgress())
-                                .downloaderProgress(peer.getDownloaderProgress())
-                                .flags(peer.getPeerFlag())
-                                .submitterIp(submitterIp)
-                                // .geoIP(geoIPManager.geoData(IPUtil.toInet(peer.getIpAddress())))
-                                .build();
-                    } catch (Exception e) {
-                        log.error("[ERROR] [Ping] 无法创建 Snapshot 对象", e);
-                        return null;
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "populate_time" -> populateTime = new Timestamp(parser.getValueAsLong());
+                    case "peers" -> {
+                        if (value == JsonToken.VALUE_NULL) {
+                            continue;
+                        }
+                        expect(parser, value, JsonToken.START_ARRAY);
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            BtnPeer peer = objectMapper.readValue(parser, BtnPeer.class);
+                            received++;
+                            if (!validator.validate(peer).isEmpty()) {
+                                continue;
+                            }
+                            var snapshot = toSnapshot(submitterIp, userApplication, now, populateTime, peer);
+                            if (snapshot == null) {
+                                continue;
+                            }
+                            identitySet.add(new ClientIdentity(PeerUtil.cutPeerId(peer.getPeerId()), PeerUtil.cutClientName(peer.getClientName())));
+                            // 已在此前的尝试中提交
+                            if (++accepted <= skip) {
+                                continue;
+                            }
+                            batch.add(snapshot);
+                            batchTorrents.add(torrentKey(peer));
+                            if (batch.size() >= ingestBatchSize) {
+                                flushPeerBatch(userApplication, now, batch, batchTorrents, identitySet, progress);
+                            }
+                        }
+                        expect(parser, parser.currentToken(), JsonToken.END_ARRAY);
                     }
-                })
-                .filter(Objects::nonNull)
-                .toList();
-        snapshotService.saveSnapshots(snapshotList);
-        clientDiscoveryService.handleIdentities(userApplication.getUser(), now, now, identitySet);
-        return snapshotList.size();
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        flushPeerBatch(userApplication, now, batch, batchTorrents, identitySet, progress);
+        return new PeerIngestResult(received, progress.committed());
+    }
+
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public PeerIngestResult handlePeers(InetAddress submitterIp, UserApplication userApplication, InputStream body) throws IOException {
+        return handlePeers(submitterIp, userApplication, body, new IngestProgress());
+    }
+
+    /**
+     * 一批 Snapshot 引用的种子一次性解析，再写入这一批。
+     * 客户端标识的写入是幂等的，重试时被跳过的 Peers 的标识也会在这里写入
+     */
+    private void flushPeerBatch(UserApplication userApplication, Timestamp now, List<Snapshot> batch,
+                                List<TorrentService.TorrentKey> batchTorrents, Set<ClientIdentity> identitySet,
+                                IngestProgress progress) {
+        if (!batch.isEmpty()) {
+            var torrents = torrentService.resolveTorrents(batchTorrents);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).setTorrent(torrents.get(batchTorrents.get(i)));
+            }
+            snapshotService.saveSnapshotBatch(batch);
+            progress.advance(batch.size());
+            // 去重后只更新 last_seen_time 的 Snapshot 没有分配 id，也不需要补全
+            geoIPEnricher.submit("snapshot", persistedAddresses(batch, Snapshot::getId, Snapshot::getPeerIp));
+        }
+        if (!identitySet.isEmpty()) {
+            clientDiscoveryService.handleIdentities(userApplication.getUser(), now, now, new HashSet<>(identitySet));
+        }
+        batchTorrents.clear();
+        batch.clear();
+        identitySet.clear();
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "Expected " + expected + " but got " + actual);
+        }
+    }
+
+    private static <T> Map<Long, InetAddress> persistedAddresses(List<T> rows, Function<T, Long> id, Function<T, InetAddress> address) {
+        Map<Long, InetAddress> persisted = new HashMap<>(rows.size());
+        for (T row : rows) {
+            if (id.apply(row) != null) {
+                persisted.put(id.apply(row), address.apply(row));
+            }
+        }
+        return persisted;
+    }
+
+    private static TorrentService.TorrentKey torrentKey(BtnPeer peer) {
+        return new TorrentService.TorrentKey(peer.getTorrentIdentifier(), peer.getTorrentSize());
+    }
+
+    /**
+     * @return 未设置 torrent 的 Snapshot，种子在写入前按批解析
+     */
+    private Snapshot toSnapshot(InetAddress submitterIp, UserApplication userApplication, Timestamp now, Timestamp populateTime, BtnPeer peer) {
+        try {
+            return Snapshot.builder()
+                    .insertTime(now)
+                    .populateTime(populateTime)
+                    .userApplication(userApplication)
+                    .submitId(UUID.randomUUID().toString())
+                    .peerIp(IPUtil.toInet(peer.getIpAddress()))
+                    .peerPort(peer.getPeerPort())
+                    .peerId(ByteUtil.filterUTF8(PeerUtil.cutPeerId(peer.getPeerId())))
+                    .peerClientName(ByteUtil.filterUTF8(PeerUtil.cutClientName(peer.getClientName())))
+                    .fromPeerTraffic(peer.getDownloaded())
+                    .fromPeerTrafficSpeed(peer.getRtDownloadSpeed())
+                    .toPeerTraffic(peer.getUploaded())
+                    .toPeerTrafficSpeed(peer.getRtUploadSpeed())
+                    .peerProgress(peer.getPeerProgress())
+                    .downloaderProgress(peer.getDownloaderProgress())
+                    .flags(peer.getPeerFlag())
+                    .submitterIp(submitterIp)
+                    .build();
+        } catch (Exception e) {
+            log.error("[ERROR] [Ping] 无法创建 Snapshot 对象", e);
+            return null;
+        }
     }
 
     @Modifying
-    @Transactional
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
     public long handleBans(InetAddress submitterIp, UserApplication userApplication, BtnBanPing ping) {
+        return handleBans(submitterIp, userApplication, ping, new IngestProgress());
+    }
+
+    /**
+     * 不开启外层事务：BanHistory 在 saveBanHistoryBatch 自己的事务中提交，外层事务只会多占用一个连接
+     *
+     * @param progress 此前尝试中已提交的 BanHistory 数量；整批已提交时重试只会写入客户端标识
+     */
+    @Modifying
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public long handleBans(InetAddress submitterIp, UserApplication userApplication, BtnBanPing ping, IngestProgress progress) {
         Timestamp now = new Timestamp(System.currentTimeMillis());
-        var usr = userApplication.getUser();
-        usr.setLastAccessAt(now);
-        userService.saveUser(usr);
+        userService.touchLastAccess(userApplication.getUser().getId(), now);
         Set<ClientIdentity> identitySet = new HashSet<>();
+        var torrents = torrentService.resolveTorrents(ping.getBans().stream().map(ban -> torrentKey(ban.getPeer())).toList());
         List<BanHistory> banHistoryList = ping.getBans().stream()
                 .peek(peer -> identitySet.add(new ClientIdentity(PeerUtil.cutPeerId(peer.getPeer().getPeerId()), PeerUtil.cutClientName(peer.getPeer().getClientName()))))
                 .map(ban -> {
@@ -114,7 +241,7 @@ public class PingService {
                                 .peerPort(peer.getPeerPort())
                                 .peerId(ByteUtil.filterUTF8(PeerUtil.cutPeerId(peer.getPeerId())))
                                 .peerClientName(ByteUtil.filterUTF8(PeerUtil.cutClientName(peer.getClientName())))
-                                .torrent(torrentService.createOrGetTorrent(peer.getTorrentIdentifier(), peer.getTorrentSize()))
+                                .torrent(torrents.get(torrentKey(peer)))
                                 .fromPeerTraffic(peer.getDownloaded())
                                 .fromPeerTrafficSpeed(peer.getRtDownloadSpeed())
                                 .toPeerTraffic(peer.getUploaded())
@@ -127,7 +254,6 @@ public class PingService {
                                 .module(ban.getModule())
                                 .rule(ban.getRule())
                                 .banUniqueId(ban.getBanUniqueId())
-                                .geoIP(geoIPManager.geoData(IPUtil.toInet(peer.getIpAddress())))
                                 .build();
                     } catch (Exception e) {
                         log.error("[ERROR] [Ping] 无法创建 BanHistory 对象", e);
@@ -136,7 +262,12 @@ public class PingService {
                 })
                 .filter(Objects::nonNull)
                 .toList();
-        banHistoryService.saveBanHistories(banHistoryList);
+        // 同步写入：从接收日志消费时，返回即代表这批数据已提交，消费进度才能越过这条记录
+        if (progress.committed() < banHistoryList.size()) {
+            banHistoryService.saveBanHistoryBatch(banHistoryList);
+            progress.advance(banHistoryList.size());
+            geoIPEnricher.submit("banhistory", persistedAddresses(banHistoryList, BanHistory::getId, BanHistory::getPeerIp));
+        }
         clientDiscoveryService.handleIdentities(userApplication.getUser(), now, now, identitySet);
         return banHistoryList.size();
     }
@@ -163,4 +294,7 @@ public class PingService {
         )).toList());
         return new BtnRule(entities);
     }
+
+    public record PeerIngestResult(long received, long handled) {
+    }
 }
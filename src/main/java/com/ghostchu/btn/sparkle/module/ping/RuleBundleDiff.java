@@ -0,0 +1,145 @@
+package com.ghostchu.btn.sparkle.module.ping;
+
+import com.ghostchu.btn.sparkle.module.ping.dto.BtnRule;
+import com.ghostchu.btn.sparkle.module.ping.dto.BtnRuleDelta;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * 规则包的规范化、求差与增量合并
+ * <p>
+ * 规则的匹配与条目顺序无关，每个分类都可以看作一个集合：求差即按分类求集合差，
+ * 两个相邻的增量可以合并为一个跨越两步的增量，因此不需要保留历史版本的完整规则。
+ */
+final class RuleBundleDiff {
+    private static final List<Field<?>> FIELDS = List.of(
+            new Field<>(BtnRule::getPeerIdRules, BtnRule::setPeerIdRules),
+            new Field<>(BtnRule::getExcludePeerIdRules, BtnRule::setExcludePeerIdRules),
+            new Field<>(BtnRule::getClientNameRules, BtnRule::setClientNameRules),
+            new Field<>(BtnRule::getExcludeClientNameRules, BtnRule::setExcludeClientNameRules),
+            new Field<>(BtnRule::getIpRules, BtnRule::setIpRules),
+            new Field<>(BtnRule::getPortRules, BtnRule::setPortRules)
+    );
+
+    private RuleBundleDiff() {
+    }
+
+    /**
+     * 分类按名称排序，分类内的规则排序并去重；不改变规则的语义
+     */
+    static BtnRule canonicalize(BtnRule rule) {
+        BtnRule canonical = new BtnRule();
+        for (Field<?> field : FIELDS) {
+            field.canonicalize(rule, canonical);
+        }
+        return canonical;
+    }
+
+    /**
+     * @param from 规范形式的旧规则
+     * @param to   规范形式的新规则
+     */
+    static BtnRuleDelta diff(BtnRule from, String fromRevision, BtnRule to, String toRevision) {
+        BtnRuleDelta delta = emptyDelta(fromRevision, toRevision);
+        for (Field<?> field : FIELDS) {
+            field.diff(from, to, delta);
+        }
+        return delta;
+    }
+
+    /**
+     * 把 first（A -> B）与 second（B -> C）合并为 A -> C
+     */
+    static BtnRuleDelta compose(BtnRuleDelta first, BtnRuleDelta second) {
+        BtnRuleDelta delta = emptyDelta(first.getFrom(), second.getVersion());
+        for (Field<?> field : FIELDS) {
+            field.compose(first, second, delta);
+        }
+        return delta;
+    }
+
+    private static BtnRuleDelta emptyDelta(String from, String to) {
+        BtnRule added = new BtnRule();
+        BtnRule removed = new BtnRule();
+        for (Field<?> field : FIELDS) {
+            field.setter().accept(added, new TreeMap<>());
+            field.setter().accept(removed, new TreeMap<>());
+        }
+        return new BtnRuleDelta(to, from, added, removed);
+    }
+
+    private record Field<T extends Comparable<T>>(Function<BtnRule, Map<String, List<T>>> getter,
+                                                  BiConsumer<BtnRule, Map<String, List<T>>> setter) {
+        void canonicalize(BtnRule source, BtnRule target) {
+            Map<String, List<T>> sorted = new TreeMap<>();
+            Map<String, List<T>> rules = getter.apply(source);
+            if (rules != null) {
+                rules.forEach((category, list) -> sorted.put(category, list.stream().distinct().sorted().toList()));
+            }
+            setter.accept(target, sorted);
+        }
+
+        void diff(BtnRule from, BtnRule to, BtnRuleDelta delta) {
+            Map<String, List<T>> before = getter.apply(from);
+            Map<String, List<T>> after = getter.apply(to);
+            for (String category : categories(before, after)) {
+                Set<T> oldSet = set(before, category);
+                Set<T> newSet = set(after, category);
+                put(delta.getAdded(), category, minus(newSet, oldSet));
+                put(delta.getRemoved(), category, minus(oldSet, newSet));
+            }
+        }
+
+        void compose(BtnRuleDelta first, BtnRuleDelta second, BtnRuleDelta delta) {
+            Map<String, List<T>> added1 = getter.apply(first.getAdded());
+            Map<String, List<T>> removed1 = getter.apply(first.getRemoved());
+            Map<String, List<T>> added2 = getter.apply(second.getAdded());
+            Map<String, List<T>> removed2 = getter.apply(second.getRemoved());
+            for (String category : categories(added1, removed1, added2, removed2)) {
+                Set<T> a1 = set(added1, category);
+                Set<T> r1 = set(removed1, category);
+                Set<T> a2 = set(added2, category);
+                Set<T> r2 = set(removed2, category);
+                // 先加后删、先删后加的条目相互抵消
+                Set<T> added = minus(a1, r2);
+                added.addAll(minus(a2, r1));
+                Set<T> removed = minus(r1, a2);
+                removed.addAll(minus(r2, a1));
+                put(delta.getAdded(), category, added);
+                put(delta.getRemoved(), category, removed);
+            }
+        }
+
+        private void put(BtnRule rule, String category, Set<T> entries) {
+            if (!entries.isEmpty()) {
+                getter.apply(rule).put(category, List.copyOf(entries));
+            }
+        }
+
+        @SafeVarargs
+        private static <T> Set<String> categories(Map<String, List<T>>... maps) {
+            Set<String> categories = new TreeSet<>();
+            for (Map<String, List<T>> map : maps) {
+                if (map != null) {
+                    categories.addAll(map.keySet());
+                }
+            }
+            return categories;
+        }
+
+        private static <T extends Comparable<T>> Set<T> set(Map<String, List<T>> map, String category) {
+            if (map == null) {
+                return new TreeSet<>();
+            }
+            return new TreeSet<>(map.getOrDefault(category, List.of()));
+        }
+
+        private static <T extends Comparable<T>> Set<T> minus(Set<T> a, Set<T> b) {
+            Set<T> result = new TreeSet<>(a);
+            result.removeAll(b);
+            return result;
+        }
+    }
+}
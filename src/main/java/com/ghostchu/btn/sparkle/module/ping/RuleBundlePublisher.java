@@ -0,0 +1,186 @@
+package com.ghostchu.btn.sparkle.module.ping;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ghostchu.btn.sparkle.module.ping.dto.BtnRule;
+import com.ghostchu.btn.sparkle.module.ping.dto.BtnRuleDelta;
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 预编译的云端规则包
+ * <p>
+ * 规则只在后台按固定间隔重新生成：排序去重后得到与生成顺序无关的规范形式，以其 SHA-256 作为版本号，
+ * 再一次性序列化为 JSON 与 {@link BtnRuleBinaryCodec} 二进制格式并预先 gzip 压缩。
+ * /ping/rules/retrieve 直接写出这些字节，请求路径上没有序列化与压缩，
+ * 内容未变化时响应 304。内容与上一版相同时不替换规则包，版本号和 ETag 在多个实例之间也保持一致。
+ * <p>
+ * 同时为最近 historySize 个版本各保留一份到当前版本的增量，同样在发布时预先序列化，供 /ping/rules/delta 使用。
+ * 新版本发布时只需把每个历史增量与新的一步合并，不保留历史版本的完整规则。
+ */
+@Component
+@Slf4j
+public class RuleBundlePublisher {
+    private final PingService pingService;
+    private final ObjectMapper objectMapper;
+    private final int historySize;
+    private volatile RuleBundle current;
+    /**
+     * 当前版本的规范形式，只在 rebuild 中访问
+     */
+    private BtnRule currentRule;
+    /**
+     * 历史版本 -> 到当前版本的增量，按从旧到新的顺序，只在 rebuild 中访问
+     */
+    private LinkedHashMap<String, BtnRuleDelta> history = new LinkedHashMap<>();
+
+    private final Counter publishedCounter;
+    private final Timer buildTimer;
+
+    public RuleBundlePublisher(PingService pingService, ObjectMapper objectMapper,
+                               @Value("${service.ping.rule-bundle.history-size}") int historySize,
+                               MeterRegistry meterRegistry) {
+        this.pingService = pingService;
+        this.objectMapper = objectMapper;
+        this.historySize = Math.max(0, historySize);
+        this.publishedCounter = Counter.builder("sparkle.ping.rules.bundle.published")
+                .description("因规则内容变化而发布新规则包的次数")
+                .register(meterRegistry);
+        this.buildTimer = Timer.builder("sparkle.ping.rules.bundle.build")
+                .description("生成一次规则包的耗时")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.ping.rules.bundle.size", this, p -> p.current == null ? 0 : p.current.full().data().length)
+                .description("当前规则包 JSON 的字节数")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.ping.rules.bundle.size.gzip", this, p -> p.current == null ? 0 : p.current.full().gzip().length)
+                .description("当前规则包 gzip 压缩后的字节数")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.ping.rules.bundle.size.binary", this, p -> p.current == null ? 0 : p.current.binary().data().length)
+                .description("当前规则包二进制格式的字节数")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.ping.rules.bundle.deltas", this, p -> p.current == null ? 0 : p.current.deltas().size())
+                .description("可以增量同步到当前版本的历史版本数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return 当前的规则包，尚未生成过时在调用线程中生成
+     */
+    public RuleBundle current() throws IOException {
+        RuleBundle bundle = current;
+        if (bundle != null) {
+            return bundle;
+        }
+        synchronized (this) {
+            if (current == null) {
+                rebuild();
+            }
+            return current;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${service.ping.rule-bundle.refresh-interval}")
+    public void refresh() {
+        try {
+            synchronized (this) {
+                rebuild();
+            }
+        } catch (IOException | RuntimeException e) {
+            // 生成失败时继续提供上一版规则包
+            log.error("无法生成云端规则包，继续使用版本 {}", current == null ? null : current.revision(), e);
+        }
+    }
+
+    private void rebuild() throws IOException {
+        long start = System.nanoTime();
+        BtnRule rule = RuleBundleDiff.canonicalize(pingService.generateBtnRule());
+        String revision = Hashing.sha256().hashBytes(objectMapper.writeValueAsBytes(rule)).toString();
+        RuleBundle previous = current;
+        if (previous != null && previous.revision().equals(revision)) {
+            buildTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return;
+        }
+        LinkedHashMap<String, BtnRuleDelta> newHistory = new LinkedHashMap<>();
+        if (previous != null && historySize > 0) {
+            BtnRuleDelta step = RuleBundleDiff.diff(currentRule, previous.revision(), rule, revision);
+            history.forEach((from, delta) -> {
+                // 内容回到了某个历史版本时，该版本直接与当前版本相同
+                if (!from.equals(revision)) {
+                    newHistory.put(from, RuleBundleDiff.compose(delta, step));
+                }
+            });
+            newHistory.put(previous.revision(), step);
+            var iterator = newHistory.keySet().iterator();
+            while (newHistory.size() > historySize) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        rule.setVersion(revision);
+        Payload full = payload(objectMapper.writeValueAsBytes(rule));
+        Payload binary = payload(BtnRuleBinaryCodec.encode(rule));
+        Map<String, Payload> deltas = new LinkedHashMap<>();
+        for (var entry : newHistory.entrySet()) {
+            byte[] json = objectMapper.writeValueAsBytes(entry.getValue());
+            // 增量不比完整规则小时不提供，客户端回退到完整规则；历史中仍保留，之后可能重新变小
+            if (json.length < full.data().length) {
+                deltas.put(entry.getKey(), payload(json));
+            }
+        }
+        currentRule = rule;
+        history = newHistory;
+        current = new RuleBundle(revision, "W/\"" + revision + "\"", full, binary, Collections.unmodifiableMap(deltas),
+                System.currentTimeMillis());
+        publishedCounter.increment();
+        buildTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        log.info("已发布云端规则包 {} -> {}（{} 字节，gzip 后 {} 字节，二进制格式 {} 字节，{} 个历史版本可增量同步）",
+                previous == null ? null : previous.revision(), revision, full.data().length, full.gzip().length,
+                binary.data().length, deltas.size());
+    }
+
+    private static Payload payload(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(data);
+        }
+        return new Payload(data, out.toByteArray());
+    }
+
+    /**
+     * @param revision    规范形式的 SHA-256，即规则中的 version 字段
+     * @param etag        HTTP ETag；同一内容的 JSON、二进制与 gzip 表示共用，因此是弱 ETag
+     * @param full        完整规则的 JSON
+     * @param binary      完整规则的二进制格式
+     * @param deltas      历史版本 -> 到当前版本的增量
+     * @param publishedAt 发布时间
+     */
+    public record RuleBundle(String revision, String etag, Payload full, Payload binary, Map<String, Payload> deltas,
+                             long publishedAt) {
+    }
+
+    /**
+     * @param data 序列化后的内容
+     * @param gzip data 的 gzip 压缩
+     */
+    public record Payload(byte[] data, byte[] gzip) {
+    }
+}
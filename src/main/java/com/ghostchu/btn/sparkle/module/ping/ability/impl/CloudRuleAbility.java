@@ -1,5 +1,6 @@
 package com.ghostchu.btn.sparkle.module.ping.ability.impl;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.ghostchu.btn.sparkle.module.ping.ability.AbstractCronJobEndpointAbility;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -10,15 +11,20 @@ import org.springframework.stereotype.Component;
 @Data
 @Component
 public class CloudRuleAbility extends AbstractCronJobEndpointAbility {
+    @JsonProperty("delta_endpoint")
+    private String deltaEndpoint;
 
     public CloudRuleAbility(
             @Value("${service.ping.ability.cloudrule.interval}")
             long interval,
             @Value("${service.ping.ability.cloudrule.endpoint}")
             String endpoint,
+            @Value("${service.ping.ability.cloudrule.delta-endpoint}")
+            String deltaEndpoint,
             @Value("${service.ping.ability.cloudrule.random-initial-delay}")
             long randomInitialDelay
     ) {
         super(interval, randomInitialDelay, endpoint);
+        this.deltaEndpoint = deltaEndpoint;
     }
 }
@@ -0,0 +1,28 @@
+package com.ghostchu.btn.sparkle.module.ping.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * 从 from 版本到 version 版本的规则增量
+ * <p>
+ * added 与 removed 与 {@link BtnRule} 结构相同（其 version 为空），按类型、分类列出新增与移除的条目；
+ * 客户端在 from 版本的规则上先移除 removed 再加入 added 即得到 version 版本。
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BtnRuleDelta implements Serializable {
+    @JsonProperty("version")
+    private String version;
+    @JsonProperty("from")
+    private String from;
+    @JsonProperty("added")
+    private BtnRule added;
+    @JsonProperty("removed")
+    private BtnRule removed;
+}
@@ -0,0 +1,354 @@
+package com.ghostchu.btn.sparkle.module.ping.ingest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ghostchu.btn.sparkle.module.ping.IngestProgress;
+import com.ghostchu.btn.sparkle.module.ping.PingService;
+import com.ghostchu.btn.sparkle.module.ping.dto.BtnBanPing;
+import com.ghostchu.btn.sparkle.module.userapp.UserApplicationService;
+import com.ghostchu.btn.sparkle.module.userapp.internal.UserApplication;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Hibernate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把 {@link IngestionLog} 中的提交写入数据库
+ * <p>
+ * 一个读取线程按顺序读出记录放入有界队列，多个消费线程从队列中取出并处理；消费跟不上时读取线程阻塞在队列上，
+ * 积压留在磁盘而不是内存中，积压超过上限后由 {@link IngestionLog#append} 拒绝新的提交。
+ * <p>
+ * 记录可能乱序完成，只有某条记录之前的记录全部完成后消费进度才会越过它，重启时从进度处重放。
+ * 连接失败、锁冲突等暂时性错误会无限重试同一条记录，间隔按指数增长到 maxRetryDelay 为止：记录已经向客户端确认，
+ * 数据库长时间不可用时积压留在日志中，由 {@link IngestionLog#append} 的积压上限以 503 限流。
+ * 约束冲突、数据格式错误等无法重试成功的记录直接丢弃并计数，不会阻塞消费进度。
+ */
+@Component
+@Slf4j
+public class IngestionConsumer {
+    private final IngestionLog ingestionLog;
+    private final PingService pingService;
+    private final UserApplicationService userApplicationService;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final int consumers;
+    private final long retryDelay;
+    private final long maxRetryDelay;
+    private final BlockingQueue<IngestionRecord> queue;
+    /**
+     * 已读出但进度尚未越过的记录，按偏移量排序
+     */
+    private final TreeMap<Long, InFlight> inFlight = new TreeMap<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running;
+    private volatile long readPosition;
+
+    private final Counter processedCounter;
+    private final Counter discardedCounter;
+    private final Counter retryCounter;
+    private final Timer endToEndTimer;
+
+    public IngestionConsumer(IngestionLog ingestionLog,
+                             PingService pingService,
+                             UserApplicationService userApplicationService,
+                             TransactionTemplate transactionTemplate,
+                             ObjectMapper objectMapper,
+                             Validator validator,
+                             @Value("${service.ping.ingest.consumers}") int consumers,
+                             @Value("${service.ping.ingest.retry-delay}") long retryDelay,
+                             @Value("${service.ping.ingest.max-retry-delay}") long maxRetryDelay,
+                             MeterRegistry meterRegistry) {
+        this.ingestionLog = ingestionLog;
+        this.pingService = pingService;
+        this.userApplicationService = userApplicationService;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.consumers = Math.max(1, consumers);
+        this.retryDelay = retryDelay;
+        this.maxRetryDelay = Math.max(retryDelay, maxRetryDelay);
+        this.queue = new ArrayBlockingQueue<>(this.consumers);
+        this.processedCounter = Counter.builder("sparkle.ping.ingest.consumer.processed")
+                .description("已写入数据库的提交数")
+                .register(meterRegistry);
+        this.discardedCounter = Counter.builder("sparkle.ping.ingest.consumer.discarded")
+                .description("因数据无效或记录损坏而丢弃的提交数")
+                .register(meterRegistry);
+        this.retryCounter = Counter.builder("sparkle.ping.ingest.consumer.retries")
+                .description("因暂时性错误重试的次数")
+                .register(meterRegistry);
+        this.endToEndTimer = Timer.builder("sparkle.ping.ingest.consumer.latency")
+                .description("从接收提交到写入数据库完成的耗时")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.ping.ingest.consumer.lag.seconds", this, IngestionConsumer::lagSeconds)
+                .description("最早一条尚未写入数据库的提交已等待的时间")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!ingestionLog.isEnabled() || running) {
+            return;
+        }
+        running = true;
+        readPosition = ingestionLog.committedOffset();
+        threads.add(Thread.ofVirtual().name("Sparkle-Ingest-Reader").start(this::readLoop));
+        for (int i = 0; i < consumers; i++) {
+            threads.add(Thread.ofVirtual().name("Sparkle-Ingest-Consumer-" + i).start(this::consumeLoop));
+        }
+        log.info("接收日志消费者已启动：{} 个线程，从偏移量 {} 开始", consumers, readPosition);
+    }
+
+    /**
+     * 正在处理的记录处理完后退出，尚未处理的记录在下次启动时重放
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        // 只中断读取线程；消费线程不能被中断，虚拟线程上被中断的 Socket 会被关闭，正在使用的数据库连接随之失效
+        threads.getFirst().interrupt();
+        for (Thread thread : threads) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        threads.clear();
+        queue.clear();
+        synchronized (inFlight) {
+            inFlight.clear();
+        }
+    }
+
+    private void readLoop() {
+        long position = readPosition;
+        while (running) {
+            try {
+                IngestionRecord record;
+                try {
+                    record = ingestionLog.read(position);
+                } catch (IngestionLog.CorruptRecordException e) {
+                    var next = ingestionLog.nextSegment(position);
+                    if (next.isEmpty()) {
+                        log.error("{}，等待后重试", e.getMessage());
+                        Thread.sleep(retryDelay);
+                        continue;
+                    }
+                    log.error("{}，跳过所在段的剩余 {} 字节", e.getMessage(), next.getAsLong() - position);
+                    discardedCounter.increment();
+                    synchronized (inFlight) {
+                        inFlight.put(position, new InFlight(next.getAsLong(), System.currentTimeMillis(), 0));
+                    }
+                    complete(position);
+                    position = readPosition = next.getAsLong();
+                    continue;
+                }
+                if (record == null) {
+                    ingestionLog.awaitData(position, 1, TimeUnit.SECONDS);
+                    continue;
+                }
+                synchronized (inFlight) {
+                    inFlight.put(record.offset(), new InFlight(record.nextOffset(), record.receivedAt(), 1));
+                }
+                queue.put(record);
+                position = readPosition = record.nextOffset();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                log.error("无法读取接收日志，等待后重试", e);
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void consumeLoop() {
+        while (running) {
+            IngestionRecord record;
+            try {
+                record = queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (record != null && process(record)) {
+                complete(record.offset());
+            }
+        }
+    }
+
+    /**
+     * @return 记录是否已处理完（写入成功或被丢弃）；停机时返回 false，记录留待重放
+     */
+    private boolean process(IngestionRecord record) {
+        // 跨重试保留，重试时跳过已提交的批次
+        var progress = new IngestProgress();
+        long delay = retryDelay;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (handle(record, progress)) {
+                    processedCounter.increment();
+                    endToEndTimer.record(System.currentTimeMillis() - record.receivedAt(), TimeUnit.MILLISECONDS);
+                }
+                return true;
+            } catch (DataAccessException | TransactionException e) {
+                if (!isTransient(e)) {
+                    discardedCounter.increment();
+                    log.error("[FAIL] [Ping] [{}] 丢弃接收日志偏移量 {} 处无法写入的提交 (AppId={}, 已尝试 {} 次)",
+                            record.submitterIp().getHostAddress(), record.offset(), record.appId(), attempt, e);
+                    return true;
+                }
+                retryCounter.increment();
+                log.warn("[RETRY] [Ping] 写入接收日志偏移量 {} 处的提交失败，{}ms 后第 {} 次重试：{}",
+                        record.offset(), delay, attempt, e.getMessage());
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    return false;
+                }
+                delay = Math.min(delay * 2, maxRetryDelay);
+                if (!running) {
+                    return false;
+                }
+            } catch (IOException | RuntimeException e) {
+                discardedCounter.increment();
+                log.error("[FAIL] [Ping] [{}] 丢弃接收日志偏移量 {} 处无法处理的提交 (AppId={})",
+                        record.submitterIp().getHostAddress(), record.offset(), record.appId(), e);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 连接失败、锁冲突、超时等重试可能成功的错误；约束冲突等其它错误重试也不会成功
+     */
+    private static boolean isTransient(RuntimeException e) {
+        return e instanceof TransientDataAccessException
+               || e instanceof RecoverableDataAccessException
+               || e instanceof DataAccessResourceFailureException
+               || e instanceof CannotCreateTransactionException;
+    }
+
+    /**
+     * @return 是否已写入；UserApplication 已不存在时丢弃并返回 false
+     */
+    private boolean handle(IngestionRecord record, IngestProgress progress) throws IOException {
+        UserApplication userApplication = transactionTemplate.execute(status ->
+                userApplicationService.getUserApplication(record.appId()).map(app -> {
+                    Hibernate.initialize(app.getUser());
+                    return app;
+                }).orElse(null));
+        if (userApplication == null) {
+            discardedCounter.increment();
+            log.warn("[FAIL] [Ping] [{}] UserApplication (AppId={}) 已不存在，丢弃其提交",
+                    record.submitterIp().getHostAddress(), record.appId());
+            return false;
+        }
+        try (InputStream body = ingestionLog.openBody(record)) {
+            switch (record.type()) {
+                case PEERS -> {
+                    var result = pingService.handlePeers(record.submitterIp(), userApplication, body, progress);
+                    log.info("[OK] [Ping] [{}] 已写入 {}/{} 个 Peers 信息：(AppId={}, 排队 {}ms)",
+                            record.submitterIp().getHostAddress(), result.received(), result.handled(),
+                            record.appId(), System.currentTimeMillis() - record.receivedAt());
+                }
+                case BANS -> {
+                    var ping = objectMapper.readValue(body, BtnBanPing.class);
+                    var violations = validator.validate(ping);
+                    if (!violations.isEmpty()) {
+                        throw new IllegalArgumentException("Bans 数据校验失败：" + violations);
+                    }
+                    var handled = pingService.handleBans(record.submitterIp(), userApplication, ping, progress);
+                    log.info("[OK] [Ping] [{}] 已写入 {}/{} 个 封禁信息：(AppId={}, 排队 {}ms)",
+                            record.submitterIp().getHostAddress(), ping.getBans().size(), handled,
+                            record.appId(), System.currentTimeMillis() - record.receivedAt());
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 标记记录完成，并把消费进度推进到第一条未完成的记录
+     */
+    private void complete(long offset) {
+        synchronized (inFlight) {
+            var completed = inFlight.get(offset);
+            if (completed == null) {
+                return;
+            }
+            completed.done = true;
+            long committed = -1;
+            long records = 0;
+            while (!inFlight.isEmpty() && inFlight.firstEntry().getValue().done) {
+                var entry = inFlight.pollFirstEntry().getValue();
+                committed = entry.nextOffset;
+                records += entry.records;
+            }
+            if (committed < 0) {
+                return;
+            }
+            try {
+                ingestionLog.commit(committed, records);
+            } catch (IOException e) {
+                // 进度未保存只会导致重启后多重放一些记录
+                log.error("无法保存接收日志的消费进度 {}", committed, e);
+            }
+        }
+    }
+
+    private double lagSeconds() {
+        long oldest;
+        synchronized (inFlight) {
+            oldest = inFlight.isEmpty() ? -1 : inFlight.firstEntry().getValue().receivedAt;
+        }
+        if (oldest < 0) {
+            oldest = ingestionLog.peekReceivedAt(readPosition);
+        }
+        return oldest < 0 ? 0 : Math.max(0, System.currentTimeMillis() - oldest) / 1000.0;
+    }
+
+    private static final class InFlight {
+        private final long nextOffset;
+        private final long receivedAt;
+        private final int records;
+        private boolean done;
+
+        private InFlight(long nextOffset, long receivedAt, int records) {
+            this.nextOffset = nextOffset;
+            this.receivedAt = receivedAt;
+            this.records = records;
+        }
+    }
+}
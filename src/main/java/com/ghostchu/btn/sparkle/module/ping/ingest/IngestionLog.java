@@ -0,0 +1,597 @@
+package com.ghostchu.btn.sparkle.module.ping.ingest;
+
+import com.google.common.io.ByteStreams;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * /ping 提交的本地追加日志
+ * <p>
+ * 请求体（已解压的 JSON）原样追加到当前段文件并刷盘后即可向客户端确认，之后由 {@link IngestionConsumer} 写入数据库。
+ * 日志按全局字节偏移量寻址，段文件以其起始偏移量命名（%020d.log），写满 segmentSize 后滚动到新段。
+ * <p>
+ * 记录格式（大端序）：
+ * <pre>
+ * payloadLength int | payload | payload 的 CRC32C int
+ * payload: type byte | receivedAt long | appId 长度 short | appId (UTF-8) | 提交者地址长度 byte | 提交者地址 | 请求体
+ * </pre>
+ * 请求体先写到 spool 目录下的临时文件，这一步不持有锁，慢速上传的客户端不会阻塞其他提交；
+ * 长度确定后在写锁内整体拷贝到段文件，并发提交的 fsync 合并为一次。
+ * <p>
+ * 消费进度保存在 checkpoint 文件中。启动时截断末尾段中写了一半的记录，并从 checkpoint 开始重放，
+ * 每条记录至少被处理一次。已被完全消费的段会被删除。
+ */
+@Component
+@Slf4j
+public class IngestionLog {
+    private static final int HEADER_SIZE = 4;
+    private static final int TRAILER_SIZE = 4;
+    /**
+     * type + receivedAt + appId 长度
+     */
+    private static final int FIXED_META_SIZE = 1 + 8 + 2;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final boolean enabled;
+    private final Path directory;
+    private final Path spoolDirectory;
+    private final Path checkpointPath;
+    private final long segmentSize;
+    private final long maxRecordSize;
+    private final long maxLagBytes;
+    private final boolean fsync;
+
+    private final ConcurrentSkipListMap<Long, Path> segments = new ConcurrentSkipListMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final ReentrantLock signalLock = new ReentrantLock();
+    private final Condition appended = signalLock.newCondition();
+    private final AtomicLong durableEnd = new AtomicLong();
+    private final AtomicLong pendingRecords = new AtomicLong();
+    private FileChannel active;
+    private long activeBase;
+    private long writtenEnd;
+    private volatile long committedOffset;
+
+    private final Counter appendedCounter;
+    private final Counter appendedBytesCounter;
+    private final Counter rejectedCounter;
+    private final Timer appendTimer;
+
+    public IngestionLog(@Value("${service.ping.ingest.log.enabled}") boolean enabled,
+                        @Value("${service.ping.ingest.log.path}") String path,
+                        @Value("${service.ping.ingest.log.segment-size}") long segmentSize,
+                        @Value("${service.ping.ingest.log.max-record-size}") long maxRecordSize,
+                        @Value("${service.ping.ingest.log.max-lag-bytes}") long maxLagBytes,
+                        @Value("${service.ping.ingest.log.fsync}") boolean fsync,
+                        MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.directory = Path.of(path).toAbsolutePath();
+        this.spoolDirectory = directory.resolve("spool");
+        this.checkpointPath = directory.resolve("checkpoint");
+        this.segmentSize = segmentSize;
+        // 记录长度以 int 存储
+        this.maxRecordSize = Math.min(maxRecordSize, Integer.MAX_VALUE - HEADER_SIZE - TRAILER_SIZE);
+        this.maxLagBytes = maxLagBytes;
+        this.fsync = fsync;
+        this.appendedCounter = Counter.builder("sparkle.ping.ingest.log.appended")
+                .description("写入接收日志的提交数")
+                .register(meterRegistry);
+        this.appendedBytesCounter = Counter.builder("sparkle.ping.ingest.log.appended.bytes")
+                .description("写入接收日志的字节数")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("sparkle.ping.ingest.log.rejected")
+                .description("因积压超过上限而被拒绝的提交数")
+                .register(meterRegistry);
+        this.appendTimer = Timer.builder("sparkle.ping.ingest.log.append.latency")
+                .description("从开始接收请求体到记录刷盘的耗时")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.ping.ingest.log.lag.bytes", this, IngestionLog::lagBytes)
+                .description("已确认但尚未写入数据库的字节数")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.ping.ingest.log.lag.records", this, IngestionLog::lagRecords)
+                .description("已确认但尚未写入数据库的提交数")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.ping.ingest.log.segments", segments, Map::size)
+                .description("磁盘上的段文件数")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void open() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createDirectories(spoolDirectory);
+            // 上次停机时未写完的请求体，客户端没有收到确认，会重新提交
+            try (Stream<Path> spooled = Files.list(spoolDirectory)) {
+                for (Path file : spooled.toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            try (Stream<Path> files = Files.list(directory)) {
+                files.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                        .forEach(file -> segments.put(segmentBase(file), file));
+            }
+            long checkpoint = readCheckpoint();
+            if (segments.isEmpty()) {
+                openSegment(checkpoint);
+                writtenEnd = checkpoint;
+            } else {
+                recoverTail();
+            }
+            durableEnd.set(writtenEnd);
+            long committed = Math.max(checkpoint, segments.firstKey());
+            if (committed > writtenEnd) {
+                log.warn("接收日志的 checkpoint {} 超过了日志末尾 {}，段文件可能被删除过", committed, writtenEnd);
+                committed = writtenEnd;
+            }
+            committedOffset = committed;
+            long pending = 0;
+            for (long position = committed; position < writtenEnd; position = nextRecordOffset(position)) {
+                pending++;
+            }
+            pendingRecords.set(pending);
+            log.info("已打开接收日志 {}：{} 个段，{} 个提交（{} 字节）等待写入数据库",
+                    directory, segments.size(), pending, writtenEnd - committed);
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法打开接收日志 " + directory, e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        writeLock.lock();
+        try {
+            if (active != null && active.isOpen()) {
+                active.force(false);
+                active.close();
+            }
+        } catch (IOException e) {
+            log.error("无法关闭接收日志的段文件", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 追加一条提交，返回时记录已写入段文件（启用 fsync 时已刷盘），可以向客户端确认
+     *
+     * @param type        提交类型
+     * @param appId       提交者的 AppId，消费时重新查询 UserApplication
+     * @param submitterIp 提交者地址
+     * @param body        请求体
+     * @return 记录的偏移量
+     * @throws BackpressureException   积压超过上限，应让客户端稍后重试
+     * @throws RecordTooLargeException 请求体超过单条记录上限
+     */
+    public long append(RecordType type, String appId, InetAddress submitterIp, InputStream body) throws IOException {
+        if (lagBytes() >= maxLagBytes) {
+            rejectedCounter.increment();
+            throw new BackpressureException(lagBytes());
+        }
+        long start = System.nanoTime();
+        Path spool = Files.createTempFile(spoolDirectory, "submit-", ".tmp");
+        try (var spoolChannel = FileChannel.open(spool, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE)) {
+            var crc = new CRC32C();
+            byte[] app = appId.getBytes(StandardCharsets.UTF_8);
+            byte[] ip = submitterIp.getAddress();
+            ByteBuffer meta = ByteBuffer.allocate(FIXED_META_SIZE + app.length + 1 + ip.length)
+                    .put(type.code)
+                    .putLong(System.currentTimeMillis())
+                    .putShort((short) app.length)
+                    .put(app)
+                    .put((byte) ip.length)
+                    .put(ip)
+                    .flip();
+            crc.update(meta.duplicate());
+            writeFully(spoolChannel, meta, 0);
+            long length = meta.capacity();
+            byte[] chunk = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = body.read(chunk)) != -1) {
+                if (length + read > maxRecordSize) {
+                    throw new RecordTooLargeException(maxRecordSize);
+                }
+                crc.update(chunk, 0, read);
+                writeFully(spoolChannel, ByteBuffer.wrap(chunk, 0, read), length);
+                length += read;
+            }
+            long offset = appendSpooled(spoolChannel, (int) length, (int) crc.getValue());
+            appendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return offset;
+        }
+    }
+
+    private long appendSpooled(FileChannel spool, int length, int crc) throws IOException {
+        long recordSize = HEADER_SIZE + (long) length + TRAILER_SIZE;
+        long end;
+        long offset;
+        writeLock.lock();
+        try {
+            if (writtenEnd > activeBase && writtenEnd - activeBase + recordSize > segmentSize) {
+                rollSegment();
+            }
+            offset = writtenEnd;
+            long local = offset - activeBase;
+            try {
+                writeFully(active, ByteBuffer.allocate(HEADER_SIZE).putInt(0, length), local);
+                long copied = 0;
+                spool.position(0);
+                while (copied < length) {
+                    long transferred = active.transferFrom(spool, local + HEADER_SIZE + copied, length - copied);
+                    if (transferred <= 0) {
+                        throw new EOFException("spool 文件比预期短");
+                    }
+                    copied += transferred;
+                }
+                writeFully(active, ByteBuffer.allocate(TRAILER_SIZE).putInt(0, crc), local + HEADER_SIZE + length);
+            } catch (IOException e) {
+                // 写了一半的记录会挡住之后的所有记录，回退到记录开始处
+                active.truncate(local);
+                throw e;
+            }
+            end = offset + recordSize;
+            writtenEnd = end;
+            pendingRecords.incrementAndGet();
+        } finally {
+            writeLock.unlock();
+        }
+        sync(end);
+        appendedCounter.increment();
+        appendedBytesCounter.increment(recordSize);
+        signalLock.lock();
+        try {
+            appended.signalAll();
+        } finally {
+            signalLock.unlock();
+        }
+        return offset;
+    }
+
+    /**
+     * 合并 fsync：持有 syncLock 的线程刷盘时，排队的线程很可能发现自己的记录已经被一并刷盘
+     */
+    private void sync(long end) throws IOException {
+        if (!fsync) {
+            durableEnd.accumulateAndGet(end, Math::max);
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (durableEnd.get() >= end) {
+                return;
+            }
+            FileChannel channel;
+            long target;
+            writeLock.lock();
+            try {
+                channel = active;
+                target = writtenEnd;
+            } finally {
+                writeLock.unlock();
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // 段已经滚动，滚动时已刷盘
+                if (durableEnd.get() < end) {
+                    throw e;
+                }
+                return;
+            }
+            durableEnd.accumulateAndGet(target, Math::max);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        active.force(false);
+        active.close();
+        durableEnd.accumulateAndGet(writtenEnd, Math::max);
+        openSegment(writtenEnd);
+    }
+
+    private void openSegment(long base) throws IOException {
+        Path file = directory.resolve(String.format("%020d", base) + SEGMENT_SUFFIX);
+        active = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        activeBase = base;
+        segments.put(base, file);
+    }
+
+    /**
+     * 校验末尾段中的每条记录，截断停机时写了一半的记录
+     */
+    private void recoverTail() throws IOException {
+        var last = segments.lastEntry();
+        active = FileChannel.open(last.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        activeBase = last.getKey();
+        long size = active.size();
+        long valid = 0;
+        while (valid + HEADER_SIZE + TRAILER_SIZE <= size) {
+            int length = readAt(active, valid, HEADER_SIZE).getInt();
+            if (length <= 0 || valid + HEADER_SIZE + length + TRAILER_SIZE > size
+                || checksum(active, valid + HEADER_SIZE, length) != readAt(active, valid + HEADER_SIZE + length, TRAILER_SIZE).getInt()) {
+                break;
+            }
+            valid += HEADER_SIZE + length + TRAILER_SIZE;
+        }
+        if (valid < size) {
+            log.warn("接收日志段 {} 末尾有 {} 字节不完整的记录，已截断", last.getValue(), size - valid);
+            active.truncate(valid);
+            active.force(false);
+        }
+        writtenEnd = activeBase + valid;
+    }
+
+    /**
+     * 读取 position 处的记录并校验 CRC，请求体通过 {@link #openBody(IngestionRecord)} 读取
+     *
+     * @return 记录；position 处还没有已刷盘的记录时返回 null
+     * @throws CorruptRecordException 记录损坏，调用方可以用 {@link #nextSegment(long)} 跳过所在段的剩余部分
+     */
+    public IngestionRecord read(long position) throws IOException {
+        if (position >= durableEnd.get()) {
+            return null;
+        }
+        var segment = segments.floorEntry(position);
+        if (segment == null) {
+            throw new CorruptRecordException(position, "偏移量不属于任何段");
+        }
+        try (var channel = FileChannel.open(segment.getValue(), StandardOpenOption.READ)) {
+            long local = position - segment.getKey();
+            int length = readAt(channel, local, HEADER_SIZE).getInt();
+            long payload = local + HEADER_SIZE;
+            if (length < FIXED_META_SIZE + 1 || payload + length + TRAILER_SIZE > channel.size()) {
+                throw new CorruptRecordException(position, "记录长度 " + length + " 无效");
+            }
+            if (checksum(channel, payload, length) != readAt(channel, payload + length, TRAILER_SIZE).getInt()) {
+                throw new CorruptRecordException(position, "CRC 校验失败");
+            }
+            ByteBuffer fixed = readAt(channel, payload, FIXED_META_SIZE);
+            RecordType type = RecordType.of(fixed.get());
+            long receivedAt = fixed.getLong();
+            int appLength = Short.toUnsignedInt(fixed.getShort());
+            ByteBuffer app = readAt(channel, payload + FIXED_META_SIZE, appLength + 1);
+            byte[] appId = new byte[appLength];
+            app.get(appId);
+            int ipLength = Byte.toUnsignedInt(app.get());
+            byte[] ip = new byte[ipLength];
+            readAt(channel, payload + FIXED_META_SIZE + appLength + 1, ipLength).get(ip);
+            long body = payload + FIXED_META_SIZE + appLength + 1 + ipLength;
+            if (type == null || body > payload + length) {
+                throw new CorruptRecordException(position, "记录头无效");
+            }
+            return new IngestionRecord(position, position + HEADER_SIZE + length + TRAILER_SIZE, type, receivedAt,
+                    new String(appId, StandardCharsets.UTF_8), InetAddress.getByAddress(ip),
+                    segment.getValue(), body, payload + length - body);
+        }
+    }
+
+    /**
+     * @return position 处记录的接收时间；没有记录时返回 -1
+     */
+    public long peekReceivedAt(long position) {
+        var segment = segments.floorEntry(position);
+        if (position >= durableEnd.get() || segment == null) {
+            return -1;
+        }
+        try (var channel = FileChannel.open(segment.getValue(), StandardOpenOption.READ)) {
+            return readAt(channel, position - segment.getKey() + HEADER_SIZE + 1, 8).getLong();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    public InputStream openBody(IngestionRecord record) throws IOException {
+        var channel = FileChannel.open(record.segment(), StandardOpenOption.READ).position(record.bodyPosition());
+        return new BufferedInputStream(ByteStreams.limit(Channels.newInputStream(channel), record.bodyLength()), COPY_BUFFER_SIZE);
+    }
+
+    /**
+     * @return position 之后下一个段的起始偏移量
+     */
+    public OptionalLong nextSegment(long position) {
+        Long next = segments.higherKey(position);
+        return next == null ? OptionalLong.empty() : OptionalLong.of(next);
+    }
+
+    /**
+     * 等待 position 处出现已刷盘的记录
+     *
+     * @return 是否有新记录
+     */
+    public boolean awaitData(long position, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        signalLock.lock();
+        try {
+            while (durableEnd.get() <= position) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = appended.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            signalLock.unlock();
+        }
+    }
+
+    /**
+     * 记录 offset 之前的所有记录都已写入数据库，保存 checkpoint 并删除已完全消费的段
+     * <p>
+     * checkpoint 保存失败时内存中的进度仍然前进，重启后只会多重放一些记录
+     *
+     * @param offset  新的消费进度
+     * @param records 本次确认的记录数
+     */
+    public synchronized void commit(long offset, long records) throws IOException {
+        if (offset <= committedOffset) {
+            return;
+        }
+        committedOffset = offset;
+        pendingRecords.addAndGet(-records);
+        Path temp = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            writeFully(channel, ByteBuffer.allocate(8).putLong(0, offset), 0);
+            channel.force(false);
+        }
+        Files.move(temp, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        while (true) {
+            var first = segments.firstEntry();
+            Long next = segments.higherKey(first.getKey());
+            if (next == null || next > offset) {
+                break;
+            }
+            segments.remove(first.getKey());
+            Files.deleteIfExists(first.getValue());
+        }
+    }
+
+    public long committedOffset() {
+        return committedOffset;
+    }
+
+    public long lagBytes() {
+        return durableEnd.get() - committedOffset;
+    }
+
+    public long lagRecords() {
+        return pendingRecords.get();
+    }
+
+    private long readCheckpoint() throws IOException {
+        if (!Files.isRegularFile(checkpointPath)) {
+            return 0;
+        }
+        byte[] bytes = Files.readAllBytes(checkpointPath);
+        if (bytes.length != 8) {
+            log.warn("接收日志 checkpoint {} 已损坏，从最早的段开始重放", checkpointPath);
+            return 0;
+        }
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+
+    private long nextRecordOffset(long position) throws IOException {
+        var segment = segments.floorEntry(position);
+        try (var channel = FileChannel.open(segment.getValue(), StandardOpenOption.READ)) {
+            return position + HEADER_SIZE + readAt(channel, position - segment.getKey(), HEADER_SIZE).getInt() + TRAILER_SIZE;
+        }
+    }
+
+    private static long segmentBase(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static int checksum(FileChannel channel, long position, int length) throws IOException {
+        var crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        long end = position + length;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+            crc.update(buffer.flip());
+        }
+        return (int) crc.getValue();
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    public enum RecordType {
+        PEERS((byte) 1),
+        BANS((byte) 2);
+
+        private final byte code;
+
+        RecordType(byte code) {
+            this.code = code;
+        }
+
+        static RecordType of(byte code) {
+            for (RecordType type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    public static class BackpressureException extends IOException {
+        public BackpressureException(long lagBytes) {
+            super("接收日志积压 " + lagBytes + " 字节，暂不接受新的提交");
+        }
+    }
+
+    public static class RecordTooLargeException extends IOException {
+        public RecordTooLargeException(long maxRecordSize) {
+            super("提交的数据超过 " + maxRecordSize + " 字节");
+        }
+    }
+
+    public static class CorruptRecordException extends IOException {
+        public CorruptRecordException(long position, String reason) {
+            super("接收日志偏移量 " + position + " 处的记录损坏：" + reason);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.ghostchu.btn.sparkle.module.ping.ingest;
+
+import java.net.InetAddress;
+import java.nio.file.Path;
+
+/**
+ * 接收日志中的一条提交
+ *
+ * @param offset       记录的偏移量
+ * @param nextOffset   下一条记录的偏移量
+ * @param type         提交类型
+ * @param receivedAt   接收时间
+ * @param appId        提交者的 AppId
+ * @param submitterIp  提交者地址
+ * @param segment      所在的段文件
+ * @param bodyPosition 请求体在段文件中的位置
+ * @param bodyLength   请求体长度
+ */
+public record IngestionRecord(long offset, long nextOffset, IngestionLog.RecordType type, long receivedAt,
+                              String appId, InetAddress submitterIp, Path segment, long bodyPosition, long bodyLength) {
+}
@@ -0,0 +1,155 @@
+package com.ghostchu.btn.sparkle.module.snapshot;
+
+import com.ghostchu.btn.sparkle.module.snapshot.internal.Snapshot;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 写入 Snapshot 前的增量判断
+ * <p>
+ * 客户端每个提交周期都会重复提交长期连接的 Peer，这些 Snapshot 的流量与进度几乎不变。
+ * 这里按 (UserApplication, 种子, Peer IP, Peer ID) 的 64 位指纹记住最近一次写入的行，
+ * 流量与进度相对该行的变化都没有超过阈值时不写入新行，只更新该行的 last_seen_time。
+ * 阈值与上次写入的行比较而不是与上次提交比较，缓慢的变化累积到阈值后仍会写入。
+ * <p>
+ * 流量变小（客户端重启后计数归零）、端口变化或该行写入已超过 maxAge 时总是写入新行，
+ * 按时间窗口统计的分析不会因为去重丢失数据。指纹冲突只会让极少数 Peer 的一次提交只更新 last_seen_time。
+ */
+@Component
+public class SnapshotDeduplicator {
+    private static final HashFunction FINGERPRINT = Hashing.murmur3_128();
+
+    private final boolean enabled;
+    private final long maxAge;
+    private final long trafficThreshold;
+    private final double progressThreshold;
+    private final Cache<Long, PersistedState> recent;
+    private final Counter receivedCounter;
+    private final Counter persistedCounter;
+    private final Counter suppressedCounter;
+
+    public SnapshotDeduplicator(@Value("${service.snapshot.dedup.enabled}") boolean enabled,
+                                @Value("${service.snapshot.dedup.capacity}") long capacity,
+                                @Value("${service.snapshot.dedup.expire}") long expire,
+                                @Value("${service.snapshot.dedup.max-age}") long maxAge,
+                                @Value("${service.snapshot.dedup.traffic-threshold}") long trafficThreshold,
+                                @Value("${service.snapshot.dedup.progress-threshold}") double progressThreshold,
+                                MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.maxAge = maxAge;
+        this.trafficThreshold = trafficThreshold;
+        this.progressThreshold = progressThreshold;
+        this.recent = CacheBuilder.newBuilder()
+                .maximumSize(capacity)
+                .expireAfterAccess(expire, TimeUnit.MILLISECONDS)
+                .build();
+        this.receivedCounter = Counter.builder("sparkle.snapshot.dedup.received")
+                .description("提交的 Snapshot 数")
+                .register(meterRegistry);
+        this.persistedCounter = Counter.builder("sparkle.snapshot.dedup.persisted")
+                .description("写入新行的 Snapshot 数")
+                .register(meterRegistry);
+        this.suppressedCounter = Counter.builder("sparkle.snapshot.dedup.suppressed")
+                .description("没有明显变化、只更新 last_seen_time 的 Snapshot 数")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.snapshot.dedup.reduction.ratio", this, SnapshotDeduplicator::reductionRatio)
+                .description("启动以来因去重少写入的行数占提交数的比例")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.snapshot.dedup.entries", recent, Cache::size)
+                .description("最近状态表中的条目数")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param snapshot 待写入的 Snapshot，UserApplication 与种子必须已经解析
+     * @return 没有明显变化时返回此前写入的行的 id，否则返回 null 表示需要写入新行
+     */
+    public Long unchangedRow(Snapshot snapshot) {
+        if (snapshot.getUserApplication() == null || snapshot.getTorrent() == null) {
+            return null;
+        }
+        PersistedState previous = recent.getIfPresent(fingerprint(snapshot));
+        if (previous == null
+            || snapshot.getInsertTime().getTime() - previous.insertTime() >= maxAge
+            || snapshot.getPeerPort() != previous.peerPort()
+            || snapshot.getToPeerTraffic() < previous.toPeerTraffic()
+            || snapshot.getFromPeerTraffic() < previous.fromPeerTraffic()
+            || snapshot.getToPeerTraffic() - previous.toPeerTraffic() >= trafficThreshold
+            || snapshot.getFromPeerTraffic() - previous.fromPeerTraffic() >= trafficThreshold
+            || Math.abs(snapshot.getPeerProgress() - previous.peerProgress()) >= progressThreshold
+            || Math.abs(snapshot.getDownloaderProgress() - previous.downloaderProgress()) >= progressThreshold) {
+            return null;
+        }
+        return previous.id();
+    }
+
+    /**
+     * 写入的新行在事务提交后才会成为比较基准，回滚的行不会被当作已存在
+     *
+     * @param received  本批提交的 Snapshot 数
+     * @param persisted 本批写入新行的 Snapshot，id 已回填
+     */
+    public void afterPersist(int received, List<Snapshot> persisted) {
+        receivedCounter.increment(received);
+        persistedCounter.increment(persisted.size());
+        suppressedCounter.increment(received - persisted.size());
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            remember(persisted);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                remember(persisted);
+            }
+        });
+    }
+
+    private void remember(List<Snapshot> persisted) {
+        for (Snapshot snapshot : persisted) {
+            if (snapshot.getUserApplication() == null || snapshot.getTorrent() == null) {
+                continue;
+            }
+            recent.put(fingerprint(snapshot), new PersistedState(snapshot.getId(), snapshot.getInsertTime().getTime(),
+                    snapshot.getPeerPort(), snapshot.getFromPeerTraffic(), snapshot.getToPeerTraffic(),
+                    snapshot.getPeerProgress(), snapshot.getDownloaderProgress()));
+        }
+    }
+
+    private double reductionRatio() {
+        double received = receivedCounter.count();
+        return received == 0 ? 0 : suppressedCounter.count() / received;
+    }
+
+    private static long fingerprint(Snapshot snapshot) {
+        var hasher = FINGERPRINT.newHasher()
+                .putLong(snapshot.getUserApplication().getId())
+                .putLong(snapshot.getTorrent().getId())
+                .putBytes(snapshot.getPeerIp().getAddress());
+        if (snapshot.getPeerId() != null) {
+            hasher.putString(snapshot.getPeerId(), StandardCharsets.UTF_8);
+        }
+        return hasher.hash().asLong();
+    }
+
+    private record PersistedState(long id, long insertTime, int peerPort, long fromPeerTraffic, long toPeerTraffic,
+                                  double peerProgress, double downloaderProgress) {
+    }
+}
@@ -3,6 +3,8 @@ package com.ghostchu.btn.sparkle.module.snapshot;
 import com.ghostchu.btn.sparkle.module.snapshot.internal.Snapshot;
 import com.ghostchu.btn.sparkle.module.snapshot.internal.SnapshotRepository;
 import com.ghostchu.btn.sparkle.module.torrent.TorrentService;
+import com.ghostchu.btn.sparkle.util.pgcopy.PgBulkInserter;
+import com.ghostchu.btn.sparkle.util.pgcopy.PooledSequence;
 import com.ghostchu.btn.sparkle.util.ipdb.GeoIPManager;
 import com.ghostchu.btn.sparkle.util.paging.SparklePage;
 import jakarta.persistence.EntityManager;
@@ -15,25 +17,41 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.io.Serializable;
 import java.net.InetAddress;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.List;
 
 @Service
 public class SnapshotService {
+    private static final List<String> COPY_COLUMNS = List.of("id", "insert_time", "populate_time", "user_application",
+            "submit_id", "peer_ip", "peer_port", "peer_id", "peer_client_name", "torrent", "from_peer_traffic",
+            "from_peer_traffic_speed", "to_peer_traffic", "to_peer_traffic_speed", "peer_progress",
+            "downloader_progress", "flags", "submitter_ip", "last_seen_time");
+    private static final int IDS_PER_STATEMENT = 1000;
 
     private final SnapshotRepository snapshotRepository;
     private final TorrentService torrentService;
+    private final PgBulkInserter bulkInserter;
+    private final PooledSequence idSequence;
+    private final SnapshotDeduplicator deduplicator;
+    private final JdbcTemplate jdbcTemplate;
     @PersistenceContext
     private EntityManager entityManager;
 
-    public SnapshotService(SnapshotRepository snapshotRepository, TorrentService torrentService, GeoIPManager geoIPManager) {
+    public SnapshotService(SnapshotRepository snapshotRepository, TorrentService torrentService, GeoIPManager geoIPManager,
+                           PgBulkInserter bulkInserter, SnapshotDeduplicator deduplicator, JdbcTemplate jdbcTemplate) {
         this.snapshotRepository = snapshotRepository;
         this.torrentService = torrentService;
+        this.bulkInserter = bulkInserter;
+        this.idSequence = bulkInserter.sequence("snapshot_seq");
+        this.deduplicator = deduplicator;
+        this.jdbcTemplate = jdbcTemplate;
 //        this.geoIPManager = geoIPManager;
 //        AtomicInteger count = new AtomicInteger();
 //        CompletableFuture.runAsync(() -> {
@@ -60,7 +78,79 @@ public class SnapshotService {
     @Lock(LockModeType.PESSIMISTIC_WRITE)
     @Async
     public void saveSnapshots(List<Snapshot> snapshotList) {
-        snapshotRepository.saveAll(snapshotList);
+        persistSnapshots(snapshotList);
+    }
+
+    /**
+     * 同步写入一批 Snapshot，在独立的事务中提交，提交后持久化上下文随之释放，流式写入时内存占用不会随批次累积
+     *
+     * @param snapshotList 一批 Snapshot
+     */
+    @Modifying
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public void saveSnapshotBatch(List<Snapshot> snapshotList) {
+        persistSnapshots(snapshotList);
+    }
+
+    /**
+     * 与最近写入的行相比没有明显变化的 Snapshot 只更新该行的 last_seen_time，其余写入新行
+     *
+     * @see SnapshotDeduplicator
+     */
+    private void persistSnapshots(List<Snapshot> snapshotList) {
+        if (!deduplicator.isEnabled()) {
+            copySnapshots(snapshotList);
+            return;
+        }
+        List<Snapshot> changed = new ArrayList<>(snapshotList.size());
+        List<Long> unchanged = new ArrayList<>();
+        for (Snapshot snapshot : snapshotList) {
+            Long existing = deduplicator.unchangedRow(snapshot);
+            if (existing == null) {
+                changed.add(snapshot);
+            } else {
+                unchanged.add(existing);
+            }
+        }
+        copySnapshots(changed);
+        touchLastSeen(unchanged, new Timestamp(System.currentTimeMillis()));
+        deduplicator.afterPersist(snapshotList.size(), changed);
+    }
+
+    private void touchLastSeen(List<Long> ids, Timestamp lastSeen) {
+        for (int from = 0; from < ids.size(); from += IDS_PER_STATEMENT) {
+            var chunk = ids.subList(from, Math.min(ids.size(), from + IDS_PER_STATEMENT));
+            jdbcTemplate.update("UPDATE snapshot SET last_seen_time = ? WHERE id = ANY(?)", lastSeen, chunk.toArray(Long[]::new));
+        }
+    }
+
+    /**
+     * 通过 COPY 写入，id 从 snapshot_seq 按段分配并回填到实体上
+     */
+    private void copySnapshots(List<Snapshot> snapshotList) {
+        idSequence.reserve(snapshotList.size());
+        bulkInserter.copy("snapshot", COPY_COLUMNS, snapshotList, (snapshot, row) -> {
+            snapshot.setId(idSequence.next());
+            row.int8(snapshot.getId())
+                    .timestamp(snapshot.getInsertTime())
+                    .timestamp(snapshot.getPopulateTime())
+                    .int8(snapshot.getUserApplication() == null ? null : snapshot.getUserApplication().getId())
+                    .text(snapshot.getSubmitId())
+                    .inet(snapshot.getPeerIp())
+                    .int4(snapshot.getPeerPort())
+                    .text(snapshot.getPeerId())
+                    .text(snapshot.getPeerClientName())
+                    .int8(snapshot.getTorrent() == null ? null : snapshot.getTorrent().getId())
+                    .int8(snapshot.getFromPeerTraffic())
+                    .int8(snapshot.getFromPeerTrafficSpeed())
+                    .int8(snapshot.getToPeerTraffic())
+                    .int8(snapshot.getToPeerTrafficSpeed())
+                    .float8(snapshot.getPeerProgress())
+                    .float8(snapshot.getDownloaderProgress())
+                    .text(snapshot.getFlags())
+                    .inet(snapshot.getSubmitterIp())
+                    .timestamp(snapshot.getInsertTime());
+        });
     }
 
 
@@ -2,8 +2,11 @@ package com.ghostchu.btn.sparkle.module.snapshot.internal;
 
 import com.ghostchu.btn.sparkle.module.torrent.internal.Torrent;
 import com.ghostchu.btn.sparkle.module.userapp.internal.UserApplication;
+import com.ghostchu.btn.sparkle.util.ipdb.IPGeoData;
+import io.hypersistence.utils.hibernate.type.json.JsonType;
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.Type;
 
 import java.net.InetAddress;
 import java.sql.Timestamp;
@@ -16,7 +19,8 @@ import java.sql.Timestamp;
                 , @Index(columnList = "peerClientName")
                 , @Index(columnList = "torrent")
                 , @Index(columnList = "peerIp")
-                , @Index(columnList = "torrent, peerIp, userApplication, insertTime DESC")})
+                , @Index(columnList = "torrent, peerIp, userApplication, insertTime DESC")
+                , @Index(columnList = "lastSeenTime DESC")})
 @AllArgsConstructor
 @NoArgsConstructor
 @Getter
@@ -63,7 +67,15 @@ public class Snapshot {
     private String flags;
     @Column(nullable = false)
     private InetAddress submitterIp;
-//    @Column( columnDefinition = "jsonb")
-//    @Type(JsonType.class)
-//    private IPGeoData geoIP;
+    /**
+     * 最后一次被提交的时间；没有明显变化的重复提交只更新此列而不写入新行，旧数据中为 null
+     */
+    @Column
+    private Timestamp lastSeenTime;
+    /**
+     * 写入时为空，由 GeoIPEnricher 在提交后异步回填
+     */
+    @Column(columnDefinition = "jsonb")
+    @Type(JsonType.class)
+    private IPGeoData geoIP;
 }
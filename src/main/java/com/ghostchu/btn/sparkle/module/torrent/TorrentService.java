@@ -1,29 +1,105 @@
 package com.ghostchu.btn.sparkle.module.torrent;
 
 import com.ghostchu.btn.sparkle.module.torrent.internal.Torrent;
-import com.ghostchu.btn.sparkle.module.torrent.internal.TorrentRepository;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import jakarta.transaction.Transactional;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Service;
 
+import java.util.*;
+
 @Service
 public class TorrentService {
+    private static final int KEYS_PER_STATEMENT = 1000;
+    private static final RowMapper<Torrent> TORRENT_ROW_MAPPER = (rs, rowNum) ->
+            new Torrent(rs.getLong("id"), rs.getString("identifier"), rs.getLong("size"));
 
-    private final TorrentRepository torrentRepository;
+    private final JdbcTemplate jdbcTemplate;
+    /**
+     * (identifier, size) -> id，种子一旦创建就不会变化，缓存不需要失效
+     */
+    private final Cache<TorrentKey, Long> idCache;
 
-    public TorrentService(TorrentRepository torrentRepository) {
-        this.torrentRepository = torrentRepository;
+    public TorrentService(JdbcTemplate jdbcTemplate,
+                          @Value("${service.torrent.id-cache-size}") long idCacheSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.idCache = CacheBuilder.newBuilder()
+                .maximumSize(idCacheSize)
+                .build();
     }
 
     @Modifying
     @Transactional(Transactional.TxType.NOT_SUPPORTED)
     public Torrent createOrGetTorrent(String torrentIdentifier, long torrentSize){
-        var torrentOptional =  torrentRepository.findByIdentifierAndSize(torrentIdentifier,torrentSize);
-        if(torrentOptional.isPresent()){
-            return torrentOptional.get();
+        var key = new TorrentKey(torrentIdentifier, torrentSize);
+        return resolveTorrents(List.of(key)).get(key);
+    }
+
+    /**
+     * 批量取得或创建种子
+     * <p>
+     * 先查进程内缓存；未命中的种子用一条 INSERT ... ON CONFLICT DO NOTHING RETURNING 创建，
+     * 已经存在（包括被并发请求抢先创建）的再用一条 SELECT ... WHERE (identifier, size) IN (...) 取回，
+     * 不会因为唯一约束冲突而失败。
+     *
+     * @param keys 需要的种子，可以重复
+     * @return (identifier, size) 到种子的映射，只有 id/identifier/size，可以直接作为外键引用
+     */
+    @Modifying
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public Map<TorrentKey, Torrent> resolveTorrents(Collection<TorrentKey> keys) {
+        Map<TorrentKey, Torrent> resolved = new HashMap<>();
+        Set<TorrentKey> missing = new LinkedHashSet<>();
+        for (TorrentKey key : keys) {
+            if (resolved.containsKey(key)) {
+                continue;
+            }
+            Long id = idCache.getIfPresent(key);
+            if (id != null) {
+                resolved.put(key, new Torrent(id, key.identifier(), key.size()));
+            } else {
+                missing.add(key);
+            }
+        }
+        if (missing.isEmpty()) {
+            return resolved;
+        }
+        List<TorrentKey> pending = new ArrayList<>(missing);
+        for (int from = 0; from < pending.size(); from += KEYS_PER_STATEMENT) {
+            var chunk = pending.subList(from, Math.min(pending.size(), from + KEYS_PER_STATEMENT));
+            collect(resolved, queryChunk("INSERT INTO torrent (id, identifier, size) VALUES ",
+                    "(nextval('torrent_seq'), ?, ?)",
+                    " ON CONFLICT (identifier, size) DO NOTHING RETURNING id, identifier, size", chunk));
+            var existing = chunk.stream().filter(key -> !resolved.containsKey(key)).toList();
+            if (!existing.isEmpty()) {
+                collect(resolved, queryChunk("SELECT id, identifier, size FROM torrent WHERE (identifier, size) IN (",
+                        "(?, ?)", ")", existing));
+            }
+        }
+        return resolved;
+    }
+
+    private List<Torrent> queryChunk(String prefix, String tuple, String suffix, List<TorrentKey> chunk) {
+        StringJoiner joiner = new StringJoiner(", ", prefix, suffix);
+        Object[] args = new Object[chunk.size() * 2];
+        for (int i = 0; i < chunk.size(); i++) {
+            joiner.add(tuple);
+            args[i * 2] = chunk.get(i).identifier();
+            args[i * 2 + 1] = chunk.get(i).size();
+        }
+        return jdbcTemplate.query(joiner.toString(), TORRENT_ROW_MAPPER, args);
+    }
+
+    private void collect(Map<TorrentKey, Torrent> resolved, List<Torrent> torrents) {
+        for (Torrent torrent : torrents) {
+            var key = new TorrentKey(torrent.getIdentifier(), torrent.getSize());
+            idCache.put(key, torrent.getId());
+            resolved.put(key, torrent);
         }
-        Torrent torrent = new Torrent(null, torrentIdentifier, torrentSize);
-        return torrentRepository.save(torrent);
     }
 
     public TorrentDto toDto(Torrent torrent) {
@@ -33,4 +109,7 @@ public class TorrentService {
                 .size(torrent.getSize())
                 .build();
     }
+
+    public record TorrentKey(String identifier, long size) {
+    }
 }
@@ -0,0 +1,124 @@
+package com.ghostchu.btn.sparkle.module.tracker;
+
+import com.ghostchu.btn.sparkle.module.tracker.internal.PeerEvent;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 按 (Peer ID, Info Hash) 强制最小 Announce 间隔
+ * <p>
+ * 使用定长的开放寻址表保存 64 位指纹与最后一次被接受的时间（秒），每 8 个槽为一组、组内线性探测，
+ * 组满时覆盖最旧的条目。条目不需要主动清理：超过最小间隔的条目等同于不存在，可以被直接复用。
+ * 指纹冲突只会让极少数 Peer 的一次定期 Announce 被当作过早，不影响正确性。
+ * <p>
+ * 只限制定期 Announce（event 为空），started/completed/stopped 总是被接受。
+ */
+@Component
+public class AnnounceRateLimiter {
+    private static final int BUCKET_SIZE = 8;
+    private static final int LOCK_STRIPES = 64;
+    private static final HashFunction FINGERPRINT = Hashing.murmur3_128();
+
+    private final long[] fingerprints;
+    private final int[] acceptedAt;
+    private final byte[] strikes;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final int mask;
+    private final int minIntervalSeconds;
+    private final int burst;
+    private final long epoch = System.currentTimeMillis();
+    private final Counter shortCircuitedCounter;
+    private final Counter droppedCounter;
+
+    public AnnounceRateLimiter(@Value("${service.tracker.min-interval}") long minInterval,
+                               @Value("${service.tracker.rate-limit.burst}") int burst,
+                               @Value("${service.tracker.rate-limit.capacity}") int capacity,
+                               MeterRegistry meterRegistry) {
+        int size = Math.max(BUCKET_SIZE, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1);
+        this.fingerprints = new long[size];
+        this.acceptedAt = new int[size];
+        this.strikes = new byte[size];
+        this.mask = size - 1;
+        this.minIntervalSeconds = (int) (minInterval / 1000);
+        this.burst = Math.min(burst, Byte.MAX_VALUE);
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        this.shortCircuitedCounter = Counter.builder("sparkle.tracker.announce.short-circuited")
+                .description("过早的定期 Announce，未修改 Swarm 状态，仅返回 Peer 列表")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("sparkle.tracker.announce.dropped")
+                .description("连续过早 Announce 超过容忍次数而被拒绝的请求")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param infoHash Info Hash
+     * @param peerId   Peer ID
+     * @param event    Announce 事件
+     * @return 对本次 Announce 的处理方式
+     */
+    public Decision check(byte[] infoHash, byte[] peerId, PeerEvent event) {
+        if (minIntervalSeconds <= 0) {
+            return Decision.ACCEPT;
+        }
+        long fingerprint = FINGERPRINT.newHasher(40).putBytes(infoHash).putBytes(peerId).hash().asLong();
+        if (fingerprint == 0) {
+            fingerprint = 1;
+        }
+        int now = (int) ((System.currentTimeMillis() - epoch) / 1000);
+        int bucket = (int) fingerprint & mask & -BUCKET_SIZE;
+        synchronized (locks[(bucket / BUCKET_SIZE) & (LOCK_STRIPES - 1)]) {
+            int victim = bucket;
+            for (int slot = bucket; slot < bucket + BUCKET_SIZE; slot++) {
+                if (fingerprints[slot] == fingerprint) {
+                    if (event != PeerEvent.EMPTY || now - acceptedAt[slot] >= minIntervalSeconds) {
+                        accept(slot, fingerprint, now);
+                        return Decision.ACCEPT;
+                    }
+                    if (++strikes[slot] > burst) {
+                        strikes[slot] = (byte) burst;
+                        droppedCounter.increment();
+                        return Decision.DROP;
+                    }
+                    shortCircuitedCounter.increment();
+                    return Decision.SHORT_CIRCUIT;
+                }
+                if (fingerprints[slot] == 0 || acceptedAt[slot] < acceptedAt[victim]) {
+                    victim = slot;
+                }
+            }
+            accept(victim, fingerprint, now);
+            return Decision.ACCEPT;
+        }
+    }
+
+    public long minIntervalSeconds() {
+        return minIntervalSeconds;
+    }
+
+    private void accept(int slot, long fingerprint, int now) {
+        fingerprints[slot] = fingerprint;
+        acceptedAt[slot] = now;
+        strikes[slot] = 0;
+    }
+
+    public enum Decision {
+        /**
+         * 正常处理
+         */
+        ACCEPT,
+        /**
+         * 过早的定期 Announce：不修改状态、不写入持久化，直接返回当前的 Peer 列表
+         */
+        SHORT_CIRCUIT,
+        /**
+         * 连续过早 Announce 次数过多：返回 failure reason
+         */
+        DROP
+    }
+}
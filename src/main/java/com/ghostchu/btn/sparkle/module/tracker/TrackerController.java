@@ -2,20 +2,18 @@ package com.ghostchu.btn.sparkle.module.tracker;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ghostchu.btn.sparkle.controller.SparkleController;
-import com.ghostchu.btn.sparkle.module.tracker.internal.PeerEvent;
-import com.ghostchu.btn.sparkle.util.BencodeUtil;
+import com.ghostchu.btn.sparkle.module.tracker.protocol.AnnounceRequest;
+import com.ghostchu.btn.sparkle.module.tracker.protocol.AnnounceRequestParser;
+import com.ghostchu.btn.sparkle.module.tracker.protocol.AnnounceRequestPool;
+import com.ghostchu.btn.sparkle.module.tracker.protocol.BencodeWriter;
+import com.ghostchu.btn.sparkle.module.tracker.swarm.InfoHash;
 import inet.ipaddr.IPAddress;
 import inet.ipaddr.IPAddressString;
-import jakarta.persistence.LockModeType;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import jakarta.transaction.Transactional;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.Validate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.jpa.repository.Lock;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -23,7 +21,6 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
 
 import java.net.*;
-import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 
@@ -31,6 +28,8 @@ import java.util.*;
 @RequestMapping("/tracker")
 @Slf4j
 public class TrackerController extends SparkleController {
+    private static final int REQUEST_POOL_SIZE = 256;
+    private final AnnounceRequestPool requestPool = new AnnounceRequestPool(REQUEST_POOL_SIZE);
     @Autowired
     private HttpServletRequest req;
     @Autowired
@@ -41,156 +40,157 @@ public class TrackerController extends SparkleController {
     private long announceInterval;
     @Autowired
     private ObjectMapper jacksonObjectMapper;
+    @Autowired
+    private AnnounceRateLimiter announceRateLimiter;
 
     @GetMapping("/announce")
     @ResponseBody
-    @Transactional
-    @Lock(LockModeType.WRITE)
     public byte[] announce() {
-        var infoHashes = extractInfoHashes(req.getQueryString());
-        Validate.isTrue(infoHashes.size() == 1);
-        byte[] infoHash = infoHashes.getFirst();
-        Validate.isTrue(infoHash.length == 20);
-        Validate.notBlank(req.getParameter("peer_id"));
-        byte[] peerId = req.getParameter("peer_id").getBytes(StandardCharsets.ISO_8859_1);
-        String peerIp = Optional.ofNullable(req.getParameter("ip")).orElse(ip(req));
-        Validate.isTrue(StringUtils.isNumeric(req.getParameter("port")));
-        int port = Integer.parseInt(req.getParameter("port"));
-        Validate.isTrue(StringUtils.isNumeric(req.getParameter("uploaded")));
-        long uploaded = Long.parseLong(req.getParameter("uploaded"));
-        Validate.isTrue(StringUtils.isNumeric(req.getParameter("downloaded")));
-        long downloaded = Long.parseLong(req.getParameter("downloaded"));
-        Validate.isTrue(StringUtils.isNumeric(req.getParameter("left")));
-        long left = Long.parseLong(req.getParameter("left"));
-        PeerEvent peerEvent = PeerEvent.EMPTY;
-        String event = req.getParameter("event");
-        if (event != null) {
-            try {
-                peerEvent = PeerEvent.valueOf(event);
-            } catch (Exception ignored) {
+        var request = requestPool.acquire();
+        try {
+            return announce(AnnounceRequestParser.parse(req.getQueryString(), request));
+        } finally {
+            requestPool.release(request);
+        }
+    }
+
+    /**
+     * @param request 解析后的请求，返回后归还到池中，不能在响应之外保留其中的数组
+     */
+    private byte[] announce(AnnounceRequest request) {
+        byte[] infoHash = request.getInfoHash();
+        byte[] peerId = request.getPeerId();
+        String reqIp = ip(req);
+        var decision = announceRateLimiter.check(infoHash, peerId, request.getEvent());
+        if (decision == AnnounceRateLimiter.Decision.DROP) {
+            return new BencodeWriter(96).startDict()
+                    .key("failure reason").string("Announce too frequent, respect min interval")
+                    .key("min interval").integer(announceRateLimiter.minIntervalSeconds())
+                    .end().toByteArray();
+        }
+        var reqIpInetAddress = new IPAddressString(reqIp).getAddress().toInetAddress();
+        List<InetAddress> peerIps = new ArrayList<>(1 + request.getIps().size());
+        peerIps.add(reqIpInetAddress);
+        for (String ip : request.getIps()) {
+            IPAddress address = new IPAddressString(ip).getAddress();
+            if (address != null && !peerIps.contains(address.toInetAddress())) {
+                peerIps.add(address.toInetAddress());
             }
         }
-        boolean compact = "1".equals(req.getParameter("compact"));
-        int numWant = Integer.parseInt(Optional.ofNullable(req.getParameter("num_want")).orElse("50"));
-        var reqIpInetAddress = new IPAddressString(ip(req)).getAddress().toInetAddress();
-        List<InetAddress> peerIps = getPossiblePeerIps(req)
-                .stream()
-                .distinct()
-                .map(ip -> new IPAddressString(ip).getAddress())
-                .filter(Objects::nonNull)
-                .map(IPAddress::toInetAddress).toList();
-        for (InetAddress ip : peerIps) {
+        // 过早的定期 Announce 不修改状态，只返回当前的 Peer 列表
+        if (decision == AnnounceRateLimiter.Decision.ACCEPT) {
             try {
                 trackerService.executeAnnounce(new TrackerService.PeerAnnounce(
                         infoHash,
                         peerId,
                         reqIpInetAddress,
-                        ip,
-                        port,
-                        uploaded,
-                        downloaded,
-                        left,
-                        peerEvent,
+                        peerIps,
+                        request.getPort(),
+                        request.getUploaded(),
+                        request.getDownloaded(),
+                        request.getLeft(),
+                        request.getEvent(),
                         ua(req)
                 ));
             } catch (Exception e) {
                 log.error("Unable to handle Torrent announce", e);
             }
         }
-        var peers = trackerService.fetchPeersFromTorrent(infoHash, null, null, numWant);
+        var peers = trackerService.fetchPeersFromTorrent(infoHash, peerId, request.getLeft() == 0, request.getNumWant());
 
-        // 合成响应
-        var map = new HashMap<>() {{
-            put("interval", announceInterval / 1000);
-            put("complete", peers.seeders());
-            put("incomplete", peers.leechers());
-            put("downloaded", peers.downloaded());
-            put("external ip", ip(req));
-            // put("warning message", new SparkleTrackerMetricsMessage(peers.seeders(),peers.leechers(), peers.downloaded(), peerIps).toString());
-            if (compact) {
-                put("peers", compactPeers(peers.v4(), false));
-                if (!peers.v6().isEmpty())
-                    put("peers6", compactPeers(peers.v6(), true));
-            } else {
-                List<TrackerService.Peer> allPeers = new ArrayList<>(peers.v4());
-                allPeers.addAll(peers.v6());
-                put("peers", new HashMap<>() {{
-                    for (TrackerService.Peer p : allPeers) {
-                        put("peer id", new String(p.peerId(), StandardCharsets.ISO_8859_1));
-                        put("ip", p.ip());
-                        put("port", p.port());
-                    }
-                }});
+        // 合成响应，字典键必须按字典序写入
+        var writer = new BencodeWriter(128 + 2 * (peers.v4().length + peers.v6().length));
+        writer.startDict()
+                .key("complete").integer(peers.seeders())
+                .key("downloaded").integer(peers.downloaded())
+                .key("external ip").string(reqIp)
+                .key("incomplete").integer(peers.leechers())
+                .key("interval").integer(announceInterval / 1000)
+                .key("min interval").integer(announceRateLimiter.minIntervalSeconds());
+        if (request.isCompact()) {
+            writer.key("peers").string(peers.v4());
+            if (peers.v6().length != 0) {
+                writer.key("peers6").string(peers.v6());
             }
-        }};
-        return BencodeUtil.INSTANCE.encode(map);
+        } else {
+            writer.key("peers").startList();
+            writeDictPeers(writer, peers.v4(), 4);
+            writeDictPeers(writer, peers.v6(), 16);
+            writer.end();
+        }
+        return writer.end().toByteArray();
     }
 
     @GetMapping("/scrape")
     @ResponseBody
     public ResponseEntity<byte[]> scrape() {
-        var infoHashes = extractInfoHashes(req.getQueryString());
-        var map = new LinkedHashMap<>();
-        var files = new TreeMap<>();
-        for (byte[] infoHash : infoHashes) {
-            files.put(new String(infoHash, StandardCharsets.ISO_8859_1), new TreeMap<>() {{
-                var peers = trackerService.scrape(infoHash);
-                put("complete", peers.seeders() + 15);
-                put("incomplete", peers.leechers() + 15);
-                put("downloaded", peers.downloaded() + 15);
-            }});
-        }
-        map.put("files", files);
-        map.put("external ip", ip(req));
-        return ResponseEntity.ok(BencodeUtil.INSTANCE.encode(map));
-    }
-
-    public List<String> getPossiblePeerIps(HttpServletRequest req) {
-        List<String> found = new ArrayList<>();
-        found.add(ip(req));
-        if (req.getParameter("ip") != null) {
-            found.addAll(List.of(req.getParameterValues("ip")));
-        }
-        if (req.getParameter("ipv4") != null) {
-            found.addAll(List.of(req.getParameterValues("ipv4")));
+        // files 字典的键是原始 Info Hash，需要按无符号字节序排列并去重
+        var requested = extractInfoHashes(req.getQueryString());
+        requested.sort(Arrays::compareUnsigned);
+        List<byte[]> infoHashes = new ArrayList<>(requested.size());
+        for (byte[] infoHash : requested) {
+            if (infoHashes.isEmpty() || !Arrays.equals(infoHashes.getLast(), infoHash)) {
+                infoHashes.add(infoHash);
+            }
         }
-        if (req.getParameter("ipv6") != null) {
-            found.addAll(List.of(req.getParameterValues("ipv6")));
+        var results = trackerService.scrape(infoHashes);
+        var writer = new BencodeWriter(64 + 80 * infoHashes.size());
+        writer.startDict().key("external ip").string(ip(req)).key("files").startDict();
+        for (int i = 0; i < infoHashes.size(); i++) {
+            var peers = results.get(i);
+            writer.string(infoHashes.get(i))
+                    .startDict()
+                    .key("complete").integer(peers.seeders() + 15)
+                    .key("downloaded").integer(peers.downloaded() + 15)
+                    .key("incomplete").integer(peers.leechers() + 15)
+                    .end();
         }
-        return found;
+        return ResponseEntity.ok(writer.end().end().toByteArray());
     }
 
-    public static String compactPeers(List<TrackerService.Peer> peers, boolean isV6) throws IllegalStateException {
-        ByteBuffer buffer = ByteBuffer.allocate((isV6 ? 18 : 6) * peers.size());
-        for (TrackerService.Peer peer : peers) {
-            String ip = peer.ip();
+    /**
+     * 从紧凑格式展开为字典格式，不包含 peer id（等同于 no_peer_id=1）
+     */
+    private static void writeDictPeers(BencodeWriter writer, byte[] compact, int addressLength) {
+        int entrySize = addressLength + 2;
+        for (int pos = 0; pos < compact.length; pos += entrySize) {
+            String ip;
             try {
-                for (byte address : InetAddress.getByName(ip).getAddress()) {
-                    buffer.put(address);
-                }
-                int in = peer.port();
-                buffer.put((byte) ((in >>> 8) & 0xFF));
-                buffer.put((byte) (in & 0xFF));
+                ip = InetAddress.getByAddress(Arrays.copyOfRange(compact, pos, pos + addressLength)).getHostAddress();
             } catch (UnknownHostException e) {
-                throw new IllegalStateException("incorrect ip format encountered when compact peer ip");
+                throw new IllegalStateException("incorrect ip length encountered when expand compact peers", e);
             }
+            writer.startDict()
+                    .key("ip").string(ip)
+                    .key("port").integer(((compact[pos + addressLength] & 0xFF) << 8) | (compact[pos + addressLength + 1] & 0xFF))
+                    .end();
         }
-        return new String(buffer.array(), StandardCharsets.ISO_8859_1);
     }
 
     /**
      * 套他猴子的 BitTorrent 总给我整花活
      * @param queryString 查询字符串
-     * @return 使用 ISO_8859_1 进行 URL 解码的 Info Hash 集合
+     * @return 使用 ISO_8859_1 进行 URL 解码的 Info Hash 集合，长度不是 20 字节的会被忽略
      */
     public static List<byte[]> extractInfoHashes(String queryString) {
         List<byte[]> infoHashes = new ArrayList<>();
+        if (queryString == null) {
+            return infoHashes;
+        }
         String[] params = queryString.split("&");
         for (String param : params) {
             if (param.startsWith("info_hash=")) {
                 String encodedHash = param.substring("info_hash=".length());
-                byte[] decodedHash = URLDecoder.decode(encodedHash, StandardCharsets.ISO_8859_1).getBytes(StandardCharsets.ISO_8859_1);
-                infoHashes.add(decodedHash);
+                byte[] decodedHash;
+                try {
+                    decodedHash = URLDecoder.decode(encodedHash, StandardCharsets.ISO_8859_1).getBytes(StandardCharsets.ISO_8859_1);
+                } catch (IllegalArgumentException e) {
+                    // 非法的 % 转义
+                    continue;
+                }
+                if (decodedHash.length == InfoHash.LENGTH) {
+                    infoHashes.add(decodedHash);
+                }
             }
         }
 
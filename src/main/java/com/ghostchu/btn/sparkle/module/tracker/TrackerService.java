@@ -1,19 +1,21 @@
 package com.ghostchu.btn.sparkle.module.tracker;
 
 import com.ghostchu.btn.sparkle.module.tracker.internal.*;
-import com.ghostchu.btn.sparkle.util.ByteUtil;
-import jakarta.transaction.Transactional;
+import com.ghostchu.btn.sparkle.module.tracker.swarm.InfoHash;
+import com.ghostchu.btn.sparkle.module.tracker.swarm.PeerId;
+import com.ghostchu.btn.sparkle.module.tracker.swarm.Swarm;
+import com.ghostchu.btn.sparkle.module.tracker.swarm.SwarmPeer;
+import com.ghostchu.btn.sparkle.module.tracker.swarm.SwarmRegistry;
+import com.ghostchu.btn.sparkle.module.tracker.swarm.SwarmSnapshotStore;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.Cacheable;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.io.Serializable;
-import java.net.Inet4Address;
-import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
@@ -24,132 +26,197 @@ public class TrackerService {
 
     private final TrackedPeerRepository trackedPeerRepository;
     private final TrackedTaskRepository trackedTaskRepository;
+    private final SwarmRegistry swarmRegistry;
+    private final TrackerWriteBehindQueue writeBehindQueue;
+    private final SwarmSnapshotStore swarmSnapshotStore;
 
     private final long inactiveInterval;
     private final int maxPeersReturn;
+    private final boolean persistenceEnabled;
+    private final long peerListMaxStaleness;
 
 
     public TrackerService(TrackedPeerRepository trackedPeerRepository,
                           TrackedTaskRepository trackedTaskRepository,
+                          SwarmRegistry swarmRegistry,
+                          TrackerWriteBehindQueue writeBehindQueue,
+                          SwarmSnapshotStore swarmSnapshotStore,
                           @Value("${service.tracker.inactive-interval}") long inactiveInterval,
-                          @Value("${service.tracker.max-peers-return}") int maxPeersReturn) {
+                          @Value("${service.tracker.max-peers-return}") int maxPeersReturn,
+                          @Value("${service.tracker.persistence.enabled}") boolean persistenceEnabled,
+                          @Value("${service.tracker.peer-list-max-staleness}") long peerListMaxStaleness) {
         this.trackedPeerRepository = trackedPeerRepository;
         this.trackedTaskRepository = trackedTaskRepository;
+        this.swarmRegistry = swarmRegistry;
+        this.writeBehindQueue = writeBehindQueue;
+        this.swarmSnapshotStore = swarmSnapshotStore;
         this.inactiveInterval = inactiveInterval;
         this.maxPeersReturn = maxPeersReturn;
+        this.persistenceEnabled = persistenceEnabled;
+        this.peerListMaxStaleness = peerListMaxStaleness;
     }
 
-    @Scheduled(fixedDelayString = "${service.tracker.cleanup-interval}")
-    @Transactional
+    /**
+     * 持续清除不活跃的 Peer，数据库中的记录通过写后队列逐条删除，不再整表扫描删除
+     */
+    @Scheduled(fixedDelayString = "${service.tracker.expiry-tick}")
     public void cleanup() {
-        var count = trackedPeerRepository.deleteByLastTimeSeenLessThanEqual(new Timestamp(System.currentTimeMillis() - inactiveInterval));
-        log.info("已清除 {} 个不活跃的 Peers", count);
+        var count = swarmRegistry.expire(System.currentTimeMillis(), (swarm, peer) -> {
+            if (persistenceEnabled) {
+                var peerId = PeerId.of(peer.getPeerId());
+                for (byte[] address : peer.getAddresses()) {
+                    writeBehindQueue.submitRemoval(toInet(address).getHostAddress(), peerId, swarm.getInfoHash());
+                }
+            }
+        });
+        if (count > 0) {
+            log.debug("已清除 {} 个不活跃的 Peers", count);
+        }
     }
 
-    @Async
+    /**
+     * 应用一次 Announce，请求中的所有地址作为同一个 Peer 的一次变更处理，种子计数只提交一次增量
+     * <p>
+     * 数据库中每个地址仍是一行，它们在同一个写后批次中写入；被移除的地址对应的行同时删除。
+     */
     public void executeAnnounce(PeerAnnounce announce) {
-        var trackedPeer = trackedPeerRepository.findByPeerIpAndPeerIdAndTorrentInfoHash(
-                announce.peerIp(),
-                ByteUtil.filterUTF8(ByteUtil.bytesToHex(announce.peerId())),
-                ByteUtil.bytesToHex(announce.infoHash())
-        ).orElse(new TrackedPeer(
-                null,
-                announce.reqIp(),
-                ByteUtil.filterUTF8(ByteUtil.bytesToHex(announce.peerId())),
-                announce.peerIp(),
-                announce.peerPort(),
-                ByteUtil.bytesToHex(announce.infoHash()),
-                announce.uploaded(),
-                announce.uploaded(),
-                announce.downloaded(),
-                announce.downloaded(),
-                announce.left(),
-                announce.peerEvent(),
-                announce.userAgent(),
-                new Timestamp(System.currentTimeMillis()),
-                new Timestamp(System.currentTimeMillis())
-        ));
-        if (trackedPeer.getDownloadedOffset() > announce.downloaded()
-            || trackedPeer.getUploadedOffset() > announce.uploaded()) {
-            trackedPeer.setDownloaded(trackedPeer.getDownloaded() + announce.downloaded());
-            trackedPeer.setUploaded(trackedPeer.getUploaded() + announce.uploaded());
-        } else {
-            var downloadIncrease = announce.downloaded() - trackedPeer.getDownloaded();
-            var uploadedIncrease = announce.uploaded() - trackedPeer.getUploaded();
-            trackedPeer.setDownloaded(trackedPeer.getDownloaded() + downloadIncrease);
-            trackedPeer.setUploaded(trackedPeer.getUploaded() + uploadedIncrease);
+        var infoHash = InfoHash.of(announce.infoHash());
+        var result = swarmRegistry.announce(infoHash, announce);
+        if (!persistenceEnabled) {
+            return;
         }
-        trackedPeer.setDownloadedOffset(announce.downloaded());
-        trackedPeer.setUploadedOffset(announce.uploaded());
-        trackedPeer.setUserAgent(announce.userAgent());
-        trackedPeer.setLastTimeSeen(new Timestamp(System.currentTimeMillis()));
-        trackedPeer.setLeft(announce.left());
-        trackedPeer.setPeerPort(announce.peerPort());
-        trackedPeer.setPeerIp(announce.peerIp());
-        trackedPeer.setReqIp(announce.reqIp());
-        var trackedTask = trackedTaskRepository.findByTorrentInfoHash(ByteUtil.bytesToHex(announce.infoHash())).orElse(new TrackedTask(
-                null,
-                ByteUtil.bytesToHex(announce.infoHash()),
-                new Timestamp(System.currentTimeMillis()),
-                new Timestamp(System.currentTimeMillis()),
-                0L, 0L
-        ));
-        // 检查 task 属性
-        if (announce.peerEvent() == PeerEvent.STARTED) {
-            // 新 task
-            trackedTask.setLeechCount(trackedTask.getLeechCount() + 1);
+        var now = new Timestamp(System.currentTimeMillis());
+        writeBehindQueue.submitTaskDelta(infoHash,
+                announce.peerEvent() == PeerEvent.STARTED ? 1 : 0,
+                announce.peerEvent() == PeerEvent.COMPLETED ? 1 : 0,
+                now);
+        var peerId = PeerId.of(announce.peerId());
+        for (byte[] address : result.removedAddresses()) {
+            writeBehindQueue.submitRemoval(toInet(address).getHostAddress(), peerId, infoHash);
         }
-        if (announce.peerEvent() == PeerEvent.COMPLETED) {
-            trackedTask.setDownloadedCount(trackedTask.getDownloadedCount() + 1);
+        var peer = result.peer();
+        if (peer == null) {
+            return;
         }
-        trackedTaskRepository.save(trackedTask);
-        if (announce.peerEvent() == PeerEvent.STOPPED) {
-            if (trackedPeer.getId() != null) {
-                trackedPeerRepository.delete(trackedPeer);
-            }
-        } else {
-            trackedPeerRepository.save(trackedPeer);
+        var reqIp = toInet(peer.getReqAddress());
+        var firstTimeSeen = new Timestamp(peer.getFirstTimeSeen());
+        var lastTimeSeen = new Timestamp(peer.getLastTimeSeen());
+        for (byte[] address : peer.getAddresses()) {
+            writeBehindQueue.submitPeer(new TrackedPeer(
+                    null,
+                    reqIp,
+                    peer.getPeerId(),
+                    toInet(address),
+                    peer.getPort(),
+                    infoHash.bytes(),
+                    peer.getUploaded(),
+                    peer.getUploadedOffset(),
+                    peer.getDownloaded(),
+                    peer.getDownloadedOffset(),
+                    peer.getLeft(),
+                    peer.getLastEvent(),
+                    peer.getUserAgent(),
+                    firstTimeSeen,
+                    lastTimeSeen
+            ));
         }
     }
 
-    @Cacheable(value = {"peers#3000"}, key = "#torrentInfoHash")
-    public TrackedPeerList fetchPeersFromTorrent(byte[] torrentInfoHash, byte[] peerId, InetAddress peerIp, int numWant) {
-        List<Peer> v4 = new ArrayList<>();
-        List<Peer> v6 = new ArrayList<>();
-        int seeders = 0;
-        int leechers = 0;
-        long downloaded = 0;
-        for (TrackedPeer peer : trackedPeerRepository.fetchPeersFromTorrent(ByteUtil.bytesToHex(torrentInfoHash), Math.min(numWant, maxPeersReturn))) {
-            if (peer.getPeerIp() instanceof Inet4Address ipv4) {
-                v4.add(new Peer(ipv4.getHostAddress(), peer.getPeerPort(), ByteUtil.hexToByteArray(peer.getPeerId())));
-            }
-            if (peer.getPeerIp() instanceof Inet6Address ipv6) {
-                v6.add(new Peer(ipv6.getHostAddress(), peer.getPeerPort(), ByteUtil.hexToByteArray(peer.getPeerId())));
-            }
-            if (peer.getLeft() == 0) {
-                seeders++;
-            } else {
-                leechers++;
-            }
+    /**
+     * @param peerId  请求者的 Peer ID，不会出现在返回的列表中
+     * @param seeder  请求者是否为做种者
+     * @param numWant 每个地址族的数量上限，负数视为 0
+     */
+    public TrackedPeerList fetchPeersFromTorrent(byte[] torrentInfoHash, byte[] peerId, boolean seeder, int numWant) {
+        var infoHash = InfoHash.of(torrentInfoHash);
+        var swarm = swarmRegistry.get(infoHash);
+        if (swarm == null) {
+            return new TrackedPeerList(new byte[0], new byte[0], 0, 0, swarmRegistry.scrape(infoHash).downloaded());
         }
-        var trackedTask = trackedTaskRepository.findByTorrentInfoHash(ByteUtil.bytesToHex(torrentInfoHash));
-        if (trackedTask.isPresent()) {
-            downloaded = trackedTask.get().getDownloadedCount();
-        }
-        return new TrackedPeerList(v4, v6, seeders, leechers, downloaded);
+        return swarm.selectPeers(Math.max(0, Math.min(numWant, maxPeersReturn)), peerId, seeder, System.currentTimeMillis(), peerListMaxStaleness);
     }
 
 
-    @Cacheable(value = {"scrape#60000"}, key = "#torrentInfoHash")
+    /**
+     * @param torrentInfoHash Info Hash，长度不正确时按不存在的种子返回全 0
+     */
     public ScrapeResponse scrape(byte[] torrentInfoHash) {
-        var seeders = trackedPeerRepository.countByTorrentInfoHashAndLeft(ByteUtil.bytesToHex(torrentInfoHash), 0L);
-        var leechers = trackedPeerRepository.countByTorrentInfoHashAndLeftNot(ByteUtil.bytesToHex(torrentInfoHash), 0L);
-        var downloaded = 0L;
-        var optional = trackedTaskRepository.findByTorrentInfoHash(ByteUtil.bytesToHex(torrentInfoHash));
-        if (optional.isPresent()) {
-            downloaded = optional.get().getDownloadedCount();
+        if (torrentInfoHash.length != InfoHash.LENGTH) {
+            return new ScrapeResponse(0, 0, 0);
+        }
+        return swarmRegistry.scrape(InfoHash.of(torrentInfoHash));
+    }
+
+    /**
+     * 批量 Scrape，全部来自内存中的增量计数，不访问数据库
+     *
+     * @param torrentInfoHashes Info Hash 列表
+     * @return 与参数顺序一致的结果
+     */
+    public List<ScrapeResponse> scrape(List<byte[]> torrentInfoHashes) {
+        List<ScrapeResponse> responses = new ArrayList<>(torrentInfoHashes.size());
+        for (byte[] infoHash : torrentInfoHashes) {
+            responses.add(scrape(infoHash));
+        }
+        return responses;
+    }
+
+    /**
+     * 启动时还原内存中的 Tracker 状态，优先使用快照，没有可用快照时才从数据库还原
+     */
+    @PostConstruct
+    public void restore() {
+        long now = System.currentTimeMillis();
+        if (persistenceEnabled) {
+            // 停机期间过期的 Peer 不会被还原到内存，也就不会经过时间轮，在这里一次性清掉
+            long stale = trackedPeerRepository.deleteByLastTimeSeenLessThanEqual(new Timestamp(now - inactiveInterval));
+            log.info("已清除 {} 个停机期间过期的 Peers", stale);
+        }
+        if (swarmSnapshotStore.load() || !persistenceEnabled) {
+            // 旧快照中可能有已经没有 Peer 的种子
+            long evicted = swarmRegistry.evictEmpty();
+            if (evicted > 0) {
+                log.info("已移除快照中 {} 个没有 Peer 的种子", evicted);
+            }
+            return;
+        }
+        long tasks = 0;
+        long peers = 0;
+        for (TrackedPeer peer : trackedPeerRepository.findByLastTimeSeenGreaterThan(new Timestamp(now - inactiveInterval))) {
+            swarmRegistry.getOrCreate(InfoHash.of(peer.getTorrentInfoHash()), now)
+                    .restorePeer(new SwarmPeer(
+                            peer.getPeerId(),
+                            new byte[][]{peer.getPeerIp().getAddress()},
+                            peer.getPeerPort(),
+                            peer.getReqIp().getAddress(),
+                            peer.getUploaded(),
+                            peer.getUploadedOffset(),
+                            peer.getDownloaded(),
+                            peer.getDownloadedOffset(),
+                            peer.getLeft(),
+                            peer.getLastEvent(),
+                            peer.getUserAgent(),
+                            peer.getFirstTimeSeen().getTime(),
+                            peer.getLastTimeSeen().getTime()
+                    ));
+            peers++;
+        }
+        // 只有仍有 Peer 的种子会创建 Swarm，其余种子的计数由注册表保留，Peer 返回或 Scrape 时使用
+        for (TrackedTask task : trackedTaskRepository.findAll()) {
+            swarmRegistry.restoreCounters(InfoHash.of(task.getTorrentInfoHash()), new Swarm.Counters(
+                    task.getLeechCount(), task.getDownloadedCount(),
+                    task.getFirstTimeSeen().getTime(), task.getLastTimeSeen().getTime()));
+            tasks++;
+        }
+        log.info("已从数据库还原 {} 个种子的 {} 个 Peers", tasks, peers);
+    }
+
+    private static InetAddress toInet(byte[] address) {
+        try {
+            return InetAddress.getByAddress(address);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("incorrect ip length encountered when restore peer ip", e);
         }
-        return new ScrapeResponse(seeders, leechers, downloaded);
     }
 
     public record TrackerMetrics(
@@ -171,11 +238,14 @@ public class TrackerService {
     ) implements Serializable {
     }
 
+    /**
+     * @param peerIps 客户端报告的所有地址（连接地址与 ip/ipv4/ipv6 参数，已去重），至少包含一个
+     */
     public record PeerAnnounce(
             byte[] infoHash,
             byte[] peerId,
             InetAddress reqIp,
-            InetAddress peerIp,
+            List<InetAddress> peerIps,
             int peerPort,
             long uploaded,
             long downloaded,
@@ -186,19 +256,16 @@ public class TrackerService {
 
     }
 
+    /**
+     * @param v4 BEP 23 紧凑格式的 IPv4 Peer 列表，每条 6 字节
+     * @param v6 BEP 7 紧凑格式的 IPv6 Peer 列表，每条 18 字节
+     */
     public record TrackedPeerList(
-            List<Peer> v4,
-            List<Peer> v6,
+            byte[] v4,
+            byte[] v6,
             long seeders,
             long leechers,
             long downloaded
     ) implements Serializable {
     }
-
-    public record Peer(
-            String ip,
-            int port,
-            byte[] peerId
-    ) implements Serializable {
-    }
 }
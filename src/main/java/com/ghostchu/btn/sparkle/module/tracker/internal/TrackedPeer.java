@@ -28,16 +28,14 @@ public class TrackedPeer {
     private Long id;
     @Column(nullable = false)
     private InetAddress reqIp;
-    @Column(nullable = false)
-    private String peerId;
+    @Column(nullable = false, length = 20)
+    private byte[] peerId;
     @Column(nullable = false)
     private InetAddress peerIp;
     @Column(nullable = false)
     private Integer peerPort;
-    @Column(nullable = false)
-    private String torrentInfoHash;
-//    @Column // too complex, we just give up it until somebody want to PR it
-//    private byte[] torrentInfoHashSha1;
+    @Column(nullable = false, length = 20)
+    private byte[] torrentInfoHash;
     @Column(nullable = false)
     private Long uploaded;
     @Column(nullable = false)
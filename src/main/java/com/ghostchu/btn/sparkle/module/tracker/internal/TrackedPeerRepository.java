@@ -1,6 +1,8 @@
 package com.ghostchu.btn.sparkle.module.tracker.internal;
 
 import com.ghostchu.btn.sparkle.module.repository.SparkleCommonRepository;
+import jakarta.transaction.Transactional;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
@@ -12,27 +14,14 @@ import java.util.Optional;
 public interface TrackedPeerRepository extends SparkleCommonRepository<TrackedPeer, Long> {
 
 
-    @Query("""
-            select t from TrackedPeer t
-            where t.torrentInfoHash = ?1 and t.peerId <> ?2 and t.peerIp <> ?3
-            order by RANDOM() limit ?4
-            """)
-    List<TrackedPeer> fetchPeersFromTorrent(String torrentInfoHash, String peerId, InetAddress peerIp, int limit);
+    Optional<TrackedPeer> findByPeerIpAndPeerIdAndTorrentInfoHash(InetAddress peerIp, byte[] peerId, byte[] torrentInfoHash);
 
-    @Query("""
-            select t from TrackedPeer t
-            where t.torrentInfoHash = ?1 
-            order by RANDOM() limit ?2
-            """)
-    List<TrackedPeer> fetchPeersFromTorrent(String torrentInfoHash, int limit);
+    @Modifying
+    @Transactional
+    @Query("delete from TrackedPeer t where t.lastTimeSeen <= ?1")
+    int deleteByLastTimeSeenLessThanEqual(Timestamp deleteAllEntireBeforeThisTime);
 
-    Optional<TrackedPeer> findByPeerIpAndPeerIdAndTorrentInfoHash(InetAddress peerIp, String peerId, String torrentInfoHash);
-
-    long deleteByLastTimeSeenLessThanEqual(Timestamp deleteAllEntireBeforeThisTime);
-
-    long countByTorrentInfoHashAndLeft(String torrentInfoHash, Long left);
-
-    long countByTorrentInfoHashAndLeftNot(String torrentInfoHash, Long left);
+    List<TrackedPeer> findByLastTimeSeenGreaterThan(Timestamp lastTimeSeen);
 
     @Query("select count(distinct t.torrentInfoHash) from TrackedPeer t")
     long countTrackingTorrents();
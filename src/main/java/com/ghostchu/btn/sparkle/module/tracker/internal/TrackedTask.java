@@ -23,8 +23,8 @@ public class TrackedTask {
     @GeneratedValue
     @Column(nullable = false, unique = true)
     private Long id;
-    @Column(nullable = false)
-    private String torrentInfoHash;
+    @Column(nullable = false, length = 20)
+    private byte[] torrentInfoHash;
     @Column(nullable = false)
     private Timestamp firstTimeSeen;
     @Column(nullable = false)
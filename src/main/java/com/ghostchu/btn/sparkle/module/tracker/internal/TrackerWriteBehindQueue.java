@@ -0,0 +1,363 @@
+package com.ghostchu.btn.sparkle.module.tracker.internal;
+
+import com.ghostchu.btn.sparkle.module.tracker.swarm.InfoHash;
+import com.ghostchu.btn.sparkle.module.tracker.swarm.PeerId;
+import com.ghostchu.btn.sparkle.module.tracker.swarm.SwarmRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * tracker_peers/tracker_tasks 的写后队列
+ * <p>
+ * 同一 (peerIp, peerId, infoHash) 在一个刷写窗口内的多次 Announce 只保留最后一次，
+ * 每个种子的 leech/completed 计数只累加增量，最后以多行 INSERT ... ON CONFLICT DO UPDATE 批量写入。
+ * <p>
+ * 待写条目与 {@link SwarmRegistry} 一样按 Info Hash 分片，每个分片有自己的交换锁，提交时不会在全局锁上竞争。
+ * <p>
+ * 一次刷写的种子计数与 Peer 在同一个事务中写入，失败时整体回滚，重新入队的计数增量不会被重复累加。
+ * 连接失败等暂时性错误整体重新入队，同一条目最多重试 maxRetries 次；其它错误按块、再按行在独立事务中重写，
+ * 单独仍然失败的行被丢弃并记录，一行坏数据不会让整个队列永远无法写入。
+ */
+@Component
+@Slf4j
+public class TrackerWriteBehindQueue {
+    private static final int ROWS_PER_STATEMENT = 500;
+    private static final String PEER_COLUMNS = "(id, req_ip, peer_id, peer_ip, peer_port, torrent_info_hash, uploaded, uploaded_offset, downloaded, downloaded_offset, \"left\", last_event, user_agent, first_time_seen, last_time_seen)";
+    private static final String PEER_VALUES = "(nextval('tracked_peer_seq'), ?::inet, ?, ?::inet, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String PEER_UPSERT = """
+             ON CONFLICT (peer_ip, peer_id, torrent_info_hash) DO UPDATE SET
+                req_ip = EXCLUDED.req_ip,
+                peer_port = EXCLUDED.peer_port,
+                uploaded = EXCLUDED.uploaded,
+                uploaded_offset = EXCLUDED.uploaded_offset,
+                downloaded = EXCLUDED.downloaded,
+                downloaded_offset = EXCLUDED.downloaded_offset,
+                "left" = EXCLUDED."left",
+                last_event = EXCLUDED.last_event,
+                user_agent = EXCLUDED.user_agent,
+                last_time_seen = EXCLUDED.last_time_seen
+            """;
+    private static final String PEER_DELETE = "DELETE FROM tracker_peers WHERE peer_ip = ?::inet AND peer_id = ? AND torrent_info_hash = ?";
+    private static final String TASK_COLUMNS = "(id, torrent_info_hash, first_time_seen, last_time_seen, leech_count, downloaded_count)";
+    private static final String TASK_VALUES = "(nextval('tracked_task_seq'), ?, ?, ?, ?, ?)";
+    private static final String TASK_UPSERT = """
+             ON CONFLICT (torrent_info_hash) DO UPDATE SET
+                last_time_seen = GREATEST(tracker_tasks.last_time_seen, EXCLUDED.last_time_seen),
+                leech_count = tracker_tasks.leech_count + EXCLUDED.leech_count,
+                downloaded_count = tracker_tasks.downloaded_count + EXCLUDED.downloaded_count
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxRetries;
+    private final Stripe[] stripes;
+    private final LongAdder submittedSinceFlush = new LongAdder();
+    private final Counter submittedCounter;
+    private final Counter flushedCounter;
+    private final Counter droppedCounter;
+    private final Timer flushTimer;
+    private volatile double coalescingRatio = 1.0d;
+
+    public TrackerWriteBehindQueue(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, MeterRegistry meterRegistry,
+                                   @Value("${service.tracker.shards}") int shardCount,
+                                   @Value("${service.tracker.persistence.max-retries}") int maxRetries) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.stripes = new Stripe[SwarmRegistry.roundShardCount(shardCount)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.submittedCounter = Counter.builder("sparkle.tracker.writebehind.submitted")
+                .description("提交到写后队列的 Peer 变更数")
+                .register(meterRegistry);
+        this.flushedCounter = Counter.builder("sparkle.tracker.writebehind.flushed")
+                .description("合并后实际写入数据库的 Peer 行数")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("sparkle.tracker.writebehind.dropped")
+                .description("重试次数耗尽或数据无法写入而丢弃的 Peer 与种子计数条目数")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("sparkle.tracker.writebehind.flush.latency")
+                .description("单次刷写耗时")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.tracker.writebehind.queue.depth", this, TrackerWriteBehindQueue::depth)
+                .description("等待刷写的 Peer 与种子计数条目数")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.tracker.writebehind.coalescing.ratio", this, q -> q.coalescingRatio)
+                .description("上一次刷写中提交数与实际写入行数之比")
+                .register(meterRegistry);
+    }
+
+    public void submitPeer(TrackedPeer peer) {
+        var key = new PeerKey(peer.getPeerIp().getHostAddress(), PeerId.of(peer.getPeerId()), InfoHash.of(peer.getTorrentInfoHash()));
+        submit(key, new PeerWrite(peer, false, 0));
+    }
+
+    public void submitRemoval(String peerIp, PeerId peerId, InfoHash torrentInfoHash) {
+        submit(new PeerKey(peerIp, peerId, torrentInfoHash), new PeerWrite(null, true, 0));
+    }
+
+    public void submitTaskDelta(InfoHash torrentInfoHash, long leechDelta, long downloadedDelta, Timestamp now) {
+        var stripe = stripe(torrentInfoHash);
+        stripe.swapLock.readLock().lock();
+        try {
+            stripe.tasks.merge(torrentInfoHash, new TaskDelta(now, now, leechDelta, downloadedDelta, 0), TaskDelta::merge);
+        } finally {
+            stripe.swapLock.readLock().unlock();
+        }
+    }
+
+    private void submit(PeerKey key, PeerWrite write) {
+        var stripe = stripe(key.torrentInfoHash());
+        stripe.swapLock.readLock().lock();
+        try {
+            stripe.peers.put(key, write);
+        } finally {
+            stripe.swapLock.readLock().unlock();
+        }
+        submittedSinceFlush.increment();
+        submittedCounter.increment();
+    }
+
+    private Stripe stripe(InfoHash infoHash) {
+        return stripes[infoHash.shard(stripes.length)];
+    }
+
+    public int depth() {
+        int depth = 0;
+        for (Stripe stripe : stripes) {
+            depth += stripe.peers.size() + stripe.tasks.size();
+        }
+        return depth;
+    }
+
+    @Scheduled(fixedDelayString = "${service.tracker.persistence.flush-interval}")
+    @PreDestroy
+    public synchronized void flush() {
+        Map<PeerKey, PeerWrite> peers = new HashMap<>();
+        Map<InfoHash, TaskDelta> tasks = new HashMap<>();
+        long submitted = submittedSinceFlush.sumThenReset();
+        for (Stripe stripe : stripes) {
+            Map<PeerKey, PeerWrite> stripePeers;
+            Map<InfoHash, TaskDelta> stripeTasks;
+            stripe.swapLock.writeLock().lock();
+            try {
+                stripePeers = stripe.peers;
+                stripeTasks = stripe.tasks;
+                stripe.peers = new ConcurrentHashMap<>();
+                stripe.tasks = new ConcurrentHashMap<>();
+            } finally {
+                stripe.swapLock.writeLock().unlock();
+            }
+            peers.putAll(stripePeers);
+            tasks.putAll(stripeTasks);
+        }
+        if (peers.isEmpty() && tasks.isEmpty()) {
+            return;
+        }
+        try {
+            flushTimer.record(() -> transactionTemplate.executeWithoutResult(status -> {
+                writeTasks(tasks);
+                writePeers(peers);
+            }));
+            flushedCounter.increment(peers.size());
+            if (!peers.isEmpty()) {
+                coalescingRatio = (double) submitted / peers.size();
+            }
+        } catch (DataAccessException | TransactionException e) {
+            // 整个事务已回滚，没有任何条目被写入
+            if (isTransient(e)) {
+                log.error("写后队列刷写失败，{} 个 Peer 与 {} 个种子计数将在下次重试", peers.size(), tasks.size(), e);
+                peers.forEach(this::requeuePeer);
+                tasks.forEach(this::requeueTask);
+                return;
+            }
+            log.error("写后队列刷写失败，逐块重写以隔离无法写入的条目", e);
+            writeIsolated(tasks, this::writeTasks, this::requeueTask, "种子计数");
+            writeIsolated(peers, this::writePeers, this::requeuePeer, "Peer");
+        }
+    }
+
+    /**
+     * 按块、再按行在独立事务中写入；单独写入仍然失败的条目在暂时性错误时重新入队，否则丢弃
+     */
+    private <K, V> void writeIsolated(Map<K, V> entries, Consumer<Map<K, V>> writer, BiConsumer<K, V> requeue, String kind) {
+        List<Map.Entry<K, V>> list = new ArrayList<>(entries.entrySet());
+        for (int from = 0; from < list.size(); from += ROWS_PER_STATEMENT) {
+            Map<K, V> chunk = new HashMap<>();
+            for (var entry : list.subList(from, Math.min(list.size(), from + ROWS_PER_STATEMENT))) {
+                chunk.put(entry.getKey(), entry.getValue());
+            }
+            try {
+                transactionTemplate.executeWithoutResult(status -> writer.accept(chunk));
+                continue;
+            } catch (DataAccessException | TransactionException e) {
+                if (isTransient(e)) {
+                    chunk.forEach(requeue);
+                    continue;
+                }
+            }
+            chunk.forEach((key, value) -> {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> writer.accept(Map.of(key, value)));
+                } catch (DataAccessException | TransactionException e) {
+                    if (isTransient(e)) {
+                        requeue.accept(key, value);
+                    } else {
+                        droppedCounter.increment();
+                        log.error("丢弃无法写入的{}条目 {}", kind, key, e);
+                    }
+                }
+            });
+        }
+    }
+
+    private void requeuePeer(PeerKey key, PeerWrite write) {
+        if (write.attempts() >= maxRetries) {
+            droppedCounter.increment();
+            log.error("Peer 条目 {} 已重试 {} 次，放弃写入", key, write.attempts());
+            return;
+        }
+        var stripe = stripe(key.torrentInfoHash());
+        stripe.swapLock.readLock().lock();
+        try {
+            // 已有更新的变更则以新的为准
+            stripe.peers.putIfAbsent(key, new PeerWrite(write.peer(), write.removed(), write.attempts() + 1));
+        } finally {
+            stripe.swapLock.readLock().unlock();
+        }
+    }
+
+    private void requeueTask(InfoHash hash, TaskDelta delta) {
+        if (delta.attempts() >= maxRetries) {
+            droppedCounter.increment();
+            log.error("种子 {} 的计数增量已重试 {} 次，放弃写入", hash, delta.attempts());
+            return;
+        }
+        var stripe = stripe(hash);
+        stripe.swapLock.readLock().lock();
+        try {
+            stripe.tasks.merge(hash, new TaskDelta(delta.firstTimeSeen(), delta.lastTimeSeen(), delta.leechDelta(),
+                    delta.downloadedDelta(), delta.attempts() + 1), TaskDelta::merge);
+        } finally {
+            stripe.swapLock.readLock().unlock();
+        }
+    }
+
+    private static boolean isTransient(RuntimeException e) {
+        return e instanceof TransientDataAccessException
+               || e instanceof RecoverableDataAccessException
+               || e instanceof DataAccessResourceFailureException
+               || e instanceof CannotCreateTransactionException;
+    }
+
+    private void writeTasks(Map<InfoHash, TaskDelta> tasks) {
+        List<Object[]> rows = new ArrayList<>(tasks.size());
+        tasks.forEach((hash, delta) -> rows.add(new Object[]{
+                hash.bytes(), delta.firstTimeSeen(), delta.lastTimeSeen(), delta.leechDelta(), delta.downloadedDelta()
+        }));
+        upsert("INSERT INTO tracker_tasks " + TASK_COLUMNS + " VALUES ", TASK_VALUES, TASK_UPSERT, rows);
+    }
+
+    private void writePeers(Map<PeerKey, PeerWrite> peers) {
+        List<Object[]> upserts = new ArrayList<>();
+        List<Object[]> deletes = new ArrayList<>();
+        peers.forEach((key, write) -> {
+            if (write.removed()) {
+                deletes.add(new Object[]{key.peerIp(), key.peerId().bytes(), key.torrentInfoHash().bytes()});
+                return;
+            }
+            var peer = write.peer();
+            upserts.add(new Object[]{
+                    peer.getReqIp().getHostAddress(),
+                    peer.getPeerId(),
+                    key.peerIp(),
+                    peer.getPeerPort(),
+                    peer.getTorrentInfoHash(),
+                    peer.getUploaded(),
+                    peer.getUploadedOffset(),
+                    peer.getDownloaded(),
+                    peer.getDownloadedOffset(),
+                    peer.getLeft(),
+                    (short) peer.getLastEvent().ordinal(),
+                    peer.getUserAgent(),
+                    peer.getFirstTimeSeen(),
+                    peer.getLastTimeSeen()
+            });
+        });
+        upsert("INSERT INTO tracker_peers " + PEER_COLUMNS + " VALUES ", PEER_VALUES, PEER_UPSERT, upserts);
+        if (!deletes.isEmpty()) {
+            jdbcTemplate.batchUpdate(PEER_DELETE, deletes);
+        }
+    }
+
+    private void upsert(String insert, String values, String onConflict, List<Object[]> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        for (int from = 0; from < rows.size(); from += ROWS_PER_STATEMENT) {
+            var chunk = rows.subList(from, Math.min(rows.size(), from + ROWS_PER_STATEMENT));
+            StringJoiner joiner = new StringJoiner(", ", insert, onConflict);
+            List<Object> args = new ArrayList<>(chunk.size() * chunk.getFirst().length);
+            for (Object[] row : chunk) {
+                joiner.add(values);
+                Collections.addAll(args, row);
+            }
+            jdbcTemplate.update(joiner.toString(), args.toArray());
+        }
+    }
+
+    private static final class Stripe {
+        private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+        private Map<PeerKey, PeerWrite> peers = new ConcurrentHashMap<>();
+        private Map<InfoHash, TaskDelta> tasks = new ConcurrentHashMap<>();
+    }
+
+    private record PeerKey(String peerIp, PeerId peerId, InfoHash torrentInfoHash) {
+    }
+
+    /**
+     * @param attempts 已因暂时性错误重试的次数
+     */
+    private record PeerWrite(TrackedPeer peer, boolean removed, int attempts) {
+    }
+
+    /**
+     * @param attempts 合并进来的增量中最多的重试次数
+     */
+    private record TaskDelta(Timestamp firstTimeSeen, Timestamp lastTimeSeen, long leechDelta, long downloadedDelta,
+                             int attempts) {
+        TaskDelta merge(TaskDelta other) {
+            return new TaskDelta(
+                    firstTimeSeen.before(other.firstTimeSeen) ? firstTimeSeen : other.firstTimeSeen,
+                    lastTimeSeen.after(other.lastTimeSeen) ? lastTimeSeen : other.lastTimeSeen,
+                    leechDelta + other.leechDelta,
+                    downloadedDelta + other.downloadedDelta,
+                    Math.max(attempts, other.attempts)
+            );
+        }
+    }
+}
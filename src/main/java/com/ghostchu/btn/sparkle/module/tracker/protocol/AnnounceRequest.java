@@ -0,0 +1,41 @@
+package com.ghostchu.btn.sparkle.module.tracker.protocol;
+
+import com.ghostchu.btn.sparkle.module.tracker.internal.PeerEvent;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 解析后的 Announce 请求参数，Info Hash 与 Peer ID 直接解码到固定长度的数组中
+ * <p>
+ * 实例可以通过 {@link #reset()} 复用，复用后之前通过 getter 取得的数组内容会被覆盖。
+ */
+@Getter
+public class AnnounceRequest {
+    private final byte[] infoHash = new byte[20];
+    private final byte[] peerId = new byte[20];
+    private final List<String> ips = new ArrayList<>(2);
+    int infoHashCount;
+    boolean peerIdPresent;
+    int port = -1;
+    long uploaded = -1;
+    long downloaded = -1;
+    long left = -1;
+    PeerEvent event = PeerEvent.EMPTY;
+    boolean compact;
+    int numWant = 50;
+
+    public void reset() {
+        ips.clear();
+        infoHashCount = 0;
+        peerIdPresent = false;
+        port = -1;
+        uploaded = -1;
+        downloaded = -1;
+        left = -1;
+        event = PeerEvent.EMPTY;
+        compact = false;
+        numWant = 50;
+    }
+}
@@ -0,0 +1,161 @@
+package com.ghostchu.btn.sparkle.module.tracker.protocol;
+
+import com.ghostchu.btn.sparkle.module.tracker.internal.PeerEvent;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 单次遍历的 Announce 查询字符串解析器
+ * <p>
+ * 不经过 Servlet 的参数解析，也不产生中间 String：二进制参数直接百分号解码到 {@link AnnounceRequest} 的数组中，
+ * 数字参数直接从字符解析。只有 ip/ipv4/ipv6 这类少见参数才会分配字符串。
+ */
+public final class AnnounceRequestParser {
+    private AnnounceRequestParser() {
+    }
+
+    /**
+     * 解析查询字符串
+     *
+     * @param query 原始（未解码）查询字符串
+     * @param into  写入的目标，会先被重置
+     * @return into
+     * @throws IllegalArgumentException 参数缺失或格式不正确
+     */
+    public static AnnounceRequest parse(String query, AnnounceRequest into) throws IllegalArgumentException {
+        into.reset();
+        if (query == null) {
+            throw new IllegalArgumentException("Missing query string");
+        }
+        int length = query.length();
+        int start = 0;
+        while (start < length) {
+            int end = query.indexOf('&', start);
+            if (end < 0) {
+                end = length;
+            }
+            int eq = query.indexOf('=', start);
+            if (eq < 0 || eq > end) {
+                eq = end;
+            }
+            int valueStart = Math.min(eq + 1, end);
+            int keyLength = eq - start;
+            if (matches(query, start, keyLength, "info_hash")) {
+                if (decode(query, valueStart, end, into.getInfoHash()) != 20) {
+                    throw new IllegalArgumentException("info_hash must be 20 bytes");
+                }
+                into.infoHashCount++;
+            } else if (matches(query, start, keyLength, "peer_id")) {
+                if (decode(query, valueStart, end, into.getPeerId()) != 20) {
+                    throw new IllegalArgumentException("peer_id must be 20 bytes");
+                }
+                into.peerIdPresent = true;
+            } else if (matches(query, start, keyLength, "port")) {
+                // 先截断再转换，避免超大的值回绕到合法范围内
+                into.port = (int) Math.min(parseNumber(query, valueStart, end, "port"), Integer.MAX_VALUE);
+            } else if (matches(query, start, keyLength, "uploaded")) {
+                into.uploaded = parseNumber(query, valueStart, end, "uploaded");
+            } else if (matches(query, start, keyLength, "downloaded")) {
+                into.downloaded = parseNumber(query, valueStart, end, "downloaded");
+            } else if (matches(query, start, keyLength, "left")) {
+                into.left = parseNumber(query, valueStart, end, "left");
+            } else if (matches(query, start, keyLength, "numwant") || matches(query, start, keyLength, "num_want")) {
+                into.numWant = (int) Math.min(parseNumber(query, valueStart, end, "num_want"), Integer.MAX_VALUE);
+            } else if (matches(query, start, keyLength, "compact")) {
+                into.compact = end - valueStart == 1 && query.charAt(valueStart) == '1';
+            } else if (matches(query, start, keyLength, "event")) {
+                into.event = parseEvent(query, valueStart, end);
+            } else if (matches(query, start, keyLength, "ip")
+                       || matches(query, start, keyLength, "ipv4")
+                       || matches(query, start, keyLength, "ipv6")) {
+                if (valueStart < end) {
+                    into.getIps().add(decodeToString(query, valueStart, end));
+                }
+            }
+            start = end + 1;
+        }
+        if (into.infoHashCount != 1) {
+            throw new IllegalArgumentException("Exactly one info_hash is required");
+        }
+        if (!into.peerIdPresent) {
+            throw new IllegalArgumentException("peer_id is required");
+        }
+        if (into.port < 0 || into.port > 65535 || into.uploaded < 0 || into.downloaded < 0 || into.left < 0) {
+            throw new IllegalArgumentException("port, uploaded, downloaded and left are required");
+        }
+        return into;
+    }
+
+    private static boolean matches(String query, int start, int keyLength, String key) {
+        return keyLength == key.length() && query.regionMatches(start, key, 0, keyLength);
+    }
+
+    private static PeerEvent parseEvent(String query, int start, int end) {
+        int length = end - start;
+        if (matches(query, start, length, "started")) {
+            return PeerEvent.STARTED;
+        }
+        if (matches(query, start, length, "completed")) {
+            return PeerEvent.COMPLETED;
+        }
+        if (matches(query, start, length, "stopped")) {
+            return PeerEvent.STOPPED;
+        }
+        return PeerEvent.EMPTY;
+    }
+
+    private static long parseNumber(String query, int start, int end, String name) {
+        if (start >= end || end - start > 18) {
+            throw new IllegalArgumentException("Invalid number for " + name);
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = query.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("Invalid number for " + name);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * 将 [start, end) 百分号解码到 target
+     *
+     * @return 解码后的字节数，超出 target 长度时返回 -1
+     */
+    static int decode(String query, int start, int end, byte[] target) {
+        int written = 0;
+        int i = start;
+        while (i < end) {
+            if (written == target.length) {
+                return -1;
+            }
+            char c = query.charAt(i);
+            if (c == '%') {
+                if (i + 2 >= end) {
+                    throw new IllegalArgumentException("Incomplete percent-encoding");
+                }
+                target[written++] = (byte) ((hex(query.charAt(i + 1)) << 4) | hex(query.charAt(i + 2)));
+                i += 3;
+            } else {
+                target[written++] = (byte) (c == '+' ? ' ' : c);
+                i++;
+            }
+        }
+        return written;
+    }
+
+    private static String decodeToString(String query, int start, int end) {
+        byte[] buffer = new byte[end - start];
+        int length = decode(query, start, end, buffer);
+        return new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private static int hex(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        throw new IllegalArgumentException("Invalid percent-encoding");
+    }
+}
@@ -0,0 +1,33 @@
+package com.ghostchu.btn.sparkle.module.tracker.protocol;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * 可复用的 {@link AnnounceRequest} 池，池空时分配新实例，归还时池已满则丢弃
+ * <p>
+ * 请求在虚拟线程上处理，每个请求都是新线程，ThreadLocal 无法复用，因此使用共享的池。
+ */
+public class AnnounceRequestPool {
+    private final ArrayBlockingQueue<AnnounceRequest> pool;
+
+    public AnnounceRequestPool(int poolSize) {
+        this.pool = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+    }
+
+    /**
+     * @return 空闲的实例，由 {@link AnnounceRequestParser#parse} 重置
+     */
+    public AnnounceRequest acquire() {
+        AnnounceRequest request = pool.poll();
+        return request != null ? request : new AnnounceRequest();
+    }
+
+    /**
+     * 归还后不能再使用该实例及通过它的 getter 取得的数组
+     */
+    public void release(AnnounceRequest request) {
+        if (request != null) {
+            pool.offer(request);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.ghostchu.btn.sparkle.module.tracker.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 流式 Bencode 写入器，直接向内部缓冲区写入，不构造中间的 Map/List 对象
+ * <p>
+ * 调用者负责按字典序写入字典的键。
+ */
+public final class BencodeWriter {
+    private byte[] buffer;
+    private int size;
+
+    public BencodeWriter(int initialCapacity) {
+        this.buffer = new byte[initialCapacity];
+    }
+
+    public BencodeWriter startDict() {
+        return put((byte) 'd');
+    }
+
+    public BencodeWriter startList() {
+        return put((byte) 'l');
+    }
+
+    public BencodeWriter end() {
+        return put((byte) 'e');
+    }
+
+    /**
+     * 写入字典键，键只能是 ASCII 字符串
+     */
+    public BencodeWriter key(String key) {
+        int length = key.length();
+        writeDecimal(length);
+        put((byte) ':');
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buffer[size++] = (byte) key.charAt(i);
+        }
+        return this;
+    }
+
+    public BencodeWriter integer(long value) {
+        put((byte) 'i');
+        writeDecimal(value);
+        return put((byte) 'e');
+    }
+
+    public BencodeWriter string(byte[] value) {
+        writeDecimal(value.length);
+        put((byte) ':');
+        ensureCapacity(value.length);
+        System.arraycopy(value, 0, buffer, size, value.length);
+        size += value.length;
+        return this;
+    }
+
+    public BencodeWriter string(String value) {
+        return string(value.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    private BencodeWriter put(byte b) {
+        ensureCapacity(1);
+        buffer[size++] = b;
+        return this;
+    }
+
+    private void writeDecimal(long value) {
+        ensureCapacity(20);
+        if (value == 0) {
+            buffer[size++] = '0';
+            return;
+        }
+        if (value < 0) {
+            buffer[size++] = '-';
+            if (value == Long.MIN_VALUE) {
+                // 无法取反，走一次慢路径
+                byte[] digits = Long.toString(value).substring(1).getBytes(StandardCharsets.US_ASCII);
+                System.arraycopy(digits, 0, buffer, size, digits.length);
+                size += digits.length;
+                return;
+            }
+            value = -value;
+        }
+        int digits = 0;
+        for (long v = value; v > 0; v /= 10) {
+            digits++;
+        }
+        for (int i = size + digits - 1; i >= size; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.ghostchu.btn.sparkle.module.tracker.swarm;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 预先拼接好的紧凑格式 Peer 列表（BEP 23 / BEP 7），构建后不可变，可以在锁外并发读取
+ * <p>
+ * 构建时已经打乱顺序，所以从随机偏移开始截取一段连续的条目就是一次随机抽样。
+ */
+final class CompactPeerBlob {
+    static final CompactPeerBlob EMPTY_V4 = new CompactPeerBlob(new byte[0], new byte[0][], 6);
+    static final CompactPeerBlob EMPTY_V6 = new CompactPeerBlob(new byte[0], new byte[0][], 18);
+
+    private final byte[] data;
+    private final byte[][] peerIds;
+    private final int entrySize;
+
+    private CompactPeerBlob(byte[] data, byte[][] peerIds, int entrySize) {
+        this.data = data;
+        this.peerIds = peerIds;
+        this.entrySize = entrySize;
+    }
+
+    /**
+     * 每个 Peer 的每个该长度的地址各占一条，条目数可能多于 Peer 数
+     *
+     * @param peers         已打乱顺序的 Peer，至少有一个长度为 addressLength 的地址
+     * @param addressLength 4 或 16
+     */
+    static CompactPeerBlob build(List<SwarmPeer> peers, int addressLength) {
+        int entrySize = addressLength + 2;
+        int entries = 0;
+        for (SwarmPeer peer : peers) {
+            for (byte[] address : peer.getAddresses()) {
+                if (address.length == addressLength) {
+                    entries++;
+                }
+            }
+        }
+        byte[] data = new byte[entries * entrySize];
+        byte[][] peerIds = new byte[entries][];
+        int index = 0;
+        for (SwarmPeer peer : peers) {
+            for (byte[] address : peer.getAddresses()) {
+                if (address.length != addressLength) {
+                    continue;
+                }
+                int pos = index * entrySize;
+                System.arraycopy(address, 0, data, pos, addressLength);
+                data[pos + addressLength] = (byte) (peer.getPort() >>> 8);
+                data[pos + addressLength + 1] = (byte) peer.getPort();
+                peerIds[index++] = peer.getPeerId();
+            }
+        }
+        return new CompactPeerBlob(data, peerIds, entrySize);
+    }
+
+    int count() {
+        return peerIds.length;
+    }
+
+    int entrySize() {
+        return entrySize;
+    }
+
+    /**
+     * 从随机偏移开始（到末尾后回绕）复制最多 limit 个条目到 out
+     *
+     * @param limit         数量上限
+     * @param excludePeerId 需要跳过的 Peer ID，可以为 null
+     * @param out           目标数组
+     * @param outPos        写入起始位置
+     * @return 写入的条目数
+     */
+    int slice(int limit, byte[] excludePeerId, byte[] out, int outPos) {
+        int count = peerIds.length;
+        if (count == 0 || limit <= 0) {
+            return 0;
+        }
+        int index = ThreadLocalRandom.current().nextInt(count);
+        int written = 0;
+        for (int visited = 0; visited < count && written < limit; visited++) {
+            if (excludePeerId == null || !Arrays.equals(peerIds[index], excludePeerId)) {
+                System.arraycopy(data, index * entrySize, out, outPos + written * entrySize, entrySize);
+                written++;
+            }
+            if (++index == count) {
+                index = 0;
+            }
+        }
+        return written;
+    }
+}
@@ -0,0 +1,82 @@
+package com.ghostchu.btn.sparkle.module.tracker.swarm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按最后 Announce 时间分桶的过期时间轮
+ * <p>
+ * 每次 Announce 都会把 Peer 放入其最后出现时间所在的桶，旧的条目不主动删除：
+ * 转到该桶时再检查 Peer 的最后出现时间是否仍与条目一致，不一致说明之后又 Announce 过，直接丢弃。
+ * 桶的数量覆盖整个不活跃时长，正常转动时环不会在条目到期前绕回同一个桶；
+ * 清理被延误、游标落后超过一圈时，登记的条目可能落进游标即将转到的桶，这些还没到期的条目会留给下一圈。
+ */
+final class ExpiryWheel {
+    private final long tickMillis;
+    private final Queue<Entry>[] slots;
+    private final LongAdder pending = new LongAdder();
+    private volatile long cursor;
+
+    @SuppressWarnings("unchecked")
+    ExpiryWheel(long tickMillis, long inactiveInterval, long now) {
+        this.tickMillis = tickMillis;
+        this.slots = new Queue[(int) (inactiveInterval / tickMillis) + 2];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.cursor = (now - inactiveInterval) / tickMillis;
+    }
+
+    /**
+     * 登记一次 Announce，调用方必须持有 swarm 的锁，保证 lastTimeSeen 与 Peer 当前状态一致
+     */
+    void schedule(Swarm swarm, SwarmPeer peer, long lastTimeSeen) {
+        // 还原时可能登记早于游标的条目，放进下一个要处理的桶里
+        long tick = Math.max(lastTimeSeen / tickMillis, cursor);
+        slots[(int) (tick % slots.length)].add(new Entry(swarm, peer, lastTimeSeen));
+        pending.increment();
+    }
+
+    /**
+     * 依次转过所有最后出现时间不晚于 before 的桶
+     *
+     * @param before  时间戳
+     * @param handler 对每个候选条目调用，由 Swarm 判断是否真正过期
+     */
+    synchronized void advance(long before, EntryHandler handler) {
+        long target = before / tickMillis;
+        // 停机或时钟跳变后，最多转一整圈
+        cursor = Math.max(cursor, target - slots.length + 1);
+        List<Entry> notDue = new ArrayList<>(0);
+        while (cursor <= target) {
+            var slot = slots[(int) (cursor % slots.length)];
+            Entry entry;
+            while ((entry = slot.poll()) != null) {
+                if (entry.lastTimeSeen() / tickMillis > cursor) {
+                    notDue.add(entry);
+                    continue;
+                }
+                pending.decrement();
+                handler.handle(entry.swarm(), entry.peer(), entry.lastTimeSeen());
+            }
+            slot.addAll(notDue);
+            notDue.clear();
+            cursor++;
+        }
+    }
+
+    long pending() {
+        return pending.sum();
+    }
+
+    private record Entry(Swarm swarm, SwarmPeer peer, long lastTimeSeen) {
+    }
+
+    @FunctionalInterface
+    interface EntryHandler {
+        void handle(Swarm swarm, SwarmPeer peer, long lastTimeSeen);
+    }
+}
@@ -0,0 +1,64 @@
+package com.ghostchu.btn.sparkle.module.tracker.swarm;
+
+import com.ghostchu.btn.sparkle.util.ByteUtil;
+
+import java.util.Arrays;
+
+/**
+ * 20 字节 Info Hash 的包装，按内容比较，可直接作为 Map 的键
+ */
+public final class InfoHash {
+    public static final int LENGTH = 20;
+    private final byte[] bytes;
+    private final int hash;
+
+    private InfoHash(byte[] bytes) {
+        this.bytes = bytes;
+        this.hash = Arrays.hashCode(bytes);
+    }
+
+    /**
+     * 包装一个 Info Hash，会复制传入的数组
+     *
+     * @param bytes 20 字节的 Info Hash
+     * @return InfoHash
+     */
+    public static InfoHash of(byte[] bytes) {
+        if (bytes.length != LENGTH) {
+            throw new IllegalArgumentException("Info Hash 长度必须为 " + LENGTH + " 字节，实际为 " + bytes.length);
+        }
+        return new InfoHash(bytes.clone());
+    }
+
+    /**
+     * @return 内部数组，调用者不得修改
+     */
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    /**
+     * @param shardCount 分片数，必须是 2 的幂
+     * @return 该 Info Hash 所在的分片下标
+     */
+    public int shard(int shardCount) {
+        return (hash ^ (hash >>> 16)) & (shardCount - 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof InfoHash other)) return false;
+        return hash == other.hash && Arrays.equals(bytes, other.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return ByteUtil.bytesToHex(bytes);
+    }
+}
@@ -0,0 +1,56 @@
+package com.ghostchu.btn.sparkle.module.tracker.swarm;
+
+import com.ghostchu.btn.sparkle.util.ByteUtil;
+
+import java.util.Arrays;
+
+/**
+ * 20 字节 Peer ID 的包装，按内容比较，可直接作为 Map 的键
+ */
+public final class PeerId {
+    public static final int LENGTH = 20;
+    private final byte[] bytes;
+    private final int hash;
+
+    private PeerId(byte[] bytes) {
+        this.bytes = bytes;
+        this.hash = Arrays.hashCode(bytes);
+    }
+
+    /**
+     * 包装一个 Peer ID，会复制传入的数组
+     *
+     * @param bytes 20 字节的 Peer ID
+     * @return PeerId
+     */
+    public static PeerId of(byte[] bytes) {
+        if (bytes.length != LENGTH) {
+            throw new IllegalArgumentException("Peer ID 长度必须为 " + LENGTH + " 字节，实际为 " + bytes.length);
+        }
+        return new PeerId(bytes.clone());
+    }
+
+    /**
+     * @return 内部数组，调用者不得修改
+     */
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PeerId other)) return false;
+        return hash == other.hash && Arrays.equals(bytes, other.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return ByteUtil.bytesToHex(bytes);
+    }
+}
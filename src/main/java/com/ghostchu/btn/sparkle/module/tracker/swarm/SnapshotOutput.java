@@ -0,0 +1,151 @@
+package com.ghostchu.btn.sparkle.module.tracker.swarm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+
+/**
+ * 向内存映射文件顺序写入的输出，映射区域写满时刷盘并解除映射，在文件末尾继续映射新的区域
+ * <p>
+ * 文件总长度不超过 {@link #MAX_SIZE}（读取时整个文件映射为一个缓冲区），超出时写入抛出 IOException。
+ */
+final class SnapshotOutput implements Closeable {
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+    private static final int REGION_SIZE = 64 * 1024 * 1024;
+    /**
+     * sun.misc.Unsafe#invokeCleaner，用于立即解除映射；不可用时为 null，映射在缓冲区被回收时才解除
+     */
+    private static final MethodHandle INVOKE_CLEANER = lookupInvokeCleaner();
+
+    private final FileChannel channel;
+    private final CRC32C checksum = new CRC32C();
+    private MappedByteBuffer region;
+    private long regionStart;
+
+    SnapshotOutput(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.region = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_SIZE);
+    }
+
+    void putByte(int value) throws IOException {
+        ensure(1);
+        region.put((byte) value);
+    }
+
+    void putShort(int value) throws IOException {
+        ensure(2);
+        region.putShort((short) value);
+    }
+
+    void putInt(int value) throws IOException {
+        ensure(4);
+        region.putInt(value);
+    }
+
+    void putLong(long value) throws IOException {
+        ensure(8);
+        region.putLong(value);
+    }
+
+    void putBytes(byte[] value) throws IOException {
+        ensure(value.length);
+        region.put(value);
+    }
+
+    /**
+     * 写入 1 字节长度前缀与内容
+     */
+    void putShortBytes(byte[] value) throws IOException {
+        putByte(value.length);
+        putBytes(value);
+    }
+
+    long position() {
+        return regionStart + region.position();
+    }
+
+    /**
+     * 在校验和之后写入 CRC32C 并刷盘，解除映射后再截断文件到实际长度
+     *
+     * @return 文件长度
+     */
+    long finish() throws IOException {
+        ensure(4);
+        checksum.update(region.duplicate().flip());
+        region.putInt((int) checksum.getValue());
+        long length = position();
+        release();
+        channel.truncate(length);
+        channel.force(true);
+        return length;
+    }
+
+    /**
+     * 解除仍然存在的映射，写入失败时由调用方关闭
+     */
+    @Override
+    public void close() {
+        if (region != null) {
+            unmap(region);
+            region = null;
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (region.remaining() >= bytes) {
+            return;
+        }
+        long start = regionStart + region.position();
+        if (start + bytes > MAX_SIZE) {
+            throw new IOException("snapshot exceeds " + MAX_SIZE + " bytes");
+        }
+        checksum.update(region.duplicate().flip());
+        release();
+        regionStart = start;
+        region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart,
+                Math.min(Math.max(REGION_SIZE, bytes), MAX_SIZE - regionStart));
+    }
+
+    /**
+     * 刷盘并解除当前区域的映射，之后不能再访问 region 及其派生的缓冲区
+     */
+    private void release() {
+        region.force();
+        unmap(region);
+        region = null;
+    }
+
+    /**
+     * 立即解除映射；调用后访问该缓冲区或其派生缓冲区会使 JVM 崩溃，调用方必须确保没有其他引用
+     */
+    static void unmap(MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invokeExact((ByteBuffer) buffer);
+        } catch (Throwable e) {
+            // 解除失败时交给 GC
+        }
+    }
+
+    private static MethodHandle lookupInvokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
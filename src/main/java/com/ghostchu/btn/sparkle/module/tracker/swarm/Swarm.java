@@ -0,0 +1,422 @@
+package com.ghostchu.btn.sparkle.module.tracker.swarm;
+
+import com.ghostchu.btn.sparkle.module.tracker.TrackerService;
+import com.ghostchu.btn.sparkle.module.tracker.internal.PeerEvent;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个种子的 Peer 群，所有状态都在实例锁内访问
+ * <p>
+ * 除了按 Peer ID 索引的 Map 外，Peer 还按做种/下载状态分别存放在两个数组中（{@link SwarmPeer#slot} 记录下标，
+ * 移除时与末尾元素交换），计数为 O(1)。
+ * <p>
+ * 返回给客户端的 Peer 列表来自预先构建的紧凑格式二进制块（{@link CompactPeerBlob}），每次请求只是从块中截取一段。
+ * 只有新增/移除 Peer、端口变化、做种状态变化才会将块标记为脏，普通的定期 Announce 不会；
+ * 脏块在下一次读取时重建，大 Swarm 的重建频率受 maxStaleness 限制。
+ */
+public class Swarm {
+    /**
+     * 不超过该规模的 Swarm 重建代价很小，脏了就立即重建，不受 maxStaleness 限制
+     */
+    private static final int FRESH_REBUILD_THRESHOLD = 256;
+    @Getter
+    private final InfoHash infoHash;
+    private final Map<PeerId, SwarmPeer> peers = new HashMap<>();
+    private final ArrayList<SwarmPeer> seeders = new ArrayList<>();
+    private final ArrayList<SwarmPeer> leechers = new ArrayList<>();
+    private PeerBlobs blobs = PeerBlobs.EMPTY;
+    private boolean blobsDirty;
+    private long blobsBuiltAt;
+    @Getter
+    private long leechCount;
+    @Getter
+    private long downloadedCount;
+    @Getter
+    private long firstTimeSeen;
+    @Getter
+    private long lastTimeSeen;
+
+    private final ExpiryWheel expiryWheel;
+    private final LongAdder totalPeers;
+    /**
+     * 已从注册表中移除，之后的 Announce 必须重新获取 Swarm
+     */
+    private boolean evicted;
+
+    Swarm(InfoHash infoHash, long now, ExpiryWheel expiryWheel, LongAdder totalPeers) {
+        this.infoHash = infoHash;
+        this.expiryWheel = expiryWheel;
+        this.totalPeers = totalPeers;
+        this.firstTimeSeen = now;
+        this.lastTimeSeen = now;
+    }
+
+    /**
+     * 应用一次 Announce，请求中报告的所有地址作为一次变更应用到同一个 Peer 上，计数只累加一次
+     *
+     * @param announce Announce 请求
+     * @param now      当前时间
+     * @return 应用后的 Peer 状态拷贝（已停止则为 null）与不再属于该 Peer 的地址；
+     * 该 Swarm 已被移除时返回 null，调用者应重新从注册表获取
+     */
+    public synchronized AnnounceResult announce(TrackerService.PeerAnnounce announce, long now) {
+        if (evicted) {
+            return null;
+        }
+        lastTimeSeen = now;
+        // 检查 task 属性
+        if (announce.peerEvent() == PeerEvent.STARTED) {
+            // 新 task
+            leechCount++;
+        }
+        if (announce.peerEvent() == PeerEvent.COMPLETED) {
+            downloadedCount++;
+        }
+        byte[][] addresses = new byte[announce.peerIps().size()][];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = announce.peerIps().get(i).getAddress();
+        }
+        var key = PeerId.of(announce.peerId());
+        if (announce.peerEvent() == PeerEvent.STOPPED) {
+            var removed = peers.remove(key);
+            if (removed == null) {
+                return new AnnounceResult(null, Arrays.asList(addresses));
+            }
+            detach(removed);
+            totalPeers.decrement();
+            blobsDirty = true;
+            return new AnnounceResult(null, Arrays.asList(removed.getAddresses()));
+        }
+        var peer = peers.get(key);
+        if (peer == null) {
+            List<byte[]> evicted = new ArrayList<>(0);
+            peer = new SwarmPeer(
+                    key.bytes(),
+                    new byte[0][],
+                    announce.peerPort(),
+                    announce.reqIp().getAddress(),
+                    announce.uploaded(),
+                    announce.uploaded(),
+                    announce.downloaded(),
+                    announce.downloaded(),
+                    announce.left(),
+                    announce.peerEvent(),
+                    announce.userAgent(),
+                    now,
+                    now
+            );
+            peer.mergeAddresses(addresses, evicted);
+            peers.put(key, peer);
+            attach(peer);
+            totalPeers.increment();
+            expiryWheel.schedule(this, peer, now);
+            blobsDirty = true;
+            return new AnnounceResult(peer.copy(), evicted);
+        }
+        if (peer.getDownloadedOffset() > announce.downloaded()
+            || peer.getUploadedOffset() > announce.uploaded()) {
+            // 客户端重启后计数器归零了
+            peer.setDownloaded(peer.getDownloaded() + announce.downloaded());
+            peer.setUploaded(peer.getUploaded() + announce.uploaded());
+        } else {
+            peer.setDownloaded(peer.getDownloaded() + announce.downloaded() - peer.getDownloadedOffset());
+            peer.setUploaded(peer.getUploaded() + announce.uploaded() - peer.getUploadedOffset());
+        }
+        peer.setDownloadedOffset(announce.downloaded());
+        peer.setUploadedOffset(announce.uploaded());
+        peer.setUserAgent(announce.userAgent());
+        peer.setLastTimeSeen(now);
+        expiryWheel.schedule(this, peer, now);
+        if ((peer.getLeft() == 0) != (announce.left() == 0)) {
+            // 做种状态变化，换到另一个数组
+            detach(peer);
+            peer.setLeft(announce.left());
+            attach(peer);
+            blobsDirty = true;
+        } else {
+            peer.setLeft(announce.left());
+        }
+        if (peer.getPort() != announce.peerPort()) {
+            peer.setPort(announce.peerPort());
+            blobsDirty = true;
+        }
+        List<byte[]> evicted = new ArrayList<>(0);
+        if (peer.mergeAddresses(addresses, evicted)) {
+            blobsDirty = true;
+        }
+        peer.setReqAddress(announce.reqIp().getAddress());
+        peer.setLastEvent(announce.peerEvent());
+        return new AnnounceResult(peer.copy(), evicted);
+    }
+
+    /**
+     * 为请求者随机选取 Peer，每个地址族最多 limit 个，请求者自身（按 Peer ID 判断，包括其所有地址）不会被选中
+     * <p>
+     * 下载者优先获得做种者，不足时再用其他下载者补足；做种者只会获得下载者，返回其他做种者对它没有意义。
+     * 计数总是最新的，Peer 列表在大 Swarm 中最多落后 maxStaleness 毫秒。
+     *
+     * @param limit           每个地址族的数量上限
+     * @param requesterPeerId 请求者的 Peer ID，为 null 时不排除任何 Peer
+     * @param requesterSeeder 请求者是否为做种者
+     * @param now             当前时间
+     * @param maxStaleness    大 Swarm 中 Peer 列表允许的最大陈旧时间
+     * @return 紧凑格式的 Peer 列表与计数
+     */
+    public TrackerService.TrackedPeerList selectPeers(int limit, byte[] requesterPeerId, boolean requesterSeeder,
+                                                      long now, long maxStaleness) {
+        PeerBlobs snapshot;
+        long seederCount;
+        long leecherCount;
+        long downloaded;
+        synchronized (this) {
+            if (blobsDirty && (peers.size() <= FRESH_REBUILD_THRESHOLD || now - blobsBuiltAt >= maxStaleness)) {
+                rebuildBlobs(now);
+            }
+            snapshot = blobs;
+            seederCount = seeders.size();
+            leecherCount = leechers.size();
+            downloaded = downloadedCount;
+        }
+        return new TrackerService.TrackedPeerList(
+                select(snapshot.seedersV4(), snapshot.leechersV4(), limit, requesterPeerId, requesterSeeder),
+                select(snapshot.seedersV6(), snapshot.leechersV6(), limit, requesterPeerId, requesterSeeder),
+                seederCount,
+                leecherCount,
+                downloaded);
+    }
+
+    private static byte[] select(CompactPeerBlob seeders, CompactPeerBlob leechers, int limit,
+                                 byte[] excludePeerId, boolean requesterSeeder) {
+        int entrySize = leechers.entrySize();
+        int available = requesterSeeder ? leechers.count() : seeders.count() + leechers.count();
+        byte[] out = new byte[Math.min(limit, available) * entrySize];
+        int written = 0;
+        if (!requesterSeeder) {
+            written = seeders.slice(limit, excludePeerId, out, 0);
+        }
+        written += leechers.slice(limit - written, excludePeerId, out, written * entrySize);
+        return written * entrySize == out.length ? out : Arrays.copyOf(out, written * entrySize);
+    }
+
+    private void rebuildBlobs(long now) {
+        List<SwarmPeer> seedersV4 = new ArrayList<>();
+        List<SwarmPeer> seedersV6 = new ArrayList<>();
+        List<SwarmPeer> leechersV4 = new ArrayList<>();
+        List<SwarmPeer> leechersV6 = new ArrayList<>();
+        partition(seeders, seedersV4, seedersV6);
+        partition(leechers, leechersV4, leechersV6);
+        var random = ThreadLocalRandom.current();
+        Collections.shuffle(seedersV4, random);
+        Collections.shuffle(seedersV6, random);
+        Collections.shuffle(leechersV4, random);
+        Collections.shuffle(leechersV6, random);
+        blobs = new PeerBlobs(
+                CompactPeerBlob.build(seedersV4, 4),
+                CompactPeerBlob.build(leechersV4, 4),
+                CompactPeerBlob.build(seedersV6, 16),
+                CompactPeerBlob.build(leechersV6, 16));
+        blobsDirty = false;
+        blobsBuiltAt = now;
+    }
+
+    /**
+     * 按地址族拆分，同时有两种地址的 Peer 会同时出现在两个列表中
+     */
+    private static void partition(List<SwarmPeer> peers, List<SwarmPeer> v4, List<SwarmPeer> v6) {
+        for (SwarmPeer peer : peers) {
+            if (peer.hasAddressOfLength(4)) {
+                v4.add(peer);
+            }
+            if (peer.hasAddressOfLength(16)) {
+                v6.add(peer);
+            }
+        }
+    }
+
+    private void attach(SwarmPeer peer) {
+        var list = peer.isSeeder() ? seeders : leechers;
+        peer.slot = list.size();
+        list.add(peer);
+    }
+
+    private void detach(SwarmPeer peer) {
+        var list = peer.isSeeder() ? seeders : leechers;
+        var last = list.removeLast();
+        if (last != peer) {
+            list.set(peer.slot, last);
+            last.slot = peer.slot;
+        }
+        peer.slot = -1;
+    }
+
+    public synchronized long seeders() {
+        return seeders.size();
+    }
+
+    public synchronized long leechers() {
+        return leechers.size();
+    }
+
+    /**
+     * 做种/下载计数随 Announce 与过期增量维护，完成数来自 completed 事件，这里只是读取
+     *
+     * @return 同一时刻的三个计数
+     */
+    public synchronized TrackerService.ScrapeResponse scrape() {
+        return new TrackerService.ScrapeResponse(seeders.size(), leechers.size(), downloadedCount);
+    }
+
+    public synchronized int size() {
+        return peers.size();
+    }
+
+    /**
+     * 没有 Peer 时标记为已移除，此后的 Announce 不会再写入这个实例
+     *
+     * @return 由本次调用标记时返回标记时的计数器，否则返回 null
+     */
+    synchronized Counters markEvictedIfEmpty() {
+        if (evicted || !peers.isEmpty()) {
+            return null;
+        }
+        evicted = true;
+        return new Counters(leechCount, downloadedCount, firstTimeSeen, lastTimeSeen);
+    }
+
+    /**
+     * 由过期时间轮调用，仅当 Peer 仍在 Swarm 中且之后没有再 Announce 过时才移除
+     *
+     * @param peer         时间轮登记的 Peer
+     * @param lastTimeSeen 登记时的最后出现时间
+     * @return 被移除的 Peer 的拷贝，未移除则返回 null
+     */
+    synchronized SwarmPeer expire(SwarmPeer peer, long lastTimeSeen) {
+        if (peer.slot < 0 || peer.getLastTimeSeen() != lastTimeSeen) {
+            return null;
+        }
+        peers.remove(PeerId.of(peer.getPeerId()));
+        detach(peer);
+        totalPeers.decrement();
+        blobsDirty = true;
+        return peer.copy();
+    }
+
+    /**
+     * @return 当前所有 Peer 的拷贝，用于持久化
+     */
+    public synchronized List<SwarmPeer> peers() {
+        List<SwarmPeer> copies = new ArrayList<>(peers.size());
+        for (SwarmPeer peer : peers.values()) {
+            copies.add(peer.copy());
+        }
+        return copies;
+    }
+
+    /**
+     * 从持久化存储还原 Peer，数据库中同一 Peer 的每个地址是一行，还原时合并回同一条记录
+     *
+     * @param peer Peer
+     */
+    public synchronized void restorePeer(SwarmPeer peer) {
+        var key = PeerId.of(peer.getPeerId());
+        var previous = peers.get(key);
+        if (previous != null) {
+            var newer = previous.getLastTimeSeen() >= peer.getLastTimeSeen() ? previous : peer;
+            var older = newer == previous ? peer : previous;
+            newer.mergeAddresses(older.getAddresses(), new ArrayList<>(0));
+            blobsDirty = true;
+            if (newer == previous) {
+                return;
+            }
+            detach(previous);
+        } else {
+            totalPeers.increment();
+        }
+        peers.put(key, peer);
+        attach(peer);
+        expiryWheel.schedule(this, peer, peer.getLastTimeSeen());
+        blobsDirty = true;
+    }
+
+    /**
+     * 在锁内把计数器与所有 Peer 写入快照，格式见 {@link SwarmSnapshotStore}
+     */
+    synchronized void writeSnapshot(SnapshotOutput out) throws IOException {
+        writeCounters(out, infoHash, new Counters(leechCount, downloadedCount, firstTimeSeen, lastTimeSeen));
+        out.putInt(peers.size());
+        for (SwarmPeer peer : peers.values()) {
+            out.putBytes(peer.getPeerId());
+            out.putByte(peer.getAddresses().length);
+            for (byte[] address : peer.getAddresses()) {
+                out.putShortBytes(address);
+            }
+            out.putShort(peer.getPort());
+            out.putShortBytes(peer.getReqAddress());
+            out.putLong(peer.getUploaded());
+            out.putLong(peer.getUploadedOffset());
+            out.putLong(peer.getDownloaded());
+            out.putLong(peer.getDownloadedOffset());
+            out.putLong(peer.getLeft());
+            out.putByte(peer.getLastEvent().ordinal());
+            out.putLong(peer.getFirstTimeSeen());
+            out.putLong(peer.getLastTimeSeen());
+            byte[] userAgent = peer.getUserAgent() == null ? new byte[0] : peer.getUserAgent().getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(userAgent.length, 0xFFFF);
+            out.putShort(length);
+            out.putBytes(length == userAgent.length ? userAgent : Arrays.copyOf(userAgent, length));
+        }
+    }
+
+    /**
+     * 把已移除种子的计数器写入快照，格式与没有 Peer 的 Swarm 相同
+     */
+    static void writeSnapshot(SnapshotOutput out, InfoHash infoHash, Counters counters) throws IOException {
+        writeCounters(out, infoHash, counters);
+        out.putInt(0);
+    }
+
+    private static void writeCounters(SnapshotOutput out, InfoHash infoHash, Counters counters) throws IOException {
+        out.putBytes(infoHash.bytes());
+        out.putLong(counters.leechCount());
+        out.putLong(counters.downloadedCount());
+        out.putLong(counters.firstTimeSeen());
+        out.putLong(counters.lastTimeSeen());
+    }
+
+    /**
+     * 从持久化存储还原计数器
+     */
+    public synchronized void restoreCounters(long leechCount, long downloadedCount, long firstTimeSeen, long lastTimeSeen) {
+        this.leechCount = leechCount;
+        this.downloadedCount = downloadedCount;
+        this.firstTimeSeen = Math.min(this.firstTimeSeen, firstTimeSeen);
+        this.lastTimeSeen = Math.max(this.lastTimeSeen, lastTimeSeen);
+    }
+
+    /**
+     * 种子的累计计数，Swarm 被移除后由 {@link SwarmRegistry} 保留，重新创建时还原
+     */
+    public record Counters(long leechCount, long downloadedCount, long firstTimeSeen, long lastTimeSeen) {
+    }
+
+    private record PeerBlobs(CompactPeerBlob seedersV4,
+                             CompactPeerBlob leechersV4,
+                             CompactPeerBlob seedersV6,
+                             CompactPeerBlob leechersV6) {
+        static final PeerBlobs EMPTY = new PeerBlobs(CompactPeerBlob.EMPTY_V4, CompactPeerBlob.EMPTY_V4,
+                CompactPeerBlob.EMPTY_V6, CompactPeerBlob.EMPTY_V6);
+    }
+
+    /**
+     * @param peer             应用后的 Peer 状态拷贝，已停止则为 null
+     * @param removedAddresses 不再属于该 Peer 的地址：停止时为其全部地址，否则为超出上限被丢弃的地址
+     */
+    public record AnnounceResult(SwarmPeer peer, List<byte[]> removedAddresses) {
+    }
+}
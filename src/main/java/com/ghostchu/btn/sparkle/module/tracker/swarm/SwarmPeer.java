@@ -0,0 +1,119 @@
+package com.ghostchu.btn.sparkle.module.tracker.swarm;
+
+import com.ghostchu.btn.sparkle.module.tracker.internal.PeerEvent;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 内存中的紧凑 Peer 记录，一个 Peer ID 对应一条记录，地址直接保存为原始字节（IPv4 4 字节，IPv6 16 字节）
+ * <p>
+ * 双栈客户端会在一次 Announce 中（或分别通过两个地址族）报告多个地址，这些地址都挂在同一条记录上，
+ * 按加入顺序保存，最多 {@link #MAX_ADDRESSES} 个，超出时丢弃最早的。
+ */
+@Getter
+@Setter
+public class SwarmPeer {
+    public static final int MAX_ADDRESSES = 4;
+    private final byte[] peerId;
+    @Setter(AccessLevel.NONE)
+    private byte[][] addresses;
+    private int port;
+    private byte[] reqAddress;
+    private long uploaded;
+    private long uploadedOffset;
+    private long downloaded;
+    private long downloadedOffset;
+    private long left;
+    private PeerEvent lastEvent;
+    private String userAgent;
+    private final long firstTimeSeen;
+    private long lastTimeSeen;
+    /**
+     * 在所属 Swarm 的做种/下载数组中的下标，仅由 Swarm 在锁内维护
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    int slot = -1;
+
+    public SwarmPeer(byte[] peerId, byte[][] addresses, int port, byte[] reqAddress, long uploaded, long uploadedOffset,
+                     long downloaded, long downloadedOffset, long left, PeerEvent lastEvent, String userAgent,
+                     long firstTimeSeen, long lastTimeSeen) {
+        this.peerId = peerId;
+        this.addresses = addresses;
+        this.port = port;
+        this.reqAddress = reqAddress;
+        this.uploaded = uploaded;
+        this.uploadedOffset = uploadedOffset;
+        this.downloaded = downloaded;
+        this.downloadedOffset = downloadedOffset;
+        this.left = left;
+        this.lastEvent = lastEvent;
+        this.userAgent = userAgent;
+        this.firstTimeSeen = firstTimeSeen;
+        this.lastTimeSeen = lastTimeSeen;
+    }
+
+    public boolean isSeeder() {
+        return left == 0;
+    }
+
+    /**
+     * @param addressLength 4 或 16
+     * @return 是否有该地址族的地址
+     */
+    public boolean hasAddressOfLength(int addressLength) {
+        for (byte[] address : addresses) {
+            if (address.length == addressLength) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 合并新报告的地址，已有的地址保持原位，新地址追加在末尾，超出上限时丢弃最早的
+     *
+     * @param reported 本次报告的地址
+     * @param evicted  接收被丢弃的地址
+     * @return 地址集合是否发生变化
+     */
+    boolean mergeAddresses(byte[][] reported, List<byte[]> evicted) {
+        List<byte[]> merged = null;
+        for (byte[] address : reported) {
+            if (indexOf(merged == null ? Arrays.asList(addresses) : merged, address) >= 0) {
+                continue;
+            }
+            if (merged == null) {
+                merged = new ArrayList<>(Arrays.asList(addresses));
+            }
+            merged.add(address);
+        }
+        if (merged == null) {
+            return false;
+        }
+        while (merged.size() > MAX_ADDRESSES) {
+            evicted.add(merged.removeFirst());
+        }
+        addresses = merged.toArray(new byte[0][]);
+        return true;
+    }
+
+    private static int indexOf(List<byte[]> addresses, byte[] address) {
+        for (int i = 0; i < addresses.size(); i++) {
+            if (Arrays.equals(addresses.get(i), address)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public SwarmPeer copy() {
+        return new SwarmPeer(peerId, addresses, port, reqAddress, uploaded, uploadedOffset, downloaded, downloadedOffset,
+                left, lastEvent, userAgent, firstTimeSeen, lastTimeSeen);
+    }
+}
@@ -0,0 +1,242 @@
+package com.ghostchu.btn.sparkle.module.tracker.swarm;
+
+import com.ghostchu.btn.sparkle.module.tracker.TrackerService;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Tracker 的内存 Peer 群注册表，Announce/Scrape/清理全部在内存中完成
+ * <p>
+ * 按 Info Hash 分成若干分片，每个分片有独立的 Swarm 表和过期时间轮；分片内每个 Swarm 再各自加锁。
+ * Announce 路径上没有跨分片共享的可变状态（计数使用 LongAdder），不同种子的 Announce 可以随核数线性扩展，
+ * 热门种子只会阻塞自己。
+ * <p>
+ * 最后一个 Peer 停止或过期后 Swarm 即被移除，随机或无效的 Info Hash 不会一直留在内存与快照中。
+ * 移除时种子的累计计数转入按 Info Hash 保存的有界表，Swarm 重新创建时从中还原，没有 Swarm 时 Scrape 也从中读取；
+ * 超出容量被淘汰的计数只在内存中丢失，tracker_tasks 中的计数不受影响：写后队列中的计数增量按 Info Hash 而不是
+ * Swarm 实例保存，移除不影响它们写入。
+ */
+@Component
+public class SwarmRegistry {
+    private final Shard[] shards;
+    /**
+     * 已移除的 Swarm 的计数器
+     */
+    private final Cache<InfoHash, Swarm.Counters> retired;
+    private final LongAdder totalPeers = new LongAdder();
+    private final long inactiveInterval;
+    private final Counter expiredCounter;
+    private final Counter evictedCounter;
+    private volatile double expiredPerSecond;
+    private long lastExpireAt;
+
+    public SwarmRegistry(@Value("${service.tracker.inactive-interval}") long inactiveInterval,
+                         @Value("${service.tracker.expiry-tick}") long expiryTick,
+                         @Value("${service.tracker.shards}") int shardCount,
+                         @Value("${service.tracker.retired-counters.max-size}") long retiredMaxSize,
+                         MeterRegistry meterRegistry) {
+        long now = System.currentTimeMillis();
+        this.inactiveInterval = inactiveInterval;
+        this.shards = new Shard[roundShardCount(shardCount)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(new ConcurrentHashMap<>(), new ExpiryWheel(expiryTick, inactiveInterval, now));
+        }
+        this.retired = CacheBuilder.newBuilder()
+                .maximumSize(retiredMaxSize)
+                .build();
+        this.lastExpireAt = now;
+        this.expiredCounter = Counter.builder("sparkle.tracker.expiry.expired")
+                .description("因不活跃而被移除的 Peer 数")
+                .register(meterRegistry);
+        this.evictedCounter = Counter.builder("sparkle.tracker.swarms.evicted")
+                .description("因没有 Peer 而从内存中移除的种子数")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.tracker.expiry.rate", this, r -> r.expiredPerSecond)
+                .description("上一次过期处理中每秒移除的 Peer 数")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.tracker.expiry.pending", this, r -> Arrays.stream(r.shards).mapToLong(shard -> shard.expiryWheel().pending()).sum())
+                .description("时间轮中等待检查的条目数（包含已失效的旧条目）")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.tracker.swarms", this, r -> Arrays.stream(r.shards).mapToInt(shard -> shard.swarms().size()).sum())
+                .description("内存中的种子数")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.tracker.swarms.retired", retired, Cache::size)
+                .description("保留计数器的已移除种子数")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.tracker.peers", totalPeers, LongAdder::sum)
+                .description("内存中所有种子的 Peer 总数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param infoHash Announce 请求的 Info Hash
+     * @param announce Announce 请求
+     * @return 应用结果，见 {@link Swarm#announce}
+     */
+    public Swarm.AnnounceResult announce(InfoHash infoHash, TrackerService.PeerAnnounce announce) {
+        long now = System.currentTimeMillis();
+        while (true) {
+            var swarm = getOrCreate(infoHash, now);
+            var result = swarm.announce(announce, now);
+            if (result == null) {
+                // 取到的 Swarm 正在被移除，等它离开注册表后重新创建
+                Thread.onSpinWait();
+                continue;
+            }
+            if (result.peer() == null) {
+                evictIfEmpty(swarm);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @param infoHash Info Hash
+     * @return 对应的 Swarm，如果从未出现过则返回 null
+     */
+    public Swarm get(InfoHash infoHash) {
+        return shards[infoHash.shard(shards.length)].swarms().get(infoHash);
+    }
+
+    public Swarm getOrCreate(InfoHash infoHash, long now) {
+        var shard = shards[infoHash.shard(shards.length)];
+        var swarm = shard.swarms().get(infoHash);
+        if (swarm != null) {
+            return swarm;
+        }
+        return shard.swarms().computeIfAbsent(infoHash, hash -> {
+            var created = new Swarm(hash, now, shard.expiryWheel(), totalPeers);
+            var counters = retired.asMap().remove(hash);
+            if (counters != null) {
+                created.restoreCounters(counters.leechCount(), counters.downloadedCount(),
+                        counters.firstTimeSeen(), counters.lastTimeSeen());
+            }
+            return created;
+        });
+    }
+
+    /**
+     * 与 {@link Swarm#scrape()} 相同，没有 Swarm 时使用保留的计数器，做种与下载人数为 0
+     *
+     * @param infoHash Info Hash
+     * @return Scrape 结果，从未出现过（或计数器已被淘汰）的种子返回全 0
+     */
+    public TrackerService.ScrapeResponse scrape(InfoHash infoHash) {
+        var swarm = get(infoHash);
+        if (swarm != null) {
+            return swarm.scrape();
+        }
+        var counters = retired.getIfPresent(infoHash);
+        return new TrackerService.ScrapeResponse(0, 0, counters == null ? 0 : counters.downloadedCount());
+    }
+
+    /**
+     * 从持久化存储还原计数器：有 Swarm 时写入 Swarm，否则保留到 Swarm 重新创建时
+     */
+    public void restoreCounters(InfoHash infoHash, Swarm.Counters counters) {
+        var swarm = get(infoHash);
+        if (swarm != null) {
+            swarm.restoreCounters(counters.leechCount(), counters.downloadedCount(),
+                    counters.firstTimeSeen(), counters.lastTimeSeen());
+        } else {
+            retired.put(infoHash, counters);
+        }
+    }
+
+    /**
+     * @return 已移除的 Swarm 的计数器，用于写入快照
+     */
+    public Map<InfoHash, Swarm.Counters> retiredCounters() {
+        return Collections.unmodifiableMap(retired.asMap());
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * 转动过期时间轮，移除所有超过不活跃时长未 Announce 的 Peer
+     * <p>
+     * 逐个分片转动，每个 Peer 单独在其 Swarm 的锁内移除，不会长时间阻塞任何一个 Swarm。
+     *
+     * @param now       当前时间
+     * @param onExpired 每移除一个 Peer 调用一次
+     * @return 移除的数量
+     */
+    public synchronized long expire(long now, BiConsumer<Swarm, SwarmPeer> onExpired) {
+        long[] count = new long[1];
+        for (Shard shard : shards) {
+            shard.expiryWheel().advance(now - inactiveInterval, (swarm, peer, lastTimeSeen) -> {
+                var expired = swarm.expire(peer, lastTimeSeen);
+                if (expired != null) {
+                    count[0]++;
+                    onExpired.accept(swarm, expired);
+                    evictIfEmpty(swarm);
+                }
+            });
+        }
+        expiredCounter.increment(count[0]);
+        expiredPerSecond = count[0] * 1000d / Math.max(1, now - lastExpireAt);
+        lastExpireAt = now;
+        return count[0];
+    }
+
+    /**
+     * 移除所有没有 Peer 的 Swarm，用于启动还原之后（还原的计数可能没有对应的 Peer）
+     *
+     * @return 移除的数量
+     */
+    public long evictEmpty() {
+        long count = 0;
+        for (Shard shard : shards) {
+            for (Swarm swarm : shard.swarms().values()) {
+                if (evictIfEmpty(swarm)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private boolean evictIfEmpty(Swarm swarm) {
+        var counters = swarm.markEvictedIfEmpty();
+        if (counters == null) {
+            return false;
+        }
+        // 先保留计数器再移出注册表，等待重新创建的 Announce 一定能取到
+        retired.put(swarm.getInfoHash(), counters);
+        shards[swarm.getInfoHash().shard(shards.length)].swarms().remove(swarm.getInfoHash(), swarm);
+        evictedCounter.increment();
+        return true;
+    }
+
+    public Collection<Swarm> swarms() {
+        List<Swarm> all = new ArrayList<>();
+        for (Shard shard : shards) {
+            all.addAll(shard.swarms().values());
+        }
+        return all;
+    }
+
+    /**
+     * @param configured 配置的分片数，不大于 0 时按 CPU 核数的两倍取值
+     * @return 向上取整到 2 的幂的分片数
+     */
+    public static int roundShardCount(int configured) {
+        int count = configured > 0 ? configured : Runtime.getRuntime().availableProcessors() * 2;
+        return Math.max(1, Integer.highestOneBit(count - 1) << 1);
+    }
+
+    private record Shard(Map<InfoHash, Swarm> swarms, ExpiryWheel expiryWheel) {
+    }
+}
@@ -0,0 +1,211 @@
+package com.ghostchu.btn.sparkle.module.tracker.swarm;
+
+import com.ghostchu.btn.sparkle.module.tracker.internal.PeerEvent;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Tracker 内存状态的二进制快照，定期及停机时写入，启动时一次顺序读取还原
+ * <p>
+ * 文件格式（大端序）：
+ * <pre>
+ * magic "SPKS" | version int | createdAt long
+ * 每个种子: 标记 byte(1) | infoHash 20 | leechCount long | downloadedCount long | firstTimeSeen long | lastTimeSeen long | peerCount int
+ *   每个 Peer: peerId 20 | 地址数 byte | (地址长度 byte | 地址)... | port short | 请求地址长度 byte | 请求地址
+ *             | uploaded | uploadedOffset | downloaded | downloadedOffset | left (long)
+ *             | lastEvent byte | firstTimeSeen long | lastTimeSeen long | UA 长度 short | UA (UTF-8)
+ * 结束标记 byte(0) | 之前所有字节的 CRC32C int
+ * </pre>
+ * peerCount 为 0 的记录是已移除的种子保留的计数器，还原后仍由 {@link SwarmRegistry} 保留，不创建 Swarm。
+ * 写入先写到同目录的临时文件，刷盘并解除映射后原子替换，任何时候磁盘上都只会有一个完整的快照。
+ * 快照不超过 2GB，超出时放弃本次写入，保留上一个快照。
+ */
+@Component
+@Slf4j
+public class SwarmSnapshotStore {
+    private static final int MAGIC = 0x53504B53; // SPKS
+    private static final int VERSION = 2;
+    /**
+     * magic、version 与 createdAt
+     */
+    private static final int HEADER_SIZE = 16;
+    private static final PeerEvent[] EVENTS = PeerEvent.values();
+
+    private final SwarmRegistry swarmRegistry;
+    private final boolean enabled;
+    private final Path path;
+    private final long inactiveInterval;
+
+    public SwarmSnapshotStore(SwarmRegistry swarmRegistry,
+                              @Value("${service.tracker.snapshot.enabled}") boolean enabled,
+                              @Value("${service.tracker.snapshot.path}") String path,
+                              @Value("${service.tracker.inactive-interval}") long inactiveInterval) {
+        this.swarmRegistry = swarmRegistry;
+        this.enabled = enabled;
+        this.path = Path.of(path).toAbsolutePath();
+        this.inactiveInterval = inactiveInterval;
+    }
+
+    @Scheduled(fixedDelayString = "${service.tracker.snapshot.interval}", initialDelayString = "${service.tracker.snapshot.interval}")
+    @PreDestroy
+    public synchronized void write() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(path.getParent());
+            long swarms = 0;
+            long size;
+            try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 var out = new SnapshotOutput(channel)) {
+                out.putInt(MAGIC);
+                out.putInt(VERSION);
+                out.putLong(start);
+                for (Swarm swarm : swarmRegistry.swarms()) {
+                    out.putByte(1);
+                    swarm.writeSnapshot(out);
+                    swarms++;
+                }
+                for (var entry : swarmRegistry.retiredCounters().entrySet()) {
+                    out.putByte(1);
+                    Swarm.writeSnapshot(out, entry.getKey(), entry.getValue());
+                }
+                out.putByte(0);
+                size = out.finish();
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("已写入 Tracker 快照：{} 个种子，{} 字节，耗时 {}ms", swarms, size, System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            log.error("无法写入 Tracker 快照 {}", path, e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ex) {
+                log.warn("无法删除临时快照 {}", temp, ex);
+            }
+        }
+    }
+
+    /**
+     * 从快照还原内存状态，已超过不活跃时长的 Peer 会被跳过
+     *
+     * @return 是否成功还原；快照不存在、损坏或未启用时返回 false，调用方应回退到其他来源
+     */
+    public synchronized boolean load() {
+        if (!enabled || !Files.isRegularFile(path)) {
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        MappedByteBuffer in = null;
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > SnapshotOutput.MAX_SIZE) {
+                log.warn("Tracker 快照 {} 超过 2GB，跳过", path);
+                return false;
+            }
+            // 头部、结束标记与 CRC32C
+            if (channel.size() < HEADER_SIZE + 1 + 4) {
+                log.warn("Tracker 快照 {} 不完整，跳过", path);
+                return false;
+            }
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int bodyLength = in.capacity() - 4;
+            var crc = new CRC32C();
+            crc.update(in.slice(0, bodyLength));
+            if ((int) crc.getValue() != in.getInt(bodyLength)) {
+                log.warn("Tracker 快照 {} 校验失败，跳过", path);
+                return false;
+            }
+            int magic = in.getInt();
+            int version = in.getInt();
+            if (magic != MAGIC || version != VERSION) {
+                log.warn("Tracker 快照 {} 格式或版本不受支持，跳过", path);
+                return false;
+            }
+            long createdAt = in.getLong();
+            long now = System.currentTimeMillis();
+            long before = now - inactiveInterval;
+            long swarms = 0;
+            long peers = 0;
+            while (in.get() == 1) {
+                peers += readSwarm(in, now, before);
+                swarms++;
+            }
+            log.info("已从快照还原 {} 个种子的 {} 个 Peers（快照时间 {}ms 前），耗时 {}ms",
+                    swarms, peers, now - createdAt, System.currentTimeMillis() - start);
+            return true;
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            log.warn("无法读取 Tracker 快照 {}，跳过", path, e);
+            return false;
+        } finally {
+            // 读取的内容都已复制出来，不再需要映射
+            if (in != null) {
+                SnapshotOutput.unmap(in);
+            }
+        }
+    }
+
+    private long readSwarm(MappedByteBuffer in, long now, long before) {
+        byte[] infoHash = new byte[InfoHash.LENGTH];
+        in.get(infoHash);
+        var counters = new Swarm.Counters(in.getLong(), in.getLong(), in.getLong(), in.getLong());
+        int peerCount = in.getInt();
+        if (peerCount == 0) {
+            swarmRegistry.restoreCounters(InfoHash.of(infoHash), counters);
+            return 0;
+        }
+        var swarm = swarmRegistry.getOrCreate(InfoHash.of(infoHash), now);
+        swarm.restoreCounters(counters.leechCount(), counters.downloadedCount(),
+                counters.firstTimeSeen(), counters.lastTimeSeen());
+        long restored = 0;
+        for (int i = 0; i < peerCount; i++) {
+            byte[] peerId = new byte[PeerId.LENGTH];
+            in.get(peerId);
+            byte[][] addresses = new byte[Byte.toUnsignedInt(in.get())][];
+            for (int j = 0; j < addresses.length; j++) {
+                addresses[j] = readShortBytes(in);
+            }
+            int port = Short.toUnsignedInt(in.getShort());
+            byte[] reqAddress = readShortBytes(in);
+            long uploaded = in.getLong();
+            long uploadedOffset = in.getLong();
+            long downloaded = in.getLong();
+            long downloadedOffset = in.getLong();
+            long left = in.getLong();
+            PeerEvent lastEvent = EVENTS[in.get()];
+            long firstTimeSeen = in.getLong();
+            long lastTimeSeen = in.getLong();
+            byte[] userAgent = new byte[Short.toUnsignedInt(in.getShort())];
+            in.get(userAgent);
+            if (lastTimeSeen <= before) {
+                continue;
+            }
+            swarm.restorePeer(new SwarmPeer(peerId, addresses, port, reqAddress, uploaded, uploadedOffset,
+                    downloaded, downloadedOffset, left, lastEvent, new String(userAgent, StandardCharsets.UTF_8),
+                    firstTimeSeen, lastTimeSeen));
+            restored++;
+        }
+        return restored;
+    }
+
+    private static byte[] readShortBytes(MappedByteBuffer in) {
+        byte[] bytes = new byte[Byte.toUnsignedInt(in.get())];
+        in.get(bytes);
+        return bytes;
+    }
+}
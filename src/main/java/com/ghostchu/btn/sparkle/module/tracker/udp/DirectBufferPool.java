@@ -0,0 +1,49 @@
+package com.ghostchu.btn.sparkle.module.tracker.udp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 固定容量的直接内存缓冲区池，按需分配，总数不超过容量；池空且已达容量时 acquire 返回 null
+ */
+class DirectBufferPool {
+    private final ArrayBlockingQueue<ByteBuffer> pool;
+    private final int poolSize;
+    private final int bufferSize;
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    DirectBufferPool(int poolSize, int bufferSize) {
+        this.pool = new ArrayBlockingQueue<>(poolSize);
+        this.poolSize = poolSize;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @return 清空的缓冲区，全部缓冲区都在使用中时返回 null
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = pool.poll();
+        if (buffer != null) {
+            return buffer.clear();
+        }
+        int count;
+        do {
+            count = allocated.get();
+            if (count >= poolSize) {
+                return null;
+            }
+        } while (!allocated.compareAndSet(count, count + 1));
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    void release(ByteBuffer buffer) {
+        if (buffer != null) {
+            pool.offer(buffer);
+        }
+    }
+
+    int bufferSize() {
+        return bufferSize;
+    }
+}
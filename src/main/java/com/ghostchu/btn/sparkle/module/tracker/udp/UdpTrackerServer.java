@@ -0,0 +1,271 @@
+package com.ghostchu.btn.sparkle.module.tracker.udp;
+
+import com.ghostchu.btn.sparkle.module.tracker.AnnounceRateLimiter;
+import com.ghostchu.btn.sparkle.module.tracker.TrackerService;
+import com.ghostchu.btn.sparkle.module.tracker.internal.PeerEvent;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * BEP 15 UDP Tracker 协议实现，与 HTTP Tracker 共享同一个 Swarm 状态
+ * <p>
+ * 单个线程负责从 DatagramChannel 接收数据报，每个数据报交由一个虚拟线程处理并直接回写响应。
+ * 同时处理的数据报数受缓冲区池容量限制（每个数据报占用请求与响应两个缓冲区），达到上限时接收线程等待，
+ * 来不及接收的数据报由内核丢弃，突发流量不会无限创建虚拟线程或分配直接内存。
+ * Connection ID 使用带随机密钥的 SipHash 根据客户端地址和时间窗口计算，服务端无需保存连接状态。
+ */
+@Component
+@Slf4j
+public class UdpTrackerServer {
+    private static final long PROTOCOL_ID = 0x41727101980L;
+    private static final int ACTION_CONNECT = 0;
+    private static final int ACTION_ANNOUNCE = 1;
+    private static final int ACTION_SCRAPE = 2;
+    private static final int ACTION_ERROR = 3;
+    private static final int ANNOUNCE_REQUEST_SIZE = 98;
+    private static final int SCRAPE_MAX_HASHES = 74;
+    private static final long CONNECTION_ID_WINDOW = 60_000L;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final TrackerService trackerService;
+    private final AnnounceRateLimiter announceRateLimiter;
+    private final boolean enabled;
+    private final String host;
+    private final int port;
+    private final long announceInterval;
+    private final HashFunction connectionIdHash;
+    private final DirectBufferPool bufferPool;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    /**
+     * 正在处理的数据报的许可，数量为缓冲区池容量的一半
+     */
+    private final Semaphore inFlight;
+    private DatagramChannel channel;
+    private Thread receiver;
+
+    public UdpTrackerServer(TrackerService trackerService,
+                            AnnounceRateLimiter announceRateLimiter,
+                            @Value("${service.tracker.udp.enabled}") boolean enabled,
+                            @Value("${server.address}") String host,
+                            @Value("${service.tracker.udp.port}") int port,
+                            @Value("${service.tracker.udp.buffer-pool-size}") int bufferPoolSize,
+                            @Value("${service.tracker.announce-interval}") long announceInterval) {
+        this.trackerService = trackerService;
+        this.announceRateLimiter = announceRateLimiter;
+        this.enabled = enabled;
+        this.host = host;
+        this.port = port;
+        this.announceInterval = announceInterval;
+        SecureRandom random = new SecureRandom();
+        this.connectionIdHash = Hashing.sipHash24(random.nextLong(), random.nextLong());
+        this.bufferPool = new DirectBufferPool(Math.max(2, bufferPoolSize), BUFFER_SIZE);
+        this.inFlight = new Semaphore(Math.max(1, bufferPoolSize / 2));
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(host, port));
+        receiver = Thread.ofPlatform().name("Sparkle-UDP-Tracker").daemon().start(this::receiveLoop);
+        log.info("UDP Tracker 已在 {}:{} 上监听", host, port);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        channel.close();
+        receiver.interrupt();
+        executor.shutdown();
+    }
+
+    private void receiveLoop() {
+        while (channel.isOpen()) {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            // 持有许可时池中一定有空闲的缓冲区
+            ByteBuffer request = bufferPool.acquire();
+            try {
+                var source = (InetSocketAddress) channel.receive(request);
+                request.flip();
+                executor.execute(() -> handle(source, request));
+            } catch (ClosedChannelException e) {
+                bufferPool.release(request);
+                inFlight.release();
+                return;
+            } catch (IOException | RuntimeException e) {
+                bufferPool.release(request);
+                inFlight.release();
+                log.warn("接收 UDP Tracker 数据报失败", e);
+            }
+        }
+    }
+
+    private void handle(InetSocketAddress source, ByteBuffer request) {
+        ByteBuffer response = bufferPool.acquire();
+        int transactionId = 0;
+        try {
+            if (response == null || request.remaining() < 16) {
+                return;
+            }
+            long connectionId = request.getLong();
+            int action = request.getInt();
+            transactionId = request.getInt();
+            if (action == ACTION_CONNECT) {
+                if (connectionId != PROTOCOL_ID) {
+                    return;
+                }
+                response.putInt(ACTION_CONNECT).putInt(transactionId).putLong(connectionId(source, System.currentTimeMillis() / CONNECTION_ID_WINDOW));
+            } else if (!isValidConnectionId(source, connectionId)) {
+                error(response, transactionId, "Connection ID mismatch or expired");
+            } else if (action == ACTION_ANNOUNCE) {
+                announce(source, request, response, transactionId);
+            } else if (action == ACTION_SCRAPE) {
+                scrape(request, response, transactionId);
+            } else {
+                error(response, transactionId, "Unsupported action");
+            }
+            response.flip();
+            channel.send(response, source);
+        } catch (Exception e) {
+            log.debug("无法处理来自 {} 的 UDP Tracker 请求", source, e);
+            try {
+                error(response.clear(), transactionId, "Invalid request");
+                response.flip();
+                channel.send(response, source);
+            } catch (IOException ignored) {
+            }
+        } finally {
+            bufferPool.release(request);
+            bufferPool.release(response);
+            inFlight.release();
+        }
+    }
+
+    private void announce(InetSocketAddress source, ByteBuffer request, ByteBuffer response, int transactionId) throws UnknownHostException {
+        if (request.limit() < ANNOUNCE_REQUEST_SIZE) {
+            error(response, transactionId, "Malformed announce request");
+            return;
+        }
+        byte[] infoHash = new byte[20];
+        byte[] peerId = new byte[20];
+        request.get(infoHash).get(peerId);
+        long downloaded = request.getLong();
+        long left = request.getLong();
+        long uploaded = request.getLong();
+        PeerEvent peerEvent = switch (request.getInt()) {
+            case 1 -> PeerEvent.COMPLETED;
+            case 2 -> PeerEvent.STARTED;
+            case 3 -> PeerEvent.STOPPED;
+            default -> PeerEvent.EMPTY;
+        };
+        int ip = request.getInt();
+        request.getInt(); // key
+        int numWant = request.getInt();
+        int peerPort = Short.toUnsignedInt(request.getShort());
+
+        var decision = announceRateLimiter.check(infoHash, peerId, peerEvent);
+        if (decision == AnnounceRateLimiter.Decision.DROP) {
+            error(response, transactionId, "Announce too frequent, respect min interval");
+            return;
+        }
+        InetAddress reqIp = source.getAddress();
+        List<InetAddress> peerIps = new ArrayList<>(2);
+        peerIps.add(reqIp);
+        if (ip != 0) {
+            var declared = InetAddress.getByAddress(ByteBuffer.allocate(4).putInt(ip).array());
+            if (!declared.equals(reqIp)) {
+                peerIps.add(declared);
+            }
+        }
+        if (decision == AnnounceRateLimiter.Decision.ACCEPT) {
+            trackerService.executeAnnounce(new TrackerService.PeerAnnounce(
+                    infoHash,
+                    peerId,
+                    reqIp,
+                    peerIps,
+                    peerPort,
+                    uploaded,
+                    downloaded,
+                    left,
+                    peerEvent,
+                    "N/A (UDP)"
+            ));
+        }
+
+        boolean v6 = reqIp instanceof Inet6Address;
+        int peerSize = v6 ? 18 : 6;
+        int maxPeers = (response.capacity() - 20) / peerSize;
+        if (numWant < 0) {
+            numWant = 50;
+        }
+        var peers = trackerService.fetchPeersFromTorrent(infoHash, peerId, left == 0, Math.min(numWant, maxPeers));
+        response.putInt(ACTION_ANNOUNCE)
+                .putInt(transactionId)
+                .putInt((int) (announceInterval / 1000))
+                .putInt((int) peers.leechers())
+                .putInt((int) peers.seeders());
+        byte[] compact = v6 ? peers.v6() : peers.v4();
+        response.put(compact, 0, Math.min(compact.length, response.remaining() / peerSize * peerSize));
+    }
+
+    private void scrape(ByteBuffer request, ByteBuffer response, int transactionId) {
+        response.putInt(ACTION_SCRAPE).putInt(transactionId);
+        byte[] infoHash = new byte[20];
+        int count = 0;
+        while (request.remaining() >= 20 && count < SCRAPE_MAX_HASHES) {
+            request.get(infoHash);
+            var scrape = trackerService.scrape(infoHash);
+            response.putInt((int) scrape.seeders())
+                    .putInt((int) scrape.downloaded())
+                    .putInt((int) scrape.leechers());
+            count++;
+        }
+    }
+
+    private void error(ByteBuffer response, int transactionId, String message) {
+        response.putInt(ACTION_ERROR).putInt(transactionId).put(message.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private boolean isValidConnectionId(InetSocketAddress source, long connectionId) {
+        long window = System.currentTimeMillis() / CONNECTION_ID_WINDOW;
+        // BEP 15 要求 Connection ID 至少在 2 分钟内有效
+        return connectionId == connectionId(source, window)
+               || connectionId == connectionId(source, window - 1)
+               || connectionId == connectionId(source, window - 2);
+    }
+
+    private long connectionId(InetSocketAddress source, long window) {
+        return connectionIdHash.newHasher()
+                .putBytes(source.getAddress().getAddress())
+                .putInt(source.getPort())
+                .putLong(window)
+                .hash()
+                .asLong();
+    }
+}
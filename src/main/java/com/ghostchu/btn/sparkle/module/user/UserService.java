@@ -3,21 +3,41 @@ package com.ghostchu.btn.sparkle.module.user;
 import com.ghostchu.btn.sparkle.exception.UserNotFoundException;
 import com.ghostchu.btn.sparkle.module.user.internal.User;
 import com.ghostchu.btn.sparkle.module.user.internal.UserRepository;
+import jakarta.annotation.PreDestroy;
 import jakarta.persistence.LockModeType;
 import jakarta.transaction.Transactional;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.util.Optional;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 @Service
+@Slf4j
 public class UserService {
+    private static final int ROWS_PER_STATEMENT = 1000;
 
     private final UserRepository userRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+    /**
+     * 用户 id -> 尚未写入的最近访问时间
+     */
+    private Map<Long, Timestamp> pendingLastAccess = new ConcurrentHashMap<>();
 
-    public UserService(UserRepository userRepository) {
+    public UserService(UserRepository userRepository, JdbcTemplate jdbcTemplate, ApplicationEventPublisher eventPublisher) {
         this.userRepository = userRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.eventPublisher = eventPublisher;
     }
 
 //    @SaCheckLogin
@@ -56,7 +76,59 @@ public class UserService {
     @Transactional
     @Lock(LockModeType.PESSIMISTIC_WRITE)
     public User saveUser(User user) {
-        return userRepository.save(user);
+        var saved = userRepository.save(user);
+        eventPublisher.publishEvent(new UserUpdatedEvent(saved.getId()));
+        return saved;
+    }
+
+    /**
+     * 记录用户的最近访问时间，在内存中合并后定期写入，不会在每次请求时锁定用户行
+     */
+    public void touchLastAccess(long userId, Timestamp lastAccessAt) {
+        swapLock.readLock().lock();
+        try {
+            pendingLastAccess.merge(userId, lastAccessAt, (a, b) -> a.after(b) ? a : b);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${service.user.last-access-flush-interval}")
+    @PreDestroy
+    public synchronized void flushLastAccess() {
+        Map<Long, Timestamp> pending;
+        swapLock.writeLock().lock();
+        try {
+            pending = pendingLastAccess;
+            pendingLastAccess = new ConcurrentHashMap<>();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<Long, Timestamp>> entries = new ArrayList<>(pending.entrySet());
+        try {
+            for (int from = 0; from < entries.size(); from += ROWS_PER_STATEMENT) {
+                var chunk = entries.subList(from, Math.min(entries.size(), from + ROWS_PER_STATEMENT));
+                StringJoiner joiner = new StringJoiner(", ", "UPDATE \"user\" u SET last_access_at = v.last_access_at FROM (VALUES ",
+                        ") AS v(id, last_access_at) WHERE u.id = v.id AND u.last_access_at < v.last_access_at");
+                List<Object> args = new ArrayList<>(chunk.size() * 2);
+                for (var entry : chunk) {
+                    joiner.add("(?::bigint, ?::timestamp)");
+                    Collections.addAll(args, entry.getKey(), entry.getValue());
+                }
+                jdbcTemplate.update(joiner.toString(), args.toArray());
+            }
+        } catch (DataAccessException e) {
+            log.error("无法写入 {} 个用户的最近访问时间，将在下次重试", entries.size(), e);
+            swapLock.readLock().lock();
+            try {
+                pending.forEach((id, at) -> pendingLastAccess.merge(id, at, (a, b) -> a.after(b) ? a : b));
+            } finally {
+                swapLock.readLock().unlock();
+            }
+        }
     }
 
     public UserDto toDto(User user) {
@@ -0,0 +1,9 @@
+package com.ghostchu.btn.sparkle.module.user;
+
+/**
+ * 用户资料（包括封禁状态）被修改，缓存了该用户的组件应当丢弃缓存
+ *
+ * @param userId 用户 id
+ */
+public record UserUpdatedEvent(long userId) {
+}
@@ -4,44 +4,93 @@ import com.ghostchu.btn.sparkle.exception.TooManyUserApplicationException;
 import com.ghostchu.btn.sparkle.exception.UserApplicationNotFoundException;
 import com.ghostchu.btn.sparkle.exception.UserNotFoundException;
 import com.ghostchu.btn.sparkle.module.user.UserService;
+import com.ghostchu.btn.sparkle.module.user.UserUpdatedEvent;
 import com.ghostchu.btn.sparkle.module.user.internal.User;
 import com.ghostchu.btn.sparkle.module.userapp.internal.UserApplication;
 import com.ghostchu.btn.sparkle.module.userapp.internal.UserApplicationRepository;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.cache.annotation.Caching;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.sql.Timestamp;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class UserApplicationService {
     private final UserApplicationRepository userApplicationRepository;
     private final UserService userService;
     private final long userMaxApps;
+    /**
+     * AppId -> 鉴权通过的 UserApplication（已加载所属用户），/ping 的每个请求都要鉴权
+     */
+    private final Cache<String, UserApplication> credentialCache;
 
     public UserApplicationService(UserApplicationRepository userApplicationRepository
             , UserService userService
-            , @Value("${service.userapplication.user-max-apps}") long userMaxApps) {
+            , @Value("${service.userapplication.user-max-apps}") long userMaxApps
+            , @Value("${service.userapplication.credential-cache.ttl}") long credentialCacheTtl
+            , @Value("${service.userapplication.credential-cache.size}") long credentialCacheSize) {
         this.userApplicationRepository = userApplicationRepository;
         this.userService = userService;
         this.userMaxApps = userMaxApps;
+        this.credentialCache = CacheBuilder.newBuilder()
+                .maximumSize(credentialCacheSize)
+                .expireAfterWrite(credentialCacheTtl, TimeUnit.MILLISECONDS)
+                .build();
     }
 
     /**
      * 推荐使用此方法获取 UserApplication，因为它同时会用 appSecret 作为检索条件，相当于进行了鉴权
+     * <p>
+     * 鉴权通过的结果会被短暂缓存；重置 AppSecret、删除应用或修改用户后缓存立即失效，
+     * 直接在数据库中封禁时最迟在 TTL 后生效。鉴权失败的结果不缓存。
      *
      * @param appId     AppId
      * @param appSecret AppSecret
      * @return UserApplicationDto
      */
     public Optional<UserApplication> getUserApplication(String appId, String appSecret) {
-        return userApplicationRepository.findByAppIdAndAppSecret(appId, appSecret);
+        var cached = credentialCache.getIfPresent(appId);
+        if (cached != null && MessageDigest.isEqual(cached.getAppSecret().getBytes(StandardCharsets.UTF_8),
+                appSecret.getBytes(StandardCharsets.UTF_8))) {
+            return Optional.of(cached);
+        }
+        var found = userApplicationRepository.findByAppIdAndAppSecret(appId, appSecret);
+        found.ifPresent(app -> credentialCache.put(appId, app));
+        return found;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserUpdated(UserUpdatedEvent event) {
+        credentialCache.asMap().values().removeIf(app -> app.getUser().getId() == event.userId());
+    }
+
+    /**
+     * 在事务提交后失效，避免并发请求在提交前用旧数据重新填充缓存
+     */
+    private void invalidateCredential(String appId) {
+        credentialCache.invalidate(appId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    credentialCache.invalidate(appId);
+                }
+            });
+        }
     }
 
     /**
@@ -85,6 +134,7 @@ public class UserApplicationService {
         }
         var usrApp = userApplication.get();
         usrApp.setAppSecret(UUID.randomUUID().toString());
+        invalidateCredential(usrApp.getAppId());
         return userApplicationRepository.save(usrApp);
     }
 
@@ -95,6 +145,7 @@ public class UserApplicationService {
         if (userApplication.isEmpty()) {
             throw new UserApplicationNotFoundException();
         }
+        invalidateCredential(userApplication.get().getAppId());
         userApplicationRepository.delete(userApplication.get());
     }
 
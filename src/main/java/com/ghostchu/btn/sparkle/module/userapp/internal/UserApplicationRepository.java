@@ -2,6 +2,7 @@ package com.ghostchu.btn.sparkle.module.userapp.internal;
 
 import com.ghostchu.btn.sparkle.module.repository.SparkleCommonRepository;
 import com.ghostchu.btn.sparkle.module.user.internal.User;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -14,6 +15,10 @@ public interface UserApplicationRepository extends SparkleCommonRepository<UserA
 
     Optional<UserApplication> findByAppId(String appId);
 
+    /**
+     * 同时取回所属用户，结果会被缓存并在事务外使用
+     */
+    @EntityGraph(attributePaths = "user")
     Optional<UserApplication> findByAppIdAndAppSecret(String appId, String appSecret);
 
     List<UserApplication> findByUser(User user);
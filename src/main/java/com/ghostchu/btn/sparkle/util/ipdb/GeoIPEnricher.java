@@ -0,0 +1,304 @@
+package com.ghostchu.btn.sparkle.util.ipdb;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 写入后的 GeoIP 补全
+ * <p>
+ * 写入 Snapshot/BanHistory 时不再逐行同步查询 GeoIP（每次未命中最多四次 MaxMind 查询），
+ * 而是在行提交后把 (id, IP) 交给这里：同一批中的 IP 先去重，再分片在虚拟线程上并行查询，
+ * 最后以一条批量 UPDATE 回填 geoip 列。
+ * <p>
+ * 队列已满、UPDATE 失败或停机时未处理的行暂时保持 geoip 为 null，不影响写入本身；
+ * 定期的补扫按 id 顺序查找 backfillTables 中 geoip 为 null 的行并同样回填，因此每一行最终都会被补全，
+ * 除非其 IP 查询不到 GeoIP 数据。补扫的进度只保存在内存中，重启后从头扫描一遍。
+ */
+@Component
+@Slf4j
+public class GeoIPEnricher {
+    private static final int ROWS_PER_BATCH = 1000;
+
+    private final GeoIPManager geoIPManager;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final int workers;
+    private final int parallelism;
+    private final BlockingQueue<Task> queue;
+    private final List<String> backfillTables;
+    private final int backfillMaxRows;
+    /**
+     * 表名 -> 补扫进度
+     */
+    private final Map<String, BackfillCursor> backfillCursors = new ConcurrentHashMap<>();
+    private final ExecutorService lookupExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running;
+
+    private final Counter enrichedCounter;
+    private final Counter lookupCounter;
+    private final Counter droppedCounter;
+    private final Counter backfilledCounter;
+    private final Timer lookupTimer;
+
+    public GeoIPEnricher(GeoIPManager geoIPManager, JdbcTemplate jdbcTemplate, ObjectMapper objectMapper,
+                         @Value("${service.geoip.enrich.enabled}") boolean enabled,
+                         @Value("${service.geoip.enrich.queue-size}") int queueSize,
+                         @Value("${service.geoip.enrich.workers}") int workers,
+                         @Value("${service.geoip.enrich.parallelism}") int parallelism,
+                         @Value("${service.geoip.enrich.backfill-tables}") List<String> backfillTables,
+                         @Value("${service.geoip.enrich.backfill-max-rows}") int backfillMaxRows,
+                         MeterRegistry meterRegistry) {
+        this.geoIPManager = geoIPManager;
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.workers = Math.max(1, workers);
+        this.parallelism = Math.max(1, parallelism);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.backfillTables = List.copyOf(backfillTables);
+        this.backfillMaxRows = Math.max(1, backfillMaxRows);
+        this.enrichedCounter = Counter.builder("sparkle.geoip.enrich.rows")
+                .description("已回填 GeoIP 的行数")
+                .register(meterRegistry);
+        this.lookupCounter = Counter.builder("sparkle.geoip.enrich.lookups")
+                .description("去重后实际查询的 IP 数")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("sparkle.geoip.enrich.dropped")
+                .description("因队列已满或写入失败而未回填 GeoIP 的行数，之后由补扫回填")
+                .register(meterRegistry);
+        this.backfilledCounter = Counter.builder("sparkle.geoip.enrich.backfilled")
+                .description("由补扫回填 GeoIP 的行数")
+                .register(meterRegistry);
+        this.lookupTimer = Timer.builder("sparkle.geoip.enrich.lookup.latency")
+                .description("一批 IP 并行查询的耗时")
+                .register(meterRegistry);
+        Gauge.builder("sparkle.geoip.enrich.queue.depth", queue, Collection::size)
+                .description("等待补全 GeoIP 的批次数")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < workers; i++) {
+            threads.add(Thread.ofVirtual().name("Sparkle-GeoIP-Enricher-" + i).start(this::workLoop));
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (Thread thread : threads) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        int pending = queue.stream().mapToInt(task -> task.rows().size()).sum();
+        if (pending > 0) {
+            log.warn("停机时仍有 {} 行未补全 GeoIP，重启后由补扫回填", pending);
+        }
+        lookupExecutor.shutdownNow();
+    }
+
+    /**
+     * 提交已写入数据库的行，异步回填它们的 geoip 列
+     *
+     * @param table 表名，必须有 id 与 jsonb 类型的 geoip 列
+     * @param rows  id -> 需要查询的 IP
+     */
+    public void submit(String table, Map<Long, InetAddress> rows) {
+        if (!enabled || rows.isEmpty()) {
+            return;
+        }
+        if (!queue.offer(new Task(table, rows))) {
+            droppedCounter.increment(rows.size());
+            log.warn("GeoIP 补全队列已满，{} 行 {} 将由补扫回填", rows.size(), table);
+        }
+    }
+
+    /**
+     * 补扫 geoip 为 null 的行，每张表每次最多 backfillMaxRows 行
+     * <p>
+     * 只扫描到上一次补扫时的最大 id：在此之后写入的行可能还在队列中等待，交给队列处理。
+     * 查询不到 GeoIP 数据的行会被跳过，直到重启后重新扫描；UPDATE 失败时进度不前进，下次补扫重试。
+     */
+    @Scheduled(fixedDelayString = "${service.geoip.enrich.backfill-interval}", initialDelayString = "${service.geoip.enrich.backfill-interval}")
+    public void backfill() {
+        if (!enabled) {
+            return;
+        }
+        for (String table : backfillTables) {
+            try {
+                backfill(table, backfillCursors.computeIfAbsent(table, t -> new BackfillCursor()));
+            } catch (DataAccessException e) {
+                log.error("无法补扫 {} 的 GeoIP", table, e);
+            }
+        }
+    }
+
+    private void backfill(String table, BackfillCursor cursor) {
+        long limit = cursor.upperBound;
+        Long maxId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM " + table, Long.class);
+        cursor.upperBound = maxId == null ? 0 : maxId;
+        long scanned = 0;
+        long filled = 0;
+        while (running && cursor.position < limit && scanned < backfillMaxRows) {
+            int pageSize = (int) Math.min(ROWS_PER_BATCH, backfillMaxRows - scanned);
+            Map<Long, InetAddress> rows = new LinkedHashMap<>();
+            long[] last = {cursor.position};
+            int[] count = {0};
+            jdbcTemplate.query("SELECT id, host(peer_ip) FROM " + table
+                               + " WHERE geoip IS NULL AND id > ? AND id <= ? ORDER BY id LIMIT ?", rs -> {
+                count[0]++;
+                last[0] = rs.getLong(1);
+                try {
+                    rows.put(last[0], InetAddress.getByName(rs.getString(2)));
+                } catch (UnknownHostException e) {
+                    log.debug("跳过 {} 中无法解析的 IP {}", table, rs.getString(2));
+                }
+            }, cursor.position, limit, pageSize);
+            long updated = enrich(new Task(table, rows));
+            if (updated < 0) {
+                break;
+            }
+            filled += updated;
+            scanned += count[0];
+            // 不满一页说明已扫描到 limit
+            cursor.position = count[0] < pageSize ? limit : last[0];
+        }
+        if (filled > 0) {
+            backfilledCounter.increment(filled);
+            log.info("已补扫回填 {} 行 {} 的 GeoIP", filled, table);
+        }
+    }
+
+    /**
+     * 去重后分片并行查询
+     *
+     * @return IP -> GeoIP 数据，查询失败的 IP 不在结果中
+     */
+    public Map<InetAddress, IPGeoData> resolve(Collection<InetAddress> addresses) {
+        List<InetAddress> distinct = List.copyOf(new LinkedHashSet<>(addresses));
+        if (distinct.isEmpty()) {
+            return Map.of();
+        }
+        long start = System.nanoTime();
+        int chunkSize = (distinct.size() + parallelism - 1) / parallelism;
+        List<Future<Map<InetAddress, IPGeoData>>> futures = new ArrayList<>();
+        for (int from = 0; from < distinct.size(); from += chunkSize) {
+            var chunk = distinct.subList(from, Math.min(distinct.size(), from + chunkSize));
+            futures.add(lookupExecutor.submit(() -> {
+                Map<InetAddress, IPGeoData> result = new HashMap<>(chunk.size());
+                for (InetAddress address : chunk) {
+                    result.put(address, geoIPManager.geoData(address));
+                }
+                return result;
+            }));
+        }
+        Map<InetAddress, IPGeoData> resolved = new HashMap<>(distinct.size());
+        for (var future : futures) {
+            try {
+                resolved.putAll(future.get());
+            } catch (ExecutionException e) {
+                log.warn("GeoIP 查询失败", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        lookupCounter.increment(distinct.size());
+        lookupTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return resolved;
+    }
+
+    private void workLoop() {
+        while (running) {
+            Task task;
+            try {
+                task = queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task != null && enrich(task) < 0) {
+                droppedCounter.increment(task.rows().size());
+            }
+        }
+    }
+
+    /**
+     * @return 回填的行数，UPDATE 失败时返回 -1
+     */
+    private long enrich(Task task) {
+        var resolved = resolve(task.rows().values());
+        Map<InetAddress, String> json = new HashMap<>(resolved.size());
+        List<Object[]> updates = new ArrayList<>(task.rows().size());
+        task.rows().forEach((id, address) -> {
+            String geoData = json.computeIfAbsent(address, a -> toJson(resolved.get(a)));
+            if (geoData != null) {
+                updates.add(new Object[]{geoData, id});
+            }
+        });
+        try {
+            for (int from = 0; from < updates.size(); from += ROWS_PER_BATCH) {
+                jdbcTemplate.batchUpdate("UPDATE " + task.table() + " SET geoip = ?::jsonb WHERE id = ?",
+                        updates.subList(from, Math.min(updates.size(), from + ROWS_PER_BATCH)));
+            }
+            enrichedCounter.increment(updates.size());
+            return updates.size();
+        } catch (DataAccessException e) {
+            log.error("无法回填 {} 行 {} 的 GeoIP", updates.size(), task.table(), e);
+            return -1;
+        }
+    }
+
+    private String toJson(IPGeoData geoData) {
+        if (geoData == null) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(geoData);
+        } catch (JsonProcessingException e) {
+            log.warn("无法序列化 GeoIP 数据", e);
+            return null;
+        }
+    }
+
+    private record Task(String table, Map<Long, InetAddress> rows) {
+    }
+
+    private static class BackfillCursor {
+        /**
+         * 已扫描到的 id
+         */
+        private long position;
+        /**
+         * 上一次补扫时表中的最大 id
+         */
+        private long upperBound;
+    }
+}
@@ -0,0 +1,190 @@
+package com.ghostchu.btn.sparkle.util.pgcopy;
+
+import org.postgresql.copy.CopyIn;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * COPY ... FROM STDIN (FORMAT binary) 的流式编码器
+ * <p>
+ * 行数据写入固定大小的缓冲区，写满后推送给 {@link CopyIn}，内存占用与行数无关。
+ * 每行先调用 {@link #startRow(int)}，再按 COPY 语句中的列顺序写入对应数量的字段。
+ *
+ * @see <a href="https://www.postgresql.org/docs/current/sql-copy.html#id-1.9.3.55.9.4">Binary Format</a>
+ */
+public final class PgBinaryCopyWriter {
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    /**
+     * PostgreSQL 的时间戳以 2000-01-01 00:00:00 为原点，单位为微秒
+     */
+    private static final long PG_EPOCH_SECONDS = LocalDateTime.of(2000, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+    private static final byte PGSQL_AF_INET = 2;
+    private static final byte PGSQL_AF_INET6 = 3;
+    private static final byte JSONB_VERSION = 1;
+
+    private final CopyIn copyIn;
+    private final ByteBuffer buffer;
+    private long rows;
+
+    PgBinaryCopyWriter(CopyIn copyIn, int bufferSize) throws SQLException {
+        this.copyIn = copyIn;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        buffer.put(SIGNATURE).putInt(0).putInt(0); // flags, header extension length
+    }
+
+    public PgBinaryCopyWriter startRow(int fieldCount) throws SQLException {
+        ensure(2);
+        buffer.putShort((short) fieldCount);
+        rows++;
+        return this;
+    }
+
+    public PgBinaryCopyWriter nullValue() throws SQLException {
+        ensure(4);
+        buffer.putInt(-1);
+        return this;
+    }
+
+    public PgBinaryCopyWriter int4(Integer value) throws SQLException {
+        if (value == null) {
+            return nullValue();
+        }
+        ensure(8);
+        buffer.putInt(4).putInt(value);
+        return this;
+    }
+
+    public PgBinaryCopyWriter int8(Long value) throws SQLException {
+        if (value == null) {
+            return nullValue();
+        }
+        ensure(12);
+        buffer.putInt(8).putLong(value);
+        return this;
+    }
+
+    public PgBinaryCopyWriter float8(Double value) throws SQLException {
+        if (value == null) {
+            return nullValue();
+        }
+        ensure(12);
+        buffer.putInt(8).putDouble(value);
+        return this;
+    }
+
+    public PgBinaryCopyWriter bool(Boolean value) throws SQLException {
+        if (value == null) {
+            return nullValue();
+        }
+        ensure(5);
+        buffer.putInt(1).put((byte) (value ? 1 : 0));
+        return this;
+    }
+
+    public PgBinaryCopyWriter text(String value) throws SQLException {
+        if (value == null) {
+            return nullValue();
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(4);
+        buffer.putInt(bytes.length);
+        putBytes(bytes);
+        return this;
+    }
+
+    /**
+     * timestamp without time zone，与 Hibernate 写入 {@link Timestamp} 的方式一致，按 JVM 时区的本地时间存储
+     */
+    public PgBinaryCopyWriter timestamp(Timestamp value) throws SQLException {
+        if (value == null) {
+            return nullValue();
+        }
+        LocalDateTime local = value.toLocalDateTime();
+        long micros = (local.toEpochSecond(ZoneOffset.UTC) - PG_EPOCH_SECONDS) * 1_000_000L + local.getNano() / 1000;
+        ensure(12);
+        buffer.putInt(8).putLong(micros);
+        return this;
+    }
+
+    public PgBinaryCopyWriter inet(InetAddress value) throws SQLException {
+        if (value == null) {
+            return nullValue();
+        }
+        byte[] address = value.getAddress();
+        ensure(8 + address.length);
+        buffer.putInt(4 + address.length)
+                .put(address.length == 4 ? PGSQL_AF_INET : PGSQL_AF_INET6)
+                .put((byte) (address.length * 8)) // 掩码位数
+                .put((byte) 0) // is_cidr
+                .put((byte) address.length)
+                .put(address);
+        return this;
+    }
+
+    /**
+     * @param json UTF-8 编码的 JSON 文本
+     */
+    public PgBinaryCopyWriter jsonb(byte[] json) throws SQLException {
+        if (json == null) {
+            return nullValue();
+        }
+        ensure(5);
+        buffer.putInt(json.length + 1).put(JSONB_VERSION);
+        putBytes(json);
+        return this;
+    }
+
+    /**
+     * 写入结束标记并提交 COPY
+     *
+     * @return 写入的行数
+     */
+    long finish() throws SQLException {
+        ensure(2);
+        buffer.putShort((short) -1);
+        flush();
+        copyIn.endCopy();
+        return rows;
+    }
+
+    void cancel() {
+        try {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private void putBytes(byte[] bytes) throws SQLException {
+        if (bytes.length <= buffer.remaining()) {
+            buffer.put(bytes);
+            return;
+        }
+        flush();
+        if (bytes.length <= buffer.capacity()) {
+            buffer.put(bytes);
+        } else {
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+        }
+    }
+
+    private void ensure(int bytes) throws SQLException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws SQLException {
+        if (buffer.position() > 0) {
+            copyIn.writeToCopy(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.ghostchu.btn.sparkle.util.pgcopy;
+
+import org.postgresql.PGConnection;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 通过 PostgreSQL COPY (FORMAT binary) 批量写入，绕过 Hibernate 的逐行 INSERT 与逐行取序列
+ * <p>
+ * 使用 {@link JdbcTemplate} 取得连接，处于事务中时与 JPA 共用同一个连接与事务。
+ */
+@Component
+public class PgBulkInserter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<String, PooledSequence> sequences = new ConcurrentHashMap<>();
+
+    public PgBulkInserter(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * @param sequenceName 序列名，例如 Hibernate 为实体创建的 snapshot_seq
+     * @return 该序列共享的 id 分配器
+     */
+    public PooledSequence sequence(String sequenceName) {
+        return sequences.computeIfAbsent(sequenceName, name -> new PooledSequence(jdbcTemplate, name));
+    }
+
+    /**
+     * @param table   表名
+     * @param columns 列名，编码器必须按此顺序为每行写入同样数量的字段
+     * @param rows    行
+     * @param encoder 行编码器
+     * @return 写入的行数
+     */
+    public <T> long copy(String table, List<String> columns, Collection<T> rows, RowEncoder<T> encoder) {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        String sql = "COPY " + table + " (" + String.join(", ", columns) + ") FROM STDIN (FORMAT binary)";
+        Long copied = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            var copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+            var writer = new PgBinaryCopyWriter(copyIn, BUFFER_SIZE);
+            try {
+                for (T row : rows) {
+                    writer.startRow(columns.size());
+                    encoder.encode(row, writer);
+                }
+                return writer.finish();
+            } catch (SQLException | RuntimeException e) {
+                writer.cancel();
+                throw e;
+            }
+        });
+        return copied == null ? 0 : copied;
+    }
+
+    @FunctionalInterface
+    public interface RowEncoder<T> {
+        void encode(T row, PgBinaryCopyWriter writer) throws SQLException;
+    }
+}
@@ -0,0 +1,73 @@
+package com.ghostchu.btn.sparkle.util.pgcopy;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 与 Hibernate pooled 优化器兼容的 id 分配器
+ * <p>
+ * Hibernate 建表时序列的步长为 allocationSize（默认 50），nextval 返回的值 v 代表 (v - 步长, v] 这一段 id 归调用者所有。
+ * 这里按同样的约定使用序列，与仍通过 Hibernate 写入的代码互不冲突；批量写入前用 {@link #reserve(int)}
+ * 一次取回足够的段，整批只需要一次往返。
+ */
+public final class PooledSequence {
+    private final JdbcTemplate jdbcTemplate;
+    private final String sequenceName;
+    private final Deque<Long> reservedHighs = new ArrayDeque<>();
+    private long increment;
+    private long next;
+    private long high = -1;
+
+    PooledSequence(JdbcTemplate jdbcTemplate, String sequenceName) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.sequenceName = sequenceName;
+    }
+
+    /**
+     * 预取足够分配 count 个 id 的段
+     */
+    public synchronized void reserve(int count) {
+        long available = high - next + 1;
+        for (long reservedHigh : reservedHighs) {
+            available += reservedHigh - low(reservedHigh) + 1;
+        }
+        if (available >= count) {
+            return;
+        }
+        long blocks = (count - available + increment() - 1) / increment();
+        reservedHighs.addAll(jdbcTemplate.queryForList("SELECT nextval(?::regclass) FROM generate_series(1, ?)",
+                Long.class, sequenceName, blocks));
+    }
+
+    public synchronized long next() {
+        if (next > high) {
+            Long reserved = reservedHighs.poll();
+            high = reserved != null ? reserved
+                    : jdbcTemplate.queryForObject("SELECT nextval(?::regclass)", Long.class, sequenceName);
+            next = low(high);
+        }
+        return next++;
+    }
+
+    /**
+     * 序列从 1 开始时第一段不足一个步长，不能分配到 0 或负数
+     */
+    private long low(long high) {
+        return Math.max(1, high - increment() + 1);
+    }
+
+    private long increment() {
+        if (increment == 0) {
+            var values = jdbcTemplate.queryForList(
+                    "SELECT increment_by FROM pg_sequences WHERE schemaname = current_schema() AND sequencename = ?",
+                    Long.class, sequenceName);
+            if (values.isEmpty() || values.getFirst() < 1) {
+                throw new IllegalStateException("Sequence " + sequenceName + " does not exist or has invalid increment");
+            }
+            increment = values.getFirst();
+        }
+        return increment;
+    }
+}
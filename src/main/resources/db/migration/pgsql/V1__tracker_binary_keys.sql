@@ -0,0 +1,30 @@
+-- Tracker 表的 Info Hash 与 Peer ID 由十六进制字符串改为 bytea
+-- 全新的库中这些表尚未由 Hibernate 创建，或已经是 bytea，此时什么也不做
+DO
+$$
+    BEGIN
+        IF EXISTS (SELECT 1
+                   FROM information_schema.columns
+                   WHERE table_schema = current_schema()
+                     AND table_name = 'tracker_peers'
+                     AND column_name = 'peer_id'
+                     AND data_type <> 'bytea') THEN
+            -- 旧版本以 Servlet 参数解码 peer_id，可能得到错误长度的数据，这些记录无法再与客户端匹配
+            DELETE FROM tracker_peers WHERE peer_id !~ '^([0-9a-fA-F]{2}){20}$' OR torrent_info_hash !~ '^[0-9a-fA-F]{40}$';
+            ALTER TABLE tracker_peers
+                ALTER COLUMN peer_id TYPE bytea USING decode(peer_id, 'hex'),
+                ALTER COLUMN torrent_info_hash TYPE bytea USING decode(torrent_info_hash, 'hex');
+        END IF;
+
+        IF EXISTS (SELECT 1
+                   FROM information_schema.columns
+                   WHERE table_schema = current_schema()
+                     AND table_name = 'tracker_tasks'
+                     AND column_name = 'torrent_info_hash'
+                     AND data_type <> 'bytea') THEN
+            DELETE FROM tracker_tasks WHERE torrent_info_hash !~ '^[0-9a-fA-F]{40}$';
+            ALTER TABLE tracker_tasks
+                ALTER COLUMN torrent_info_hash TYPE bytea USING decode(torrent_info_hash, 'hex');
+        END IF;
+    END
+$$;
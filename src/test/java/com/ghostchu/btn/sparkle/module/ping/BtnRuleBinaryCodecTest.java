@@ -0,0 +1,125 @@
+package com.ghostchu.btn.sparkle.module.ping;
+
+import com.ghostchu.btn.sparkle.module.ping.dto.BtnRule;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BtnRuleBinaryCodecTest {
+
+    @Test
+    void roundTripGivesCanonicalRuleWithoutContainedCidrs() throws IOException {
+        Map<String, List<String>> ipRules = new HashMap<>();
+        ipRules.put("analyse", List.of(
+                "10.1.2.3",            // 被 10.0.0.0/8 包含
+                "10.0.0.0/8",
+                "192.168.1.77/24",     // 主机位清零
+                "192.168.1.0/24",      // 与上一条相同
+                "1.2.3.4",
+                "2001:db8::/32",
+                "2001:db8:1::1",       // 被 2001:db8::/32 包含
+                "fe80::1",
+                "1.2.3.4-9"));         // 地址范围，原样保留
+        ipRules.put("manual", List.of("8.8.8.8"));
+        BtnRule rule = RuleBundleDiff.canonicalize(new BtnRule(null,
+                Map.of("xunlei", List.of("-XL0012-", "-XL0018-"), "中文", List.of("迅雷")),
+                Map.of("exclude", List.of("-XL0019-")),
+                Map.of("client", List.of("Xunlei")),
+                Map.of(),
+                ipRules,
+                Map.of("port", List.of(15000, 2008, 2008))));
+        rule.setVersion("revision");
+
+        BtnRule decoded = BtnRuleBinaryCodec.decode(BtnRuleBinaryCodec.encode(rule)).toBtnRule();
+
+        BtnRule expected = RuleBundleDiff.canonicalize(rule);
+        expected.setVersion("revision");
+        // IPv4 在前、IPv6 在后，各自按地址排序，无法表示为网段的条目最后
+        expected.getIpRules().put("analyse", List.of(
+                "1.2.3.4/32",
+                "10.0.0.0/8",
+                "192.168.1.0/24",
+                "2001:db8:0:0:0:0:0:0/32",
+                "fe80:0:0:0:0:0:0:1/128",
+                "1.2.3.4-9"));
+        expected.getIpRules().put("manual", List.of("8.8.8.8/32"));
+        assertEquals(expected, decoded);
+    }
+
+    @Test
+    void emptyRuleRoundTrips() throws IOException {
+        BtnRule rule = RuleBundleDiff.canonicalize(new BtnRule());
+        assertEquals(rule, BtnRuleBinaryCodec.decode(BtnRuleBinaryCodec.encode(rule)).toBtnRule());
+    }
+
+    @Test
+    void containsRespectsIpv4NetworkBoundaries() throws IOException {
+        var table = table(List.of("192.168.1.0/24", "172.16.0.0/12", "10.0.0.0/31", "8.8.8.8"));
+        assertTrue(table.contains(address("192.168.1.0")));
+        assertTrue(table.contains(address("192.168.1.255")));
+        assertFalse(table.contains(address("192.168.0.255")));
+        assertFalse(table.contains(address("192.168.2.0")));
+        // 前缀长度不是 8 的倍数
+        assertTrue(table.contains(address("172.16.0.0")));
+        assertTrue(table.contains(address("172.31.255.255")));
+        assertFalse(table.contains(address("172.15.255.255")));
+        assertFalse(table.contains(address("172.32.0.0")));
+        assertTrue(table.contains(address("10.0.0.1")));
+        assertFalse(table.contains(address("10.0.0.2")));
+        assertTrue(table.contains(address("8.8.8.8")));
+        assertFalse(table.contains(address("8.8.8.9")));
+        // 小于第一个网段
+        assertFalse(table.contains(address("0.0.0.0")));
+        assertFalse(table.contains(address("255.255.255.255")));
+        // 不同地址族互不匹配
+        assertFalse(table.contains(address("::c0a8:100")));
+    }
+
+    @Test
+    void containsRespectsIpv6NetworkBoundaries() throws IOException {
+        var table = table(List.of("2001:db8::/48", "2001:db8:100::/41", "fe80::1", "1.2.3.0/24"));
+        assertTrue(table.contains(address("2001:db8::")));
+        assertTrue(table.contains(address("2001:db8:0:ffff:ffff:ffff:ffff:ffff")));
+        assertFalse(table.contains(address("2001:db7:ffff:ffff:ffff:ffff:ffff:ffff")));
+        assertFalse(table.contains(address("2001:db8:1::")));
+        assertTrue(table.contains(address("2001:db8:100::")));
+        assertTrue(table.contains(address("2001:db8:17f:ffff:ffff:ffff:ffff:ffff")));
+        assertFalse(table.contains(address("2001:db8:ff:ffff:ffff:ffff:ffff:ffff")));
+        assertFalse(table.contains(address("2001:db8:180::")));
+        assertTrue(table.contains(address("fe80::1")));
+        assertFalse(table.contains(address("fe80::2")));
+        assertFalse(table.contains(address("::")));
+        assertFalse(table.contains(address("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff")));
+    }
+
+    @Test
+    void truncatedBufferIsRejected() throws IOException {
+        BtnRule rule = RuleBundleDiff.canonicalize(new BtnRule(null, Map.of("xunlei", List.of("-XL0012-")), Map.of(),
+                Map.of(), Map.of(), Map.of("analyse", List.of("10.0.0.0/8", "2001:db8::/32", "1.2.3.4-9")),
+                Map.of("port", List.of(2008))));
+        rule.setVersion("revision");
+        byte[] data = BtnRuleBinaryCodec.encode(rule);
+        for (int length = 0; length < data.length; length++) {
+            byte[] truncated = Arrays.copyOf(data, length);
+            assertThrows(IOException.class, () -> BtnRuleBinaryCodec.decode(truncated), "截断到 " + length + " 字节");
+        }
+    }
+
+    @Test
+    void foreignDataIsRejected() {
+        assertThrows(IOException.class, () -> BtnRuleBinaryCodec.decode("{\"version\":\"1\"}".getBytes()));
+    }
+
+    private static BtnRuleBinaryCodec.CidrTable table(List<String> entries) throws IOException {
+        BtnRule rule = new BtnRule(null, Map.of(), Map.of(), Map.of(), Map.of(), Map.of("test", entries), Map.of());
+        return BtnRuleBinaryCodec.decode(BtnRuleBinaryCodec.encode(rule)).ipRules().get("test");
+    }
+
+    private static InetAddress address(String address) throws IOException {
+        return InetAddress.getByName(address);
+    }
+}
@@ -0,0 +1,129 @@
+package com.ghostchu.btn.sparkle.module.ping;
+
+import com.ghostchu.btn.sparkle.module.ping.dto.BtnRule;
+import com.ghostchu.btn.sparkle.module.ping.dto.BtnRuleDelta;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RuleBundleDiffTest {
+    private static final BtnRule A = rule(
+            Map.of("xunlei", List.of("-XL0012-", "-XL0018-"), "qq", List.of("-QD")),
+            Map.of("analyse", List.of("1.1.1.1", "2.2.2.0/24"), "manual", List.of("3.3.3.3")),
+            Map.of("port", List.of(2008, 2009)));
+    private static final BtnRule B = rule(
+            Map.of("xunlei", List.of("-XL0012-", "-XL0019-")),
+            Map.of("analyse", List.of("1.1.1.1", "4.4.4.4"), "manual", List.of("3.3.3.3"), "new", List.of("5.5.5.5")),
+            Map.of("port", List.of(2008, 2009, 15000)));
+    private static final BtnRule C = rule(
+            Map.of("xunlei", List.of("-XL0018-", "-XL0019-"), "qq", List.of("-QD")),
+            Map.of("analyse", List.of("2.2.2.0/24", "4.4.4.4"), "manual", List.of("3.3.3.3")),
+            Map.of("port", List.of(2009, 15000)));
+
+    @Test
+    void canonicalizeSortsAndDeduplicates() {
+        BtnRule canonical = RuleBundleDiff.canonicalize(rule(
+                Map.of("b", List.of("z", "a", "z"), "a", List.of("m")),
+                Map.of(),
+                Map.of("port", List.of(3, 1, 3))));
+        assertEquals(List.of("a", "b"), List.copyOf(canonical.getPeerIdRules().keySet()));
+        assertEquals(List.of("a", "z"), canonical.getPeerIdRules().get("b"));
+        assertEquals(List.of(1, 3), canonical.getPortRules().get("port"));
+        assertEquals(Map.of(), canonical.getExcludeClientNameRules());
+    }
+
+    @Test
+    void diffAppliedToSourceGivesTarget() {
+        BtnRule a = RuleBundleDiff.canonicalize(A);
+        BtnRule b = RuleBundleDiff.canonicalize(B);
+        BtnRuleDelta delta = RuleBundleDiff.diff(a, "a", b, "b");
+        assertEquals("a", delta.getFrom());
+        assertEquals("b", delta.getVersion());
+        assertEquals(b, apply(a, delta));
+    }
+
+    @Test
+    void composedDeltaAppliedToSourceGivesCanonicalTarget() {
+        BtnRule a = RuleBundleDiff.canonicalize(A);
+        BtnRule b = RuleBundleDiff.canonicalize(B);
+        BtnRule c = RuleBundleDiff.canonicalize(C);
+        BtnRuleDelta composed = RuleBundleDiff.compose(RuleBundleDiff.diff(a, "a", b, "b"), RuleBundleDiff.diff(b, "b", c, "c"));
+        assertEquals("a", composed.getFrom());
+        assertEquals("c", composed.getVersion());
+        assertEquals(c, apply(a, composed));
+        // 与直接求差的结果完全相同，不会残留中间版本里加了又删的条目
+        assertEquals(RuleBundleDiff.diff(a, "a", c, "c"), composed);
+    }
+
+    @Test
+    void composeBackToEarlierRevisionIsEmpty() {
+        BtnRule a = RuleBundleDiff.canonicalize(A);
+        BtnRule b = RuleBundleDiff.canonicalize(B);
+        BtnRuleDelta composed = RuleBundleDiff.compose(RuleBundleDiff.diff(a, "a", b, "b"), RuleBundleDiff.diff(b, "b", a, "a"));
+        assertEquals(a, apply(a, composed));
+        assertTrue(isEmpty(composed.getAdded()));
+        assertTrue(isEmpty(composed.getRemoved()));
+    }
+
+    @Test
+    void composeIsAssociative() {
+        BtnRule a = RuleBundleDiff.canonicalize(A);
+        BtnRule b = RuleBundleDiff.canonicalize(B);
+        BtnRule c = RuleBundleDiff.canonicalize(C);
+        BtnRuleDelta ab = RuleBundleDiff.diff(a, "a", b, "b");
+        BtnRuleDelta bc = RuleBundleDiff.diff(b, "b", c, "c");
+        BtnRuleDelta ca = RuleBundleDiff.diff(c, "c", a, "a");
+        BtnRuleDelta left = RuleBundleDiff.compose(RuleBundleDiff.compose(ab, bc), ca);
+        BtnRuleDelta right = RuleBundleDiff.compose(ab, RuleBundleDiff.compose(bc, ca));
+        assertEquals(left, right);
+        assertEquals(a, apply(a, left));
+    }
+
+    private static BtnRule rule(Map<String, List<String>> peerId, Map<String, List<String>> ip,
+                                Map<String, List<Integer>> port) {
+        return new BtnRule(null, new HashMap<>(peerId), new HashMap<>(), new HashMap<>(), new HashMap<>(),
+                new HashMap<>(ip), new HashMap<>(port));
+    }
+
+    /**
+     * 按客户端的方式应用增量：先移除 removed 再加入 added，结果再规范化以便比较
+     */
+    static BtnRule apply(BtnRule base, BtnRuleDelta delta) {
+        BtnRule result = new BtnRule();
+        result.setPeerIdRules(apply(base.getPeerIdRules(), delta.getAdded().getPeerIdRules(), delta.getRemoved().getPeerIdRules()));
+        result.setExcludePeerIdRules(apply(base.getExcludePeerIdRules(), delta.getAdded().getExcludePeerIdRules(), delta.getRemoved().getExcludePeerIdRules()));
+        result.setClientNameRules(apply(base.getClientNameRules(), delta.getAdded().getClientNameRules(), delta.getRemoved().getClientNameRules()));
+        result.setExcludeClientNameRules(apply(base.getExcludeClientNameRules(), delta.getAdded().getExcludeClientNameRules(), delta.getRemoved().getExcludeClientNameRules()));
+        result.setIpRules(apply(base.getIpRules(), delta.getAdded().getIpRules(), delta.getRemoved().getIpRules()));
+        result.setPortRules(apply(base.getPortRules(), delta.getAdded().getPortRules(), delta.getRemoved().getPortRules()));
+        return RuleBundleDiff.canonicalize(result);
+    }
+
+    private static <T> Map<String, List<T>> apply(Map<String, List<T>> base, Map<String, List<T>> added,
+                                                  Map<String, List<T>> removed) {
+        Map<String, Set<T>> result = new HashMap<>();
+        base.forEach((category, entries) -> result.put(category, new HashSet<>(entries)));
+        removed.forEach((category, entries) -> {
+            Set<T> set = result.get(category);
+            if (set != null) {
+                entries.forEach(set::remove);
+                if (set.isEmpty()) {
+                    result.remove(category);
+                }
+            }
+        });
+        added.forEach((category, entries) -> result.computeIfAbsent(category, k -> new HashSet<>()).addAll(entries));
+        Map<String, List<T>> lists = new HashMap<>();
+        result.forEach((category, set) -> lists.put(category, new ArrayList<>(set)));
+        return lists;
+    }
+
+    private static boolean isEmpty(BtnRule rule) {
+        return rule.getPeerIdRules().isEmpty() && rule.getExcludePeerIdRules().isEmpty()
+               && rule.getClientNameRules().isEmpty() && rule.getExcludeClientNameRules().isEmpty()
+               && rule.getIpRules().isEmpty() && rule.getPortRules().isEmpty();
+    }
+}
@@ -0,0 +1,112 @@
+package com.ghostchu.btn.sparkle.module.ping;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ghostchu.btn.sparkle.module.ping.dto.BtnRule;
+import com.ghostchu.btn.sparkle.module.ping.dto.BtnRuleDelta;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RuleBundlePublisherTest {
+    private static final int HISTORY_SIZE = 2;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final PingService pingService = mock(PingService.class);
+    private final RuleBundlePublisher publisher = new RuleBundlePublisher(pingService, objectMapper, HISTORY_SIZE,
+            new SimpleMeterRegistry());
+    /**
+     * 已发布的版本 -> 该版本的完整规则
+     */
+    private final Map<String, BtnRule> published = new HashMap<>();
+
+    @Test
+    void unchangedContentKeepsBundle() throws IOException {
+        var first = publish(rule(0));
+        BtnRule reordered = rule(0);
+        Collections.reverse(reordered.getIpRules().get("analyse"));
+        assertSame(first, publish(reordered));
+    }
+
+    @Test
+    void deltasReproduceCurrentRevision() throws IOException {
+        var r0 = publish(rule(0));
+        var r1 = publish(rule(1));
+        var r2 = publish(rule(2));
+        assertEquals(List.of(r0.revision(), r1.revision()), List.copyOf(r2.deltas().keySet()));
+        assertDeltasReproduce(r2);
+    }
+
+    @Test
+    void historyTrimmedToHistorySize() throws IOException {
+        var r0 = publish(rule(0));
+        var r1 = publish(rule(1));
+        var r2 = publish(rule(2));
+        var r3 = publish(rule(3));
+        assertEquals(List.of(r1.revision(), r2.revision()), List.copyOf(r3.deltas().keySet()));
+        assertFalse(r3.deltas().containsKey(r0.revision()));
+        assertDeltasReproduce(r3);
+    }
+
+    @Test
+    void contentReturningToEarlierRevision() throws IOException {
+        var r0 = publish(rule(0));
+        var r1 = publish(rule(1));
+        var back = publish(rule(0));
+        assertEquals(r0.revision(), back.revision());
+        // 没有从当前版本到自身的增量
+        assertEquals(List.of(r1.revision()), List.copyOf(back.deltas().keySet()));
+        assertDeltasReproduce(back);
+
+        var r2 = publish(rule(2));
+        assertEquals(List.of(r1.revision(), r0.revision()), List.copyOf(r2.deltas().keySet()));
+        assertDeltasReproduce(r2);
+    }
+
+    private RuleBundlePublisher.RuleBundle publish(BtnRule rule) throws IOException {
+        when(pingService.generateBtnRule()).thenReturn(rule);
+        publisher.refresh();
+        var bundle = publisher.current();
+        published.put(bundle.revision(), read(bundle.full().data()));
+        return bundle;
+    }
+
+    private void assertDeltasReproduce(RuleBundlePublisher.RuleBundle bundle) throws IOException {
+        BtnRule current = RuleBundleDiff.canonicalize(read(bundle.full().data()));
+        for (var entry : bundle.deltas().entrySet()) {
+            BtnRuleDelta delta = objectMapper.readValue(entry.getValue().data(), BtnRuleDelta.class);
+            assertEquals(entry.getKey(), delta.getFrom());
+            assertEquals(bundle.revision(), delta.getVersion());
+            BtnRule base = RuleBundleDiff.canonicalize(published.get(entry.getKey()));
+            assertEquals(current, RuleBundleDiffTest.apply(base, delta));
+        }
+    }
+
+    private BtnRule read(byte[] json) throws IOException {
+        BtnRule rule = objectMapper.readValue(json, BtnRule.class);
+        rule.setVersion(null);
+        return rule;
+    }
+
+    /**
+     * 100 条共同的 IP 规则加上随 revision 变化的少量条目，使增量明显小于完整规则
+     */
+    private static BtnRule rule(int revision) {
+        List<String> ips = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ips.add("10.0." + i + ".1");
+        }
+        ips.add("192.168.0." + revision);
+        Map<String, List<String>> ipRules = new HashMap<>();
+        ipRules.put("analyse", ips);
+        Map<String, List<String>> peerIdRules = new HashMap<>();
+        peerIdRules.put("revision-" + revision % 2, new ArrayList<>(List.of("-XL" + revision + "-")));
+        return new BtnRule(null, peerIdRules, new HashMap<>(), new HashMap<>(), new HashMap<>(), ipRules,
+                new HashMap<>(Map.of("port", new ArrayList<>(List.of(2008, 2009 + revision)))));
+    }
+}
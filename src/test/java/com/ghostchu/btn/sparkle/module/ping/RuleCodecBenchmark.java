@@ -0,0 +1,151 @@
+package com.ghostchu.btn.sparkle.module.ping;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ghostchu.btn.sparkle.module.ping.dto.BtnRule;
+import inet.ipaddr.IPAddress;
+import inet.ipaddr.IPAddressString;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 对比云端规则的 JSON 格式与 {@link BtnRuleBinaryCodec} 二进制格式：
+ * 启动时打印两者原始与 gzip 后的大小，再分别测量客户端解析到可匹配状态的耗时
+ * （JSON 需要逐条把 IP 字符串解析为地址，二进制格式解码后即可直接二分查找）。
+ * <p>
+ * 直接在 IDE 中运行 main 方法即可。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-XX:+UseParallelGC")
+public class RuleCodecBenchmark {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Param({"10000", "50000"})
+    private int ipCount;
+
+    private byte[] json;
+    private byte[] jsonGzip;
+    private byte[] binary;
+    private byte[] binaryGzip;
+    private InetAddress probe;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        Map<String, List<String>> ipRules = new HashMap<>();
+        for (int i = 0; i < ipCount; i++) {
+            String category = "analyse-" + (i % 4);
+            String ip;
+            if (i % 5 == 0) {
+                ip = String.format("2001:db8:%x:%x::/64", random.nextInt(0x10000), random.nextInt(0x10000));
+            } else if (i % 7 == 0) {
+                ip = (1 + random.nextInt(223)) + "." + random.nextInt(256) + "." + random.nextInt(256) + ".0/24";
+            } else {
+                ip = (1 + random.nextInt(223)) + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+            }
+            ipRules.computeIfAbsent(category, k -> new ArrayList<>()).add(ip);
+        }
+        Map<String, List<String>> peerIdRules = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            peerIdRules.computeIfAbsent("peer-id-" + (i % 10), k -> new ArrayList<>()).add("-XL" + String.format("%04d", i) + "-");
+        }
+        Map<String, List<Integer>> portRules = Map.of("port", List.of(2008, 2009, 6881, 6882, 15000));
+        BtnRule rule = RuleBundleDiff.canonicalize(new BtnRule(null, peerIdRules, new HashMap<>(), new HashMap<>(),
+                new HashMap<>(), ipRules, portRules));
+        rule.setVersion("0".repeat(64));
+        json = objectMapper.writeValueAsBytes(rule);
+        binary = BtnRuleBinaryCodec.encode(rule);
+        jsonGzip = gzip(json);
+        binaryGzip = gzip(binary);
+        probe = InetAddress.getByName("203.0.113.7");
+        System.out.printf("%n[%d 条 IP 规则] JSON %d 字节（gzip %d 字节），二进制 %d 字节（gzip %d 字节）%n",
+                ipCount, json.length, jsonGzip.length, binary.length, binaryGzip.length);
+    }
+
+    /**
+     * 只反序列化 JSON，IP 仍是字符串
+     */
+    @Benchmark
+    public BtnRule jsonParse() throws IOException {
+        return objectMapper.readValue(json, BtnRule.class);
+    }
+
+    /**
+     * 反序列化 JSON 并把每条 IP 解析为地址，与二进制格式解码后的状态相当
+     */
+    @Benchmark
+    public void jsonParseAndCompile(Blackhole bh) throws IOException {
+        BtnRule rule = objectMapper.readValue(json, BtnRule.class);
+        for (List<String> ips : rule.getIpRules().values()) {
+            List<IPAddress> addresses = new ArrayList<>(ips.size());
+            for (String ip : ips) {
+                addresses.add(new IPAddressString(ip).getAddress());
+            }
+            bh.consume(addresses);
+        }
+        bh.consume(rule);
+    }
+
+    @Benchmark
+    public BtnRuleBinaryCodec.DecodedRules binaryDecode() throws IOException {
+        return BtnRuleBinaryCodec.decode(binary);
+    }
+
+    @Benchmark
+    public void jsonGzipParseAndCompile(Blackhole bh) throws IOException {
+        BtnRule rule = objectMapper.readValue(new GZIPInputStream(new ByteArrayInputStream(jsonGzip)), BtnRule.class);
+        for (List<String> ips : rule.getIpRules().values()) {
+            for (String ip : ips) {
+                bh.consume(new IPAddressString(ip).getAddress());
+            }
+        }
+    }
+
+    @Benchmark
+    public BtnRuleBinaryCodec.DecodedRules binaryGzipDecode() throws IOException {
+        try (var in = new GZIPInputStream(new ByteArrayInputStream(binaryGzip))) {
+            return BtnRuleBinaryCodec.decode(in.readAllBytes());
+        }
+    }
+
+    /**
+     * 解码后在所有 IP 分类中查找一个地址
+     */
+    @Benchmark
+    public boolean binaryDecodeAndLookup() throws IOException {
+        boolean matched = false;
+        for (var table : BtnRuleBinaryCodec.decode(binary).ipRules().values()) {
+            matched |= table.contains(probe);
+        }
+        return matched;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RuleCodecBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
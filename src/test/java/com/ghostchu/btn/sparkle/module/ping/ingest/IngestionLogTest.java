@@ -0,0 +1,166 @@
+package com.ghostchu.btn.sparkle.module.ping.ingest;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestionLogTest {
+    private static final long SEGMENT_SIZE = 1024 * 1024;
+    private static final long MAX_RECORD_SIZE = 1024;
+    private static final long MAX_LAG_BYTES = 1024 * 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void appendedRecordsAreReadBackInOrder() throws IOException {
+        var log = open(SEGMENT_SIZE, MAX_LAG_BYTES);
+        long first = append(log, IngestionLog.RecordType.PEERS, "first");
+        long second = append(log, IngestionLog.RecordType.BANS, "second");
+        assertEquals(0, first);
+        assertEquals(2, log.lagRecords());
+
+        var record = log.read(first);
+        assertEquals(IngestionLog.RecordType.PEERS, record.type());
+        assertEquals("app", record.appId());
+        assertEquals(InetAddress.getByName("10.0.0.1"), record.submitterIp());
+        assertEquals("first", body(log, record));
+        assertEquals(second, record.nextOffset());
+
+        record = log.read(second);
+        assertEquals(IngestionLog.RecordType.BANS, record.type());
+        assertEquals("second", body(log, record));
+        assertNull(log.read(record.nextOffset()));
+        assertEquals(record.nextOffset(), log.lagBytes());
+        log.close();
+    }
+
+    @Test
+    void reopenReplaysFromCheckpoint() throws IOException {
+        var log = open(SEGMENT_SIZE, MAX_LAG_BYTES);
+        append(log, IngestionLog.RecordType.PEERS, "first");
+        long second = append(log, IngestionLog.RecordType.PEERS, "second");
+        append(log, IngestionLog.RecordType.PEERS, "third");
+        log.commit(second, 1);
+        log.close();
+
+        // 已确认但未写入数据库的记录在重启后重放
+        var reopened = open(SEGMENT_SIZE, MAX_LAG_BYTES);
+        assertEquals(second, reopened.committedOffset());
+        assertEquals(2, reopened.lagRecords());
+        var record = reopened.read(second);
+        assertEquals("second", body(reopened, record));
+        assertEquals("third", body(reopened, reopened.read(record.nextOffset())));
+        reopened.close();
+    }
+
+    @Test
+    void tornTailIsTruncatedOnReopen() throws IOException {
+        var log = open(SEGMENT_SIZE, MAX_LAG_BYTES);
+        append(log, IngestionLog.RecordType.PEERS, "first");
+        long second = append(log, IngestionLog.RecordType.PEERS, "second");
+        long end = log.read(second).nextOffset();
+        log.close();
+        // 模拟写到一半时停机：长度头声明 100 字节，实际只写了 10 字节
+        Files.write(segments().getFirst(), new byte[]{0, 0, 0, 100, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, StandardOpenOption.APPEND);
+
+        var reopened = open(SEGMENT_SIZE, MAX_LAG_BYTES);
+        assertEquals(end, Files.size(segments().getFirst()));
+        assertEquals(2, reopened.lagRecords());
+        assertEquals("second", body(reopened, reopened.read(second)));
+        assertNull(reopened.read(end));
+        // 新记录紧接在最后一条完整记录之后
+        assertEquals(end, append(reopened, IngestionLog.RecordType.BANS, "third"));
+        assertEquals("third", body(reopened, reopened.read(end)));
+        reopened.close();
+    }
+
+    @Test
+    void segmentsRollAndAreDeletedOnceConsumed() throws IOException {
+        // 每个段只放得下一条记录
+        var log = open(64, MAX_LAG_BYTES);
+        long first = append(log, IngestionLog.RecordType.PEERS, "first");
+        long second = append(log, IngestionLog.RecordType.PEERS, "second");
+        long third = append(log, IngestionLog.RecordType.PEERS, "third");
+        assertEquals(3, segments().size());
+        assertEquals(OptionalLong.of(second), log.nextSegment(first));
+        assertEquals(OptionalLong.empty(), log.nextSegment(third));
+        assertEquals("second", body(log, log.read(second)));
+
+        log.commit(third, 2);
+        assertEquals(1, segments().size());
+        assertEquals(1, log.lagRecords());
+        assertEquals("third", body(log, log.read(third)));
+        log.close();
+
+        var reopened = open(64, MAX_LAG_BYTES);
+        assertEquals(third, reopened.committedOffset());
+        assertEquals("third", body(reopened, reopened.read(third)));
+        reopened.close();
+    }
+
+    @Test
+    void backlogAboveLimitIsRejected() throws IOException {
+        var log = open(SEGMENT_SIZE, 1);
+        long first = append(log, IngestionLog.RecordType.PEERS, "first");
+        assertThrows(IngestionLog.BackpressureException.class, () -> append(log, IngestionLog.RecordType.PEERS, "second"));
+        assertEquals(1, log.lagRecords());
+
+        log.commit(log.read(first).nextOffset(), 1);
+        assertEquals(0, log.lagBytes());
+        assertDoesNotThrow(() -> append(log, IngestionLog.RecordType.PEERS, "second"));
+        log.close();
+    }
+
+    @Test
+    void oversizedRecordIsRejectedWithoutWriting() throws IOException {
+        var log = open(SEGMENT_SIZE, MAX_LAG_BYTES);
+        assertThrows(IngestionLog.RecordTooLargeException.class,
+                () -> append(log, IngestionLog.RecordType.PEERS, "x".repeat((int) MAX_RECORD_SIZE)));
+        assertEquals(0, log.lagBytes());
+        assertEquals(0, log.lagRecords());
+        try (Stream<Path> spooled = Files.list(directory.resolve("spool"))) {
+            assertEquals(0, spooled.count());
+        }
+        assertEquals(0, append(log, IngestionLog.RecordType.PEERS, "first"));
+        log.close();
+    }
+
+    private IngestionLog open(long segmentSize, long maxLagBytes) {
+        var log = new IngestionLog(true, directory.toString(), segmentSize, MAX_RECORD_SIZE, maxLagBytes, true,
+                new SimpleMeterRegistry());
+        log.open();
+        return log;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    private static long append(IngestionLog log, IngestionLog.RecordType type, String body) throws IOException {
+        return log.append(type, "app", InetAddress.getByName("10.0.0.1"),
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String body(IngestionLog log, IngestionRecord record) throws IOException {
+        try (InputStream in = log.openBody(record)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.ghostchu.btn.sparkle.module.snapshot;
+
+import com.ghostchu.btn.sparkle.module.snapshot.internal.Snapshot;
+import com.ghostchu.btn.sparkle.module.torrent.internal.Torrent;
+import com.ghostchu.btn.sparkle.module.userapp.internal.UserApplication;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Timestamp;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotDeduplicatorTest {
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long MAX_AGE = 3600_000;
+    private static final long TRAFFIC_THRESHOLD = 1024 * 1024;
+    private static final double PROGRESS_THRESHOLD = 0.01;
+    private static final Long ROW_ID = 10L;
+
+    private final SnapshotDeduplicator deduplicator = new SnapshotDeduplicator(true, 1000, MAX_AGE, MAX_AGE,
+            TRAFFIC_THRESHOLD, PROGRESS_THRESHOLD, new SimpleMeterRegistry());
+    private final UserApplication userApplication = new UserApplication();
+    private final Torrent torrent = new Torrent();
+
+    SnapshotDeduplicatorTest() {
+        userApplication.setId(1L);
+        torrent.setId(1L);
+    }
+
+    @Test
+    void unchangedSnapshotReusesPersistedRow() throws UnknownHostException {
+        assertNull(deduplicator.unchangedRow(snapshot(null, NOW, 6881, 0, 0, 0.5)));
+        deduplicator.afterPersist(1, List.of(snapshot(ROW_ID, NOW, 6881, 0, 0, 0.5)));
+        assertEquals(ROW_ID, deduplicator.unchangedRow(snapshot(null, NOW + 60_000, 6881, 1000, 1000, 0.505)));
+    }
+
+    @Test
+    void significantChangesWriteNewRow() throws UnknownHostException {
+        deduplicator.afterPersist(1, List.of(snapshot(ROW_ID, NOW, 6881, 5000, 5000, 0.5)));
+        assertNull(deduplicator.unchangedRow(snapshot(null, NOW + MAX_AGE, 6881, 5000, 5000, 0.5)));
+        assertNull(deduplicator.unchangedRow(snapshot(null, NOW, 6882, 5000, 5000, 0.5)));
+        assertNull(deduplicator.unchangedRow(snapshot(null, NOW, 6881, 5000 + TRAFFIC_THRESHOLD, 5000, 0.5)));
+        assertNull(deduplicator.unchangedRow(snapshot(null, NOW, 6881, 5000, 5000 + TRAFFIC_THRESHOLD, 0.5)));
+        assertNull(deduplicator.unchangedRow(snapshot(null, NOW, 6881, 5000, 5000, 0.5 + PROGRESS_THRESHOLD)));
+        // 客户端重启后计数归零
+        assertNull(deduplicator.unchangedRow(snapshot(null, NOW, 6881, 0, 5000, 0.5)));
+        assertNull(deduplicator.unchangedRow(snapshot(null, NOW, 6881, 5000, 0, 0.5)));
+    }
+
+    @Test
+    void slowChangesAccumulateAgainstPersistedRow() throws UnknownHostException {
+        deduplicator.afterPersist(1, List.of(snapshot(ROW_ID, NOW, 6881, 0, 0, 0.5)));
+        long step = TRAFFIC_THRESHOLD / 4;
+        for (int i = 1; i < 4; i++) {
+            var snapshot = snapshot(null, NOW + i * 60_000L, 6881, i * step, 0, 0.5);
+            assertEquals(ROW_ID, deduplicator.unchangedRow(snapshot));
+            deduplicator.afterPersist(1, List.of());
+        }
+        assertNull(deduplicator.unchangedRow(snapshot(null, NOW + 4 * 60_000L, 6881, 4 * step, 0, 0.5)));
+    }
+
+    @Test
+    void otherPeersAndUnresolvedSnapshotsAreNotMatched() throws UnknownHostException {
+        deduplicator.afterPersist(1, List.of(snapshot(ROW_ID, NOW, 6881, 0, 0, 0.5)));
+        var otherPeer = snapshot(null, NOW, 6881, 0, 0, 0.5);
+        otherPeer.setPeerId("-TR3000-");
+        assertNull(deduplicator.unchangedRow(otherPeer));
+        var otherIp = snapshot(null, NOW, 6881, 0, 0, 0.5);
+        otherIp.setPeerIp(InetAddress.getByName("10.0.0.2"));
+        assertNull(deduplicator.unchangedRow(otherIp));
+        var unresolved = snapshot(null, NOW, 6881, 0, 0, 0.5);
+        unresolved.setTorrent(null);
+        assertNull(deduplicator.unchangedRow(unresolved));
+    }
+
+    @Test
+    void rowsBecomeBaselineOnlyAfterCommit() throws UnknownHostException {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            deduplicator.afterPersist(1, List.of(snapshot(ROW_ID, NOW, 6881, 0, 0, 0.5)));
+            // 事务尚未提交，回滚时这一行不存在
+            assertNull(deduplicator.unchangedRow(snapshot(null, NOW, 6881, 0, 0, 0.5)));
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertEquals(ROW_ID, deduplicator.unchangedRow(snapshot(null, NOW, 6881, 0, 0, 0.5)));
+    }
+
+    private Snapshot snapshot(Long id, long insertTime, int port, long fromPeerTraffic, long toPeerTraffic, double progress)
+            throws UnknownHostException {
+        return Snapshot.builder()
+                .id(id)
+                .insertTime(new Timestamp(insertTime))
+                .userApplication(userApplication)
+                .torrent(torrent)
+                .peerIp(InetAddress.getByName("10.0.0.1"))
+                .peerPort(port)
+                .peerId("-qB4650-")
+                .fromPeerTraffic(fromPeerTraffic)
+                .toPeerTraffic(toPeerTraffic)
+                .peerProgress(progress)
+                .downloaderProgress(0.0)
+                .build();
+    }
+}
@@ -0,0 +1,183 @@
+package com.ghostchu.btn.sparkle.module.snapshot.bench;
+
+import com.ghostchu.btn.sparkle.SparkleApplication;
+import com.ghostchu.btn.sparkle.module.banhistory.BanHistoryService;
+import com.ghostchu.btn.sparkle.module.banhistory.internal.BanHistory;
+import com.ghostchu.btn.sparkle.module.banhistory.internal.BanHistoryRepository;
+import com.ghostchu.btn.sparkle.module.snapshot.SnapshotService;
+import com.ghostchu.btn.sparkle.module.snapshot.internal.Snapshot;
+import com.ghostchu.btn.sparkle.module.snapshot.internal.SnapshotRepository;
+import com.ghostchu.btn.sparkle.util.ipdb.IPGeoData;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * snapshot/banhistory 写入吞吐量：Hibernate saveAll 与 COPY (FORMAT binary) 对比，输出 rows/sec
+ * <p>
+ * 使用 Testcontainers 启动 PostgreSQL 与 Redis，并在本进程内启动 Sparkle。直接运行 main 方法，通过系统属性调整参数：
+ * <ul>
+ *     <li>bench.rows - 每轮写入的行数，默认 100000</li>
+ *     <li>bench.batch-size - 每批（每个事务）的行数，默认 500，与 service.ping.ingest.batch-size 一致</li>
+ *     <li>bench.rounds - 测量轮数，默认 3，另有一轮预热</li>
+ * </ul>
+ * 行不引用 user_application 与 torrent，两条路径写入的列完全相同。
+ */
+public class BulkInsertBenchmark {
+    public static void main(String[] args) throws Exception {
+        int rows = Integer.getInteger("bench.rows", 100_000);
+        int batchSize = Integer.getInteger("bench.batch-size", 500);
+        int rounds = Integer.getInteger("bench.rounds", 3);
+        try (var postgres = new PostgreSQLContainer<>("postgres:16-alpine")
+                .withDatabaseName("sparkledb")
+                .withUsername("sparkleusr")
+                .withPassword("sparklepwd");
+             var redis = new GenericContainer<>("redis:7-alpine").withExposedPorts(6379)) {
+            postgres.start();
+            redis.start();
+            try (var context = start(postgres, redis)) {
+                var benchmark = new BulkInsertBenchmark(context, rows, batchSize);
+                for (int round = 0; round <= rounds; round++) {
+                    String label = round == 0 ? "预热" : "第 " + round + " 轮";
+                    benchmark.run(label);
+                }
+            }
+        }
+    }
+
+    private static ConfigurableApplicationContext start(PostgreSQLContainer<?> postgres, GenericContainer<?> redis) {
+        return new SpringApplicationBuilder(SparkleApplication.class)
+                .properties(
+                        "spring.docker.compose.enabled=false",
+                        "spring.datasource.url=" + postgres.getJdbcUrl(),
+                        "spring.datasource.username=" + postgres.getUsername(),
+                        "spring.datasource.password=" + postgres.getPassword(),
+                        "spring.data.redis.host=" + redis.getHost(),
+                        "spring.data.redis.port=" + redis.getMappedPort(6379),
+                        "server.address=127.0.0.1",
+                        "server.port=0",
+                        "service.tracker.udp.enabled=false",
+                        "service.tracker.snapshot.enabled=false")
+                .run();
+    }
+
+    private final SnapshotRepository snapshotRepository;
+    private final SnapshotService snapshotService;
+    private final BanHistoryRepository banHistoryRepository;
+    private final BanHistoryService banHistoryService;
+    private final TransactionTemplate transaction;
+    private final int rows;
+    private final int batchSize;
+    private final Random random = new Random(42);
+
+    BulkInsertBenchmark(ConfigurableApplicationContext context, int rows, int batchSize) {
+        this.snapshotRepository = context.getBean(SnapshotRepository.class);
+        this.snapshotService = context.getBean(SnapshotService.class);
+        this.banHistoryRepository = context.getBean(BanHistoryRepository.class);
+        this.banHistoryService = context.getBean(BanHistoryService.class);
+        this.transaction = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        this.transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.rows = rows;
+        this.batchSize = batchSize;
+    }
+
+    void run(String label) {
+        report(label, "snapshot   saveAll", measure(this::snapshot,
+                batch -> transaction.executeWithoutResult(status -> snapshotRepository.saveAll(batch))));
+        report(label, "snapshot   COPY   ", measure(this::snapshot, snapshotService::saveSnapshotBatch));
+        report(label, "banhistory saveAll", measure(this::banHistory,
+                batch -> transaction.executeWithoutResult(status -> banHistoryRepository.saveAll(batch))));
+        report(label, "banhistory COPY   ", measure(this::banHistory, banHistoryService::saveBanHistoryBatch));
+    }
+
+    private <T> double measure(IntFunction<T> factory, Consumer<List<T>> writer) {
+        List<List<T>> batches = new ArrayList<>();
+        for (int from = 0; from < rows; from += batchSize) {
+            List<T> batch = new ArrayList<>(batchSize);
+            for (int i = from; i < Math.min(rows, from + batchSize); i++) {
+                batch.add(factory.apply(i));
+            }
+            batches.add(batch);
+        }
+        long start = System.nanoTime();
+        for (List<T> batch : batches) {
+            writer.accept(batch);
+        }
+        return rows / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static void report(String label, String path, double rowsPerSecond) {
+        System.out.printf("[%s] %s %,12.0f rows/sec%n", label, path, rowsPerSecond);
+    }
+
+    private Snapshot snapshot(int i) {
+        var now = new Timestamp(System.currentTimeMillis());
+        return Snapshot.builder()
+                .insertTime(now)
+                .populateTime(now)
+                .submitId(UUID.randomUUID().toString())
+                .peerIp(randomAddress())
+                .peerPort(1024 + random.nextInt(60000))
+                .peerId("-qB4650-")
+                .peerClientName("qBittorrent/4.6.5")
+                .fromPeerTraffic(random.nextLong(1L << 40))
+                .fromPeerTrafficSpeed(random.nextLong(1L << 24))
+                .toPeerTraffic(random.nextLong(1L << 40))
+                .toPeerTrafficSpeed(random.nextLong(1L << 24))
+                .peerProgress(random.nextDouble())
+                .downloaderProgress(random.nextDouble())
+                .flags("D X E P")
+                .submitterIp(randomAddress())
+                .build();
+    }
+
+    private BanHistory banHistory(int i) {
+        var now = new Timestamp(System.currentTimeMillis());
+        return BanHistory.builder()
+                .insertTime(now)
+                .populateTime(now)
+                .submitId(UUID.randomUUID().toString())
+                .peerIp(randomAddress())
+                .peerPort(1024 + random.nextInt(60000))
+                .peerId("-XL0019-")
+                .peerClientName("Xunlei 0.0.1.9")
+                .fromPeerTraffic(random.nextLong(1L << 40))
+                .fromPeerTrafficSpeed(random.nextLong(1L << 24))
+                .toPeerTraffic(random.nextLong(1L << 40))
+                .toPeerTrafficSpeed(random.nextLong(1L << 24))
+                .peerProgress(random.nextDouble())
+                .downloaderProgress(random.nextDouble())
+                .flags("D X E P")
+                .submitterIp(randomAddress())
+                .btnBan(false)
+                .module("com.ghostchu.peerbanhelper.module.impl.rule.ProgressCheatBlocker")
+                .rule("progress-cheat")
+                .banUniqueId(UUID.randomUUID().toString())
+                .geoIP(new IPGeoData(null, null, null, null, null, "CN", 4134L, null, null, null))
+                .build();
+    }
+
+    private InetAddress randomAddress() {
+        byte[] address = new byte[4];
+        random.nextBytes(address);
+        try {
+            return InetAddress.getByAddress(address);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
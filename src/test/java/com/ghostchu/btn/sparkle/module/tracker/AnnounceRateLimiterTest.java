@@ -0,0 +1,78 @@
+package com.ghostchu.btn.sparkle.module.tracker;
+
+import com.ghostchu.btn.sparkle.module.tracker.AnnounceRateLimiter.Decision;
+import com.ghostchu.btn.sparkle.module.tracker.internal.PeerEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnnounceRateLimiterTest {
+    private static final long MIN_INTERVAL = 60_000;
+    private static final int BURST = 2;
+
+    private final AnnounceRateLimiter limiter = new AnnounceRateLimiter(MIN_INTERVAL, BURST, 1024, new SimpleMeterRegistry());
+
+    @Test
+    void earlyRegularAnnouncesAreShortCircuitedThenDropped() {
+        assertEquals(Decision.ACCEPT, check(1, 1, PeerEvent.EMPTY));
+        assertEquals(Decision.SHORT_CIRCUIT, check(1, 1, PeerEvent.EMPTY));
+        assertEquals(Decision.SHORT_CIRCUIT, check(1, 1, PeerEvent.EMPTY));
+        assertEquals(Decision.DROP, check(1, 1, PeerEvent.EMPTY));
+        assertEquals(Decision.DROP, check(1, 1, PeerEvent.EMPTY));
+    }
+
+    @Test
+    void eventsAreAlwaysAcceptedAndResetStrikes() {
+        assertEquals(Decision.ACCEPT, check(1, 1, PeerEvent.STARTED));
+        assertEquals(Decision.ACCEPT, check(1, 1, PeerEvent.COMPLETED));
+        assertEquals(Decision.SHORT_CIRCUIT, check(1, 1, PeerEvent.EMPTY));
+        assertEquals(Decision.SHORT_CIRCUIT, check(1, 1, PeerEvent.EMPTY));
+        assertEquals(Decision.DROP, check(1, 1, PeerEvent.EMPTY));
+        assertEquals(Decision.ACCEPT, check(1, 1, PeerEvent.STOPPED));
+        assertEquals(Decision.SHORT_CIRCUIT, check(1, 1, PeerEvent.EMPTY));
+    }
+
+    @Test
+    void limitIsPerPeerAndTorrent() {
+        assertEquals(Decision.ACCEPT, check(1, 1, PeerEvent.EMPTY));
+        assertEquals(Decision.ACCEPT, check(1, 2, PeerEvent.EMPTY));
+        assertEquals(Decision.ACCEPT, check(2, 1, PeerEvent.EMPTY));
+        assertEquals(Decision.SHORT_CIRCUIT, check(1, 2, PeerEvent.EMPTY));
+    }
+
+    @Test
+    void fullBucketForgetsInsteadOfRejecting() {
+        // 只有一组 8 个槽，第 9 个条目覆盖最旧的条目
+        var limiter = new AnnounceRateLimiter(MIN_INTERVAL, BURST, 8, new SimpleMeterRegistry());
+        for (int peer = 1; peer <= 9; peer++) {
+            assertEquals(Decision.ACCEPT, check(limiter, 1, peer, PeerEvent.EMPTY));
+        }
+        assertTrue(IntStream.rangeClosed(1, 8).anyMatch(peer -> check(limiter, 1, peer, PeerEvent.EMPTY) == Decision.ACCEPT));
+    }
+
+    @Test
+    void zeroIntervalDisablesLimit() {
+        var limiter = new AnnounceRateLimiter(0, BURST, 1024, new SimpleMeterRegistry());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Decision.ACCEPT, check(limiter, 1, 1, PeerEvent.EMPTY));
+        }
+    }
+
+    private Decision check(int torrent, int peer, PeerEvent event) {
+        return check(limiter, torrent, peer, event);
+    }
+
+    private static Decision check(AnnounceRateLimiter limiter, int torrent, int peer, PeerEvent event) {
+        return limiter.check(bytes(torrent), bytes(peer), event);
+    }
+
+    private static byte[] bytes(int value) {
+        byte[] bytes = new byte[20];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+}
@@ -0,0 +1,392 @@
+package com.ghostchu.btn.sparkle.module.tracker.bench;
+
+import com.ghostchu.btn.sparkle.SparkleApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracker 压测工具：模拟 Zipf 分布热度的种子与按真实事件序列 Announce 的 Peer，
+ * 驱动 /tracker/announce 与 /tracker/scrape 并输出吞吐量与 p50/p99 延迟
+ * <p>
+ * 直接运行 main 方法，通过系统属性调整参数：
+ * <ul>
+ *     <li>bench.target - 已运行的 Sparkle 地址，例如 http://127.0.0.1:7799；留空则使用 Testcontainers
+ *     启动 PostgreSQL 与 Redis，并在本进程内启动 Sparkle，保证每次运行的环境一致</li>
+ *     <li>bench.torrents - 种子数，默认 10000</li>
+ *     <li>bench.peers - 模拟的 Peer 数，默认 20000</li>
+ *     <li>bench.zipf - 种子热度的 Zipf 指数，默认 1.0</li>
+ *     <li>bench.concurrency - 并发请求数，默认 256</li>
+ *     <li>bench.warmup - 预热秒数，默认 10</li>
+ *     <li>bench.duration - 测量秒数，默认 60</li>
+ *     <li>bench.scrape-ratio - Scrape 请求占比，默认 0.1</li>
+ * </ul>
+ * 每个 Peer 的生命周期为 started → 若干次定期 Announce → （下载者）completed → stopped，然后换一个种子重新开始。
+ * 为了在有限时间内产生足够的负载，两次 Announce 之间不等待 announce-interval。
+ */
+public class TrackerLoadGenerator {
+    private static final String USER_AGENT = "Sparkle-LoadGenerator/1.0";
+
+    public static void main(String[] args) throws Exception {
+        var settings = Settings.fromSystemProperties();
+        EmbeddedTracker embedded = null;
+        String target = settings.target();
+        if (target == null || target.isBlank()) {
+            embedded = EmbeddedTracker.start();
+            target = embedded.baseUrl();
+        }
+        try {
+            new TrackerLoadGenerator(settings, target).run();
+        } finally {
+            if (embedded != null) {
+                embedded.close();
+            }
+        }
+    }
+
+    private final Settings settings;
+    private final String target;
+    private final byte[][] torrents;
+    private final ZipfSampler popularity;
+    private final HttpClient client;
+    private volatile boolean running = true;
+    private volatile boolean measuring;
+
+    TrackerLoadGenerator(Settings settings, String target) {
+        this.settings = settings;
+        this.target = target;
+        Random random = new Random(42);
+        this.torrents = new byte[settings.torrents()][20];
+        for (byte[] torrent : torrents) {
+            random.nextBytes(torrent);
+        }
+        this.popularity = new ZipfSampler(settings.torrents(), settings.zipfExponent());
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    void run() throws InterruptedException {
+        System.out.printf("目标: %s，种子: %d，Peer: %d，Zipf: %.2f，并发: %d%n",
+                target, settings.torrents(), settings.peers(), settings.zipfExponent(), settings.concurrency());
+        List<Worker> workers = new ArrayList<>(settings.concurrency());
+        Random random = new Random(7);
+        int peersPerWorker = Math.max(1, settings.peers() / settings.concurrency());
+        for (int i = 0; i < settings.concurrency(); i++) {
+            SimulatedPeer[] peers = new SimulatedPeer[peersPerWorker];
+            for (int j = 0; j < peers.length; j++) {
+                peers[j] = new SimulatedPeer(random);
+            }
+            workers.add(new Worker(peers));
+        }
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        workers.forEach(executor::submit);
+
+        TimeUnit.SECONDS.sleep(settings.warmupSeconds());
+        measuring = true;
+        long start = System.nanoTime();
+        TimeUnit.SECONDS.sleep(settings.durationSeconds());
+        measuring = false;
+        long elapsed = System.nanoTime() - start;
+        running = false;
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+
+        report("announce", workers.stream().map(w -> w.announceLatency).toList(),
+                workers.stream().mapToLong(w -> w.announceErrors).sum(), elapsed);
+        report("scrape", workers.stream().map(w -> w.scrapeLatency).toList(),
+                workers.stream().mapToLong(w -> w.scrapeErrors).sum(), elapsed);
+    }
+
+    private static void report(String name, List<LatencyRecorder> recorders, long errors, long elapsedNanos) {
+        long[] merged = LatencyRecorder.merge(recorders);
+        if (merged.length == 0) {
+            System.out.printf("%-8s 没有完成的请求，错误: %d%n", name, errors);
+            return;
+        }
+        Arrays.sort(merged);
+        System.out.printf("%-8s 请求: %d，错误: %d，吞吐: %.1f req/s，p50: %.2f ms，p90: %.2f ms，p99: %.2f ms，p99.9: %.2f ms，max: %.2f ms%n",
+                name,
+                merged.length,
+                errors,
+                merged.length / (elapsedNanos / 1e9),
+                percentile(merged, 0.50),
+                percentile(merged, 0.90),
+                percentile(merged, 0.99),
+                percentile(merged, 0.999),
+                merged[merged.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private final class Worker implements Runnable {
+        private final SimulatedPeer[] peers;
+        private final LatencyRecorder announceLatency = new LatencyRecorder();
+        private final LatencyRecorder scrapeLatency = new LatencyRecorder();
+        private long announceErrors;
+        private long scrapeErrors;
+
+        private Worker(SimulatedPeer[] peers) {
+            this.peers = peers;
+        }
+
+        @Override
+        public void run() {
+            var random = ThreadLocalRandom.current();
+            int next = 0;
+            while (running) {
+                var peer = peers[next];
+                next = (next + 1) % peers.length;
+                boolean scrape = random.nextDouble() < settings.scrapeRatio();
+                var request = scrape ? scrapeRequest(peer, random) : announceRequest(peer);
+                long begin = System.nanoTime();
+                boolean ok;
+                try {
+                    ok = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+                } catch (Exception e) {
+                    ok = false;
+                }
+                long latency = System.nanoTime() - begin;
+                if (!measuring) {
+                    continue;
+                }
+                if (scrape) {
+                    if (ok) scrapeLatency.record(latency);
+                    else scrapeErrors++;
+                } else {
+                    if (ok) announceLatency.record(latency);
+                    else announceErrors++;
+                }
+            }
+        }
+
+        private HttpRequest announceRequest(SimulatedPeer peer) {
+            var query = new StringBuilder(256);
+            var event = peer.advance(popularity);
+            query.append("info_hash=");
+            percentEncode(torrents[peer.torrent], query);
+            query.append("&peer_id=");
+            percentEncode(peer.peerId, query);
+            query.append("&port=").append(peer.port)
+                    .append("&uploaded=").append(peer.uploaded)
+                    .append("&downloaded=").append(peer.downloaded)
+                    .append("&left=").append(peer.left)
+                    .append("&compact=1&numwant=50");
+            if (event != null) {
+                query.append("&event=").append(event);
+            }
+            return request("/tracker/announce?" + query, peer.ip);
+        }
+
+        private HttpRequest scrapeRequest(SimulatedPeer peer, Random random) {
+            var query = new StringBuilder(128);
+            int hashes = 1 + random.nextInt(5);
+            for (int i = 0; i < hashes; i++) {
+                query.append(i == 0 ? "info_hash=" : "&info_hash=");
+                percentEncode(torrents[popularity.sample(random)], query);
+            }
+            return request("/tracker/scrape?" + query, peer.ip);
+        }
+
+        private HttpRequest request(String pathAndQuery, String ip) {
+            return HttpRequest.newBuilder(URI.create(target + pathAndQuery))
+                    .header("User-Agent", USER_AGENT)
+                    .header("X-Forwarded-For", ip)
+                    .timeout(Duration.ofSeconds(10))
+                    .GET()
+                    .build();
+        }
+    }
+
+    private static void percentEncode(byte[] bytes, StringBuilder into) {
+        for (byte b : bytes) {
+            int c = b & 0xFF;
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '_' || c == '.' || c == '~') {
+                into.append((char) c);
+            } else {
+                into.append('%').append(Character.forDigit(c >>> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+            }
+        }
+    }
+
+    /**
+     * 单个模拟 Peer 的 Announce 状态机
+     */
+    static final class SimulatedPeer {
+        private static final long PIECE = 4L * 1024 * 1024;
+        final byte[] peerId = new byte[20];
+        final String ip;
+        final int port;
+        int torrent = -1;
+        long uploaded;
+        long downloaded;
+        long left;
+        int remainingAnnounces;
+
+        SimulatedPeer(Random random) {
+            byte[] prefix = "-qB4630-".getBytes();
+            System.arraycopy(prefix, 0, peerId, 0, prefix.length);
+            for (int i = prefix.length; i < peerId.length; i++) {
+                peerId[i] = (byte) ('a' + random.nextInt(26));
+            }
+            this.ip = "10." + random.nextInt(256) + "." + random.nextInt(256) + "." + (1 + random.nextInt(254));
+            this.port = 1024 + random.nextInt(60000);
+        }
+
+        /**
+         * 推进到下一次 Announce
+         *
+         * @return 本次 Announce 的 event 参数，定期 Announce 返回 null
+         */
+        String advance(ZipfSampler popularity) {
+            var random = ThreadLocalRandom.current();
+            if (torrent < 0) {
+                torrent = popularity.sample(random);
+                uploaded = 0;
+                downloaded = 0;
+                // 约 30% 的 Peer 一开始就是做种者
+                left = random.nextDouble() < 0.3 ? 0 : PIECE * (1 + random.nextInt(64));
+                remainingAnnounces = 2 + random.nextInt(8);
+                return "started";
+            }
+            if (remainingAnnounces-- <= 0) {
+                torrent = -1;
+                return "stopped";
+            }
+            uploaded += random.nextLong(PIECE);
+            if (left > 0) {
+                long chunk = Math.min(left, PIECE * (1 + random.nextInt(16)));
+                downloaded += chunk;
+                left -= chunk;
+                if (left == 0) {
+                    return "completed";
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 基于累积分布表与二分查找的 Zipf 采样器，排名越靠前的种子越热门
+     */
+    static final class ZipfSampler {
+        private final double[] cdf;
+
+        ZipfSampler(int size, double exponent) {
+            cdf = new double[size];
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += 1.0d / Math.pow(i + 1, exponent);
+                cdf[i] = sum;
+            }
+            for (int i = 0; i < size; i++) {
+                cdf[i] /= sum;
+            }
+        }
+
+        int sample(Random random) {
+            int index = Arrays.binarySearch(cdf, random.nextDouble());
+            return Math.min(cdf.length - 1, index >= 0 ? index : -index - 1);
+        }
+    }
+
+    /**
+     * 单线程写入的延迟记录，测量结束后合并
+     */
+    static final class LatencyRecorder {
+        private long[] values = new long[1 << 16];
+        private int size;
+
+        void record(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+
+        static long[] merge(List<LatencyRecorder> recorders) {
+            long[] merged = new long[recorders.stream().mapToInt(r -> r.size).sum()];
+            int pos = 0;
+            for (LatencyRecorder recorder : recorders) {
+                System.arraycopy(recorder.values, 0, merged, pos, recorder.size);
+                pos += recorder.size;
+            }
+            return merged;
+        }
+    }
+
+    record Settings(String target, int torrents, int peers, double zipfExponent, int concurrency,
+                    int warmupSeconds, int durationSeconds, double scrapeRatio) {
+        static Settings fromSystemProperties() {
+            return new Settings(
+                    System.getProperty("bench.target"),
+                    Integer.getInteger("bench.torrents", 10_000),
+                    Integer.getInteger("bench.peers", 20_000),
+                    Double.parseDouble(System.getProperty("bench.zipf", "1.0")),
+                    Integer.getInteger("bench.concurrency", 256),
+                    Integer.getInteger("bench.warmup", 10),
+                    Integer.getInteger("bench.duration", 60),
+                    Double.parseDouble(System.getProperty("bench.scrape-ratio", "0.1")));
+        }
+    }
+
+    /**
+     * 使用 Testcontainers 提供的 PostgreSQL 与 Redis 在本进程内启动 Sparkle
+     */
+    record EmbeddedTracker(ConfigurableApplicationContext context,
+                           PostgreSQLContainer<?> postgres,
+                           GenericContainer<?> redis,
+                           String baseUrl) implements AutoCloseable {
+        @SuppressWarnings("resource")
+        static EmbeddedTracker start() {
+            var postgres = new PostgreSQLContainer<>("postgres:16-alpine")
+                    .withDatabaseName("sparkledb")
+                    .withUsername("sparkleusr")
+                    .withPassword("sparklepwd");
+            var redis = new GenericContainer<>("redis:7-alpine").withExposedPorts(6379);
+            postgres.start();
+            redis.start();
+            var context = new SpringApplicationBuilder(SparkleApplication.class)
+                    .properties(
+                            "spring.docker.compose.enabled=false",
+                            "spring.datasource.url=" + postgres.getJdbcUrl(),
+                            "spring.datasource.username=" + postgres.getUsername(),
+                            "spring.datasource.password=" + postgres.getPassword(),
+                            "spring.data.redis.host=" + redis.getHost(),
+                            "spring.data.redis.port=" + redis.getMappedPort(6379),
+                            "server.address=127.0.0.1",
+                            "server.port=0",
+                            "service.tracker.udp.enabled=false",
+                            "service.tracker.min-interval=0")
+                    .run();
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            return new EmbeddedTracker(context, postgres, redis, "http://127.0.0.1:" + port);
+        }
+
+        @Override
+        public void close() {
+            context.close();
+            redis.stop();
+            postgres.stop();
+        }
+    }
+}
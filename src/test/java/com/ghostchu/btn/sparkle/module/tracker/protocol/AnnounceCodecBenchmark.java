@@ -0,0 +1,146 @@
+package com.ghostchu.btn.sparkle.module.tracker.protocol;
+
+import com.ghostchu.btn.sparkle.util.BencodeUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetAddress;
+import java.net.URLDecoder;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比旧的 Announce 解析/响应路径（URLDecoder + HashMap + InetAddress.getByName + Bencode 库）
+ * 与 {@link AnnounceRequestParser} + {@link BencodeWriter}
+ * <p>
+ * 直接在 IDE 中运行 main 方法即可。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-XX:+UseParallelGC")
+public class AnnounceCodecBenchmark {
+    private static final String QUERY = "info_hash=%12%34Vx%9A%BC%DE%F1%23Eg%89%AB%CD%EF%124Vx%9A"
+                                        + "&peer_id=-qB4630-k8hj0wgej6ch&port=51413&uploaded=1048576&downloaded=52428800"
+                                        + "&left=1073741824&corrupt=0&key=8A2B3C4D&event=started&numwant=200&compact=1"
+                                        + "&no_peer_id=1&supportcrypto=1&redundant=0&ipv6=2001%3Adb8%3A%3A1";
+
+    @Param({"50", "200"})
+    private int peerCount;
+
+    private byte[] v4;
+    private byte[] v6;
+    private List<LegacyPeer> legacyV4;
+    private List<LegacyPeer> legacyV6;
+    private AnnounceRequest reusable;
+
+    @Setup
+    public void setup() throws UnknownHostException {
+        Random random = new Random(42);
+        legacyV4 = new ArrayList<>(peerCount);
+        legacyV6 = new ArrayList<>(peerCount / 4);
+        ByteBuffer compactV4 = ByteBuffer.allocate(6 * peerCount);
+        ByteBuffer compactV6 = ByteBuffer.allocate(18 * peerCount);
+        for (int i = 0; i < peerCount; i++) {
+            byte[] peerId = new byte[20];
+            random.nextBytes(peerId);
+            byte[] address = new byte[i % 4 == 0 ? 16 : 4];
+            random.nextBytes(address);
+            int port = 1024 + random.nextInt(60000);
+            var peer = new LegacyPeer(InetAddress.getByAddress(address).getHostAddress(), port, peerId);
+            (address.length == 16 ? legacyV6 : legacyV4).add(peer);
+            (address.length == 16 ? compactV6 : compactV4).put(address).putShort((short) port);
+        }
+        v4 = Arrays.copyOf(compactV4.array(), compactV4.position());
+        v6 = Arrays.copyOf(compactV6.array(), compactV6.position());
+        reusable = new AnnounceRequest();
+    }
+
+    @Benchmark
+    public void legacyParse(Blackhole bh) {
+        Map<String, String> params = new HashMap<>();
+        List<byte[]> infoHashes = new ArrayList<>();
+        for (String param : QUERY.split("&")) {
+            int eq = param.indexOf('=');
+            String key = param.substring(0, eq);
+            String value = URLDecoder.decode(param.substring(eq + 1), StandardCharsets.ISO_8859_1);
+            if (key.equals("info_hash")) {
+                infoHashes.add(value.getBytes(StandardCharsets.ISO_8859_1));
+            } else {
+                params.put(key, value);
+            }
+        }
+        bh.consume(infoHashes);
+        bh.consume(params.get("peer_id").getBytes(StandardCharsets.ISO_8859_1));
+        bh.consume(Integer.parseInt(params.get("port")));
+        bh.consume(Long.parseLong(params.get("uploaded")));
+        bh.consume(Long.parseLong(params.get("downloaded")));
+        bh.consume(Long.parseLong(params.get("left")));
+        bh.consume(Integer.parseInt(params.get("numwant")));
+        bh.consume("1".equals(params.get("compact")));
+        bh.consume(params.get("event"));
+        bh.consume(params.get("ipv6"));
+    }
+
+    @Benchmark
+    public AnnounceRequest newParse() {
+        return AnnounceRequestParser.parse(QUERY, reusable);
+    }
+
+    @Benchmark
+    public byte[] legacyEncode() throws UnknownHostException {
+        var map = new HashMap<String, Object>();
+        map.put("interval", 1800L);
+        map.put("complete", 120L);
+        map.put("incomplete", 30L);
+        map.put("downloaded", 4000L);
+        map.put("external ip", "203.0.113.7");
+        map.put("peers", legacyCompact(legacyV4, false));
+        map.put("peers6", legacyCompact(legacyV6, true));
+        return BencodeUtil.INSTANCE.encode(map);
+    }
+
+    @Benchmark
+    public byte[] newEncode() {
+        var writer = new BencodeWriter(128 + 2 * (v4.length + v6.length));
+        return writer.startDict()
+                .key("complete").integer(120)
+                .key("downloaded").integer(4000)
+                .key("external ip").string("203.0.113.7")
+                .key("incomplete").integer(30)
+                .key("interval").integer(1800)
+                .key("peers").string(v4)
+                .key("peers6").string(v6)
+                .end()
+                .toByteArray();
+    }
+
+    /**
+     * 旧实现中 Peer 以字符串形式保存，每次响应都要重新解析地址；新实现直接输出 Swarm 中预先构建的紧凑格式数据
+     */
+    private static String legacyCompact(List<LegacyPeer> peers, boolean isV6) throws UnknownHostException {
+        ByteBuffer buffer = ByteBuffer.allocate((isV6 ? 18 : 6) * peers.size());
+        for (LegacyPeer peer : peers) {
+            buffer.put(InetAddress.getByName(peer.ip()).getAddress());
+            buffer.putShort((short) peer.port());
+        }
+        return new String(buffer.array(), StandardCharsets.ISO_8859_1);
+    }
+
+    private record LegacyPeer(String ip, int port, byte[] peerId) {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AnnounceCodecBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
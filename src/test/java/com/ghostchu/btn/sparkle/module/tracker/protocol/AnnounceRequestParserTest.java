@@ -0,0 +1,103 @@
+package com.ghostchu.btn.sparkle.module.tracker.protocol;
+
+import com.ghostchu.btn.sparkle.module.tracker.internal.PeerEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnnounceRequestParserTest {
+    private static final String INFO_HASH = "%12%34%56%78%9a%bc%de%f1%23%45%67%89%ab%cd%ef%124Vx%9A";
+    private static final String PEER_ID = "-qB4650-abcdefghijkl";
+    private static final String REQUIRED = "info_hash=" + INFO_HASH + "&peer_id=" + PEER_ID
+                                           + "&port=6881&uploaded=1&downloaded=2&left=3";
+
+    @Test
+    void parsesAllParameters() {
+        var request = parse(REQUIRED + "&compact=1&numwant=80&event=completed&ip=1.2.3.4&ipv6=2001%3Adb8%3A%3A1&key=ignored");
+        assertArrayEquals(new byte[]{0x12, 0x34, 0x56, 0x78, (byte) 0x9a, (byte) 0xbc, (byte) 0xde, (byte) 0xf1, 0x23, 0x45,
+                0x67, (byte) 0x89, (byte) 0xab, (byte) 0xcd, (byte) 0xef, 0x12, '4', 'V', 'x', (byte) 0x9a}, request.getInfoHash());
+        assertEquals(PEER_ID, new String(request.getPeerId()));
+        assertEquals(6881, request.getPort());
+        assertEquals(1, request.getUploaded());
+        assertEquals(2, request.getDownloaded());
+        assertEquals(3, request.getLeft());
+        assertTrue(request.isCompact());
+        assertEquals(80, request.getNumWant());
+        assertEquals(PeerEvent.COMPLETED, request.getEvent());
+        assertEquals(List.of("1.2.3.4", "2001:db8::1"), request.getIps());
+    }
+
+    @Test
+    void optionalParametersHaveDefaults() {
+        var request = parse(REQUIRED + "&compact=0&event=");
+        assertFalse(request.isCompact());
+        assertEquals(50, request.getNumWant());
+        assertEquals(PeerEvent.EMPTY, request.getEvent());
+        assertEquals(List.of(), request.getIps());
+        assertEquals(10, parse(REQUIRED + "&num_want=10").getNumWant());
+        assertEquals(PeerEvent.STARTED, parse(REQUIRED + "&event=started").getEvent());
+        assertEquals(PeerEvent.STOPPED, parse(REQUIRED + "&event=stopped").getEvent());
+    }
+
+    @Test
+    void reusedRequestIsReset() {
+        var request = new AnnounceRequest();
+        AnnounceRequestParser.parse(REQUIRED + "&compact=1&numwant=10&event=started&ip=1.2.3.4", request);
+        AnnounceRequestParser.parse(REQUIRED.replace("port=6881", "port=1"), request);
+        assertEquals(1, request.getPort());
+        assertFalse(request.isCompact());
+        assertEquals(50, request.getNumWant());
+        assertEquals(PeerEvent.EMPTY, request.getEvent());
+        assertEquals(List.of(), request.getIps());
+    }
+
+    @Test
+    void plusDecodesToSpace() {
+        var request = parse(REQUIRED.replace(PEER_ID, "-qB4650-abcdefghijk+"));
+        assertEquals("-qB4650-abcdefghijk ", new String(request.getPeerId()));
+    }
+
+    @Test
+    void rejectsInvalidInfoHashAndPeerId() {
+        assertInvalid(null);
+        assertInvalid(REQUIRED.replace("info_hash=" + INFO_HASH + "&", ""));
+        // 多个 info_hash 是 scrape 的语法，Announce 不接受
+        assertInvalid(REQUIRED + "&info_hash=" + INFO_HASH);
+        assertInvalid(REQUIRED.replace(INFO_HASH, INFO_HASH + "%00"));
+        assertInvalid(REQUIRED.replace(INFO_HASH, INFO_HASH.substring(3)));
+        assertInvalid(REQUIRED.replace("&peer_id=" + PEER_ID, ""));
+        assertInvalid(REQUIRED.replace(PEER_ID, PEER_ID.substring(1)));
+    }
+
+    @Test
+    void rejectsMalformedPercentEncoding() {
+        assertInvalid(REQUIRED.replace(PEER_ID, "-qB4650-abcdefghijk%"));
+        assertInvalid(REQUIRED.replace(PEER_ID, "-qB4650-abcdefghijk%4"));
+        assertInvalid(REQUIRED.replace(PEER_ID, "-qB4650-abcdefghijk%zz"));
+    }
+
+    @Test
+    void rejectsInvalidNumbers() {
+        assertInvalid(REQUIRED.replace("&left=3", ""));
+        assertInvalid(REQUIRED.replace("left=3", "left="));
+        assertInvalid(REQUIRED.replace("left=3", "left=-3"));
+        assertInvalid(REQUIRED.replace("left=3", "left=1e3"));
+        // 超过 18 位可能溢出 long
+        assertInvalid(REQUIRED.replace("left=3", "left=1234567890123456789"));
+        assertEquals(123456789012345678L, parse(REQUIRED.replace("left=3", "left=123456789012345678")).getLeft());
+        assertInvalid(REQUIRED.replace("port=6881", "port=65536"));
+        // 截断后不能回绕到合法范围内
+        assertInvalid(REQUIRED.replace("port=6881", "port=4294967297"));
+        assertEquals(65535, parse(REQUIRED.replace("port=6881", "port=65535")).getPort());
+    }
+
+    private static AnnounceRequest parse(String query) {
+        return AnnounceRequestParser.parse(query, new AnnounceRequest());
+    }
+
+    private static void assertInvalid(String query) {
+        assertThrows(IllegalArgumentException.class, () -> parse(query), query);
+    }
+}
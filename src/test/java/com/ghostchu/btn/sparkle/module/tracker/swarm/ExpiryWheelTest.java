@@ -0,0 +1,85 @@
+package com.ghostchu.btn.sparkle.module.tracker.swarm;
+
+import com.ghostchu.btn.sparkle.module.tracker.internal.PeerEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpiryWheelTest {
+    private static final long TICK = 1000;
+    private static final long INACTIVE_INTERVAL = 10_000;
+    private static final long NOW = 1_000_000;
+
+    private final ExpiryWheel wheel = new ExpiryWheel(TICK, INACTIVE_INTERVAL, NOW);
+    private final List<Long> handled = new ArrayList<>();
+
+    @Test
+    void entriesAreHandledOnceTheirTickHasPassed() {
+        wheel.schedule(null, peer(), NOW);
+        wheel.schedule(null, peer(), NOW + 2 * TICK);
+        assertEquals(2, wheel.pending());
+
+        advance(NOW - TICK);
+        assertEquals(List.of(), handled);
+        advance(NOW);
+        assertEquals(List.of(NOW), handled);
+        advance(NOW + TICK);
+        assertEquals(List.of(NOW), handled);
+        advance(NOW + 2 * TICK);
+        assertEquals(List.of(NOW, NOW + 2 * TICK), handled);
+        assertEquals(0, wheel.pending());
+    }
+
+    @Test
+    void eachAnnounceIsHandedBackWithItsOwnTimestamp() {
+        // 同一 Peer 多次 Announce 留下多个条目，由 Swarm 根据时间戳判断哪个仍然有效
+        var peer = peer();
+        wheel.schedule(null, peer, NOW);
+        wheel.schedule(null, peer, NOW + TICK);
+        advance(NOW + TICK);
+        assertEquals(List.of(NOW, NOW + TICK), handled);
+    }
+
+    @Test
+    void entriesBehindTheCursorGoToTheNextTick() {
+        advance(NOW);
+        // 还原时登记的条目可能早于已转过的桶
+        wheel.schedule(null, peer(), NOW - 5 * TICK);
+        advance(NOW + TICK);
+        assertEquals(List.of(NOW - 5 * TICK), handled);
+    }
+
+    @Test
+    void entriesAheadOfALaggingCursorWaitForTheirTick() {
+        // 清理延误时游标落后超过一圈，条目会落进即将转到的桶
+        long late = NOW + 3 * TICK;
+        wheel.schedule(null, peer(), late);
+        advance(NOW);
+        assertEquals(List.of(), handled);
+        assertEquals(1, wheel.pending());
+        advance(late);
+        assertEquals(List.of(late), handled);
+    }
+
+    @Test
+    void clockJumpTurnsAtMostOneRound() {
+        wheel.schedule(null, peer(), NOW);
+        wheel.schedule(null, peer(), NOW + INACTIVE_INTERVAL);
+        advance(NOW + 365L * 24 * 3600 * 1000);
+        handled.sort(null);
+        assertEquals(List.of(NOW, NOW + INACTIVE_INTERVAL), handled);
+        assertEquals(0, wheel.pending());
+    }
+
+    private void advance(long before) {
+        wheel.advance(before, (swarm, peer, lastTimeSeen) -> handled.add(lastTimeSeen));
+    }
+
+    private static SwarmPeer peer() {
+        return new SwarmPeer(new byte[PeerId.LENGTH], new byte[][]{{10, 0, 0, 1}}, 6881, new byte[]{10, 0, 0, 1},
+                0, 0, 0, 0, 100, PeerEvent.STARTED, "test", NOW, NOW);
+    }
+}
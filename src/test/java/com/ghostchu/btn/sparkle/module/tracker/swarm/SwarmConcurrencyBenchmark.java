@@ -0,0 +1,106 @@
+package com.ghostchu.btn.sparkle.module.tracker.swarm;
+
+import com.ghostchu.btn.sparkle.module.tracker.TrackerService;
+import com.ghostchu.btn.sparkle.module.tracker.internal.PeerEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程 Announce 吞吐量：一半请求打在少数几个热门种子上，另一半分散在长尾种子上
+ * <p>
+ * 对比单分片与多分片的 {@link SwarmRegistry}，线程数取 CPU 核数。直接在 IDE 中运行 main 方法即可。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(Threads.MAX)
+public class SwarmConcurrencyBenchmark {
+    private static final int HOT_TORRENTS = 8;
+    private static final int LONG_TAIL_TORRENTS = 200_000;
+    private static final int PEERS_PER_THREAD = 4096;
+
+    @Param({"1", "0"})
+    private int shards;
+    @Param({"0.5"})
+    private double hotRatio;
+
+    private SwarmRegistry registry;
+    private InfoHash[] hot;
+    private InfoHash[] longTail;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        registry = new SwarmRegistry(3_800_000L, 1000L, shards, 1_000_000L, new SimpleMeterRegistry());
+        Random random = new Random(42);
+        hot = new InfoHash[HOT_TORRENTS];
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = randomInfoHash(random);
+        }
+        longTail = new InfoHash[LONG_TAIL_TORRENTS];
+        for (int i = 0; i < longTail.length; i++) {
+            longTail[i] = randomInfoHash(random);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private TrackerService.PeerAnnounce[] announces;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setup() throws UnknownHostException {
+            var random = ThreadLocalRandom.current();
+            announces = new TrackerService.PeerAnnounce[PEERS_PER_THREAD];
+            for (int i = 0; i < announces.length; i++) {
+                byte[] peerId = new byte[20];
+                random.nextBytes(peerId);
+                byte[] address = new byte[4];
+                random.nextBytes(address);
+                InetAddress ip = InetAddress.getByAddress(address);
+                announces[i] = new TrackerService.PeerAnnounce(
+                        new byte[20], peerId, ip, List.of(ip), 1024 + random.nextInt(60000),
+                        0, 0, random.nextBoolean() ? 0 : 1024, PeerEvent.EMPTY, "Benchmark");
+            }
+        }
+
+        TrackerService.PeerAnnounce next() {
+            var announce = announces[next];
+            next = (next + 1) % announces.length;
+            return announce;
+        }
+    }
+
+    @Benchmark
+    public Swarm.AnnounceResult announce(Client client) {
+        var random = ThreadLocalRandom.current();
+        InfoHash infoHash = random.nextDouble() < hotRatio
+                ? hot[random.nextInt(hot.length)]
+                : longTail[random.nextInt(longTail.length)];
+        return registry.announce(infoHash, client.next());
+    }
+
+    private static InfoHash randomInfoHash(Random random) {
+        byte[] bytes = new byte[InfoHash.LENGTH];
+        random.nextBytes(bytes);
+        return InfoHash.of(bytes);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SwarmConcurrencyBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
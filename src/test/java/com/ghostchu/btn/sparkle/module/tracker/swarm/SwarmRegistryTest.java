@@ -0,0 +1,94 @@
+package com.ghostchu.btn.sparkle.module.tracker.swarm;
+
+import com.ghostchu.btn.sparkle.module.tracker.TrackerService;
+import com.ghostchu.btn.sparkle.module.tracker.internal.PeerEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SwarmRegistryTest {
+    private static final long INACTIVE_INTERVAL = 60_000;
+    private static final InfoHash INFO_HASH = InfoHash.of(bytes(1, InfoHash.LENGTH));
+
+    private final SwarmRegistry registry = new SwarmRegistry(INACTIVE_INTERVAL, 1000, 4, 1000, new SimpleMeterRegistry());
+
+    @Test
+    void leaveAndReturnKeepsCounters() throws UnknownHostException {
+        announce(1, PeerEvent.STARTED, 100);
+        announce(1, PeerEvent.COMPLETED, 0);
+        announce(2, PeerEvent.STARTED, 100);
+        announce(1, PeerEvent.STOPPED, 0);
+        announce(2, PeerEvent.STOPPED, 100);
+        // 最后一个 Peer 离开后 Swarm 被移除，Scrape 仍能看到累计完成数
+        assertNull(registry.get(INFO_HASH));
+        assertEquals(new TrackerService.ScrapeResponse(0, 0, 1), registry.scrape(INFO_HASH));
+
+        announce(3, PeerEvent.STARTED, 100);
+        var swarm = registry.get(INFO_HASH);
+        assertEquals(3, swarm.getLeechCount());
+        assertEquals(1, swarm.getDownloadedCount());
+        announce(3, PeerEvent.COMPLETED, 0);
+        assertEquals(new TrackerService.ScrapeResponse(1, 0, 2), registry.scrape(INFO_HASH));
+        // 计数器已交还给 Swarm，不会在下次移除前重复保留
+        assertFalse(registry.retiredCounters().containsKey(INFO_HASH));
+    }
+
+    @Test
+    void expiredSwarmKeepsCounters() throws UnknownHostException {
+        announce(1, PeerEvent.STARTED, 100);
+        announce(1, PeerEvent.COMPLETED, 0);
+        long expired = registry.expire(System.currentTimeMillis() + INACTIVE_INTERVAL * 2, (swarm, peer) -> {
+        });
+        assertEquals(1, expired);
+        assertNull(registry.get(INFO_HASH));
+        assertEquals(new TrackerService.ScrapeResponse(0, 0, 1), registry.scrape(INFO_HASH));
+
+        announce(1, PeerEvent.EMPTY, 0);
+        assertEquals(1, registry.get(INFO_HASH).getDownloadedCount());
+        assertEquals(1, registry.get(INFO_HASH).getLeechCount());
+    }
+
+    @Test
+    void restoredCountersWithoutPeersAreUsedOnReturn() throws UnknownHostException {
+        registry.restoreCounters(INFO_HASH, new Swarm.Counters(10, 7, 1000, 2000));
+        assertNull(registry.get(INFO_HASH));
+        assertEquals(new TrackerService.ScrapeResponse(0, 0, 7), registry.scrape(INFO_HASH));
+
+        announce(1, PeerEvent.STARTED, 100);
+        var swarm = registry.get(INFO_HASH);
+        assertEquals(11, swarm.getLeechCount());
+        assertEquals(7, swarm.getDownloadedCount());
+        assertEquals(1000, swarm.getFirstTimeSeen());
+    }
+
+    @Test
+    void unknownInfoHashScrapesAsZero() {
+        assertEquals(new TrackerService.ScrapeResponse(0, 0, 0), registry.scrape(InfoHash.of(bytes(2, InfoHash.LENGTH))));
+    }
+
+    @Test
+    void evictEmptyRetainsCountersOfRestoredSwarms() {
+        registry.getOrCreate(INFO_HASH, 1000).restoreCounters(5, 3, 1000, 2000);
+        assertEquals(1, registry.evictEmpty());
+        assertNull(registry.get(INFO_HASH));
+        assertEquals(new TrackerService.ScrapeResponse(0, 0, 3), registry.scrape(INFO_HASH));
+    }
+
+    private void announce(int peer, PeerEvent event, long left) throws UnknownHostException {
+        var address = InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) peer});
+        registry.announce(INFO_HASH, new TrackerService.PeerAnnounce(INFO_HASH.bytes(), bytes(peer, PeerId.LENGTH),
+                address, List.of(address), 6881, 0, 0, left, event, "test"));
+    }
+
+    private static byte[] bytes(int value, int length) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+}
@@ -0,0 +1,77 @@
+package com.ghostchu.btn.sparkle.module.tracker.swarm;
+
+import com.ghostchu.btn.sparkle.module.tracker.TrackerService;
+import com.ghostchu.btn.sparkle.module.tracker.internal.PeerEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SwarmSnapshotStoreTest {
+    private static final long INACTIVE_INTERVAL = 60_000;
+
+    @Test
+    void writtenSnapshotRestoresPeersAndCounters() throws IOException {
+        Path dir = Files.createTempDirectory("sparkle-snapshot");
+        Path path = dir.resolve("tracker.snapshot");
+        var source = registry();
+        var active = InfoHash.of(bytes(1, InfoHash.LENGTH));
+        var retired = InfoHash.of(bytes(2, InfoHash.LENGTH));
+        announce(source, active, 1, PeerEvent.STARTED, "1.2.3.4");
+        announce(source, active, 2, PeerEvent.COMPLETED, "2001:db8::1");
+        announce(source, retired, 3, PeerEvent.COMPLETED, "5.6.7.8");
+        announce(source, retired, 3, PeerEvent.STOPPED, "5.6.7.8");
+        new SwarmSnapshotStore(source, true, path.toString(), INACTIVE_INTERVAL).write();
+        assertTrue(Files.isRegularFile(path));
+        assertFalse(Files.exists(dir.resolve("tracker.snapshot.tmp")));
+
+        var restored = registry();
+        assertTrue(new SwarmSnapshotStore(restored, true, path.toString(), INACTIVE_INTERVAL).load());
+        var swarm = restored.get(active);
+        assertEquals(2, swarm.size());
+        assertEquals(1, swarm.getLeechCount());
+        assertEquals(1, swarm.getDownloadedCount());
+        assertEquals(source.get(active).scrape(), swarm.scrape());
+        // 已移除的种子只还原计数器
+        assertNull(restored.get(retired));
+        assertEquals(new TrackerService.ScrapeResponse(0, 0, 1), restored.scrape(retired));
+    }
+
+    @Test
+    void corruptedSnapshotIsSkipped() throws IOException {
+        Path path = Files.createTempDirectory("sparkle-snapshot").resolve("tracker.snapshot");
+        var source = registry();
+        announce(source, InfoHash.of(bytes(1, InfoHash.LENGTH)), 1, PeerEvent.STARTED, "1.2.3.4");
+        new SwarmSnapshotStore(source, true, path.toString(), INACTIVE_INTERVAL).write();
+        byte[] data = Files.readAllBytes(path);
+        data[data.length / 2] ^= 1;
+        Files.write(path, data);
+        assertFalse(new SwarmSnapshotStore(registry(), true, path.toString(), INACTIVE_INTERVAL).load());
+        Files.write(path, Arrays.copyOf(data, 10));
+        assertFalse(new SwarmSnapshotStore(registry(), true, path.toString(), INACTIVE_INTERVAL).load());
+    }
+
+    private static SwarmRegistry registry() {
+        return new SwarmRegistry(INACTIVE_INTERVAL, 1000, 2, 1000, new SimpleMeterRegistry());
+    }
+
+    private static void announce(SwarmRegistry registry, InfoHash infoHash, int peer, PeerEvent event, String ip)
+            throws IOException {
+        var address = InetAddress.getByName(ip);
+        registry.announce(infoHash, new TrackerService.PeerAnnounce(infoHash.bytes(), bytes(peer, PeerId.LENGTH),
+                address, List.of(address), 6881, 0, 0, event == PeerEvent.COMPLETED ? 0 : 100, event, "test"));
+    }
+
+    private static byte[] bytes(int value, int length) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+}
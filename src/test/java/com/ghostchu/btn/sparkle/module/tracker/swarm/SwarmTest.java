@@ -0,0 +1,151 @@
+package com.ghostchu.btn.sparkle.module.tracker.swarm;
+
+import com.ghostchu.btn.sparkle.module.tracker.TrackerService;
+import com.ghostchu.btn.sparkle.module.tracker.internal.PeerEvent;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SwarmTest {
+    private static final long NOW = 1_000_000;
+    private static final InfoHash INFO_HASH = InfoHash.of(bytes(1, InfoHash.LENGTH));
+
+    private final LongAdder totalPeers = new LongAdder();
+    private final ExpiryWheel wheel = new ExpiryWheel(1000, 60_000, NOW);
+    private final Swarm swarm = new Swarm(INFO_HASH, NOW, wheel, totalPeers);
+
+    @Test
+    void peersReturnsCopies() throws UnknownHostException {
+        announce(1, PeerEvent.STARTED, 100, "10.0.0.1");
+        var copy = swarm.peers().getFirst();
+        copy.setLeft(0);
+        copy.setPort(1);
+        var peer = swarm.peers().getFirst();
+        assertEquals(100, peer.getLeft());
+        assertEquals(6881, peer.getPort());
+        assertEquals(0, swarm.seeders());
+    }
+
+    @Test
+    void announceMaintainsCountsAndCounters() throws UnknownHostException {
+        announce(1, PeerEvent.STARTED, 100, "10.0.0.1");
+        announce(2, PeerEvent.STARTED, 0, "10.0.0.2");
+        assertEquals(new TrackerService.ScrapeResponse(1, 1, 0), swarm.scrape());
+        assertEquals(2, totalPeers.sum());
+
+        // 下载完成后换到做种数组
+        announce(1, PeerEvent.COMPLETED, 0, "10.0.0.1");
+        assertEquals(new TrackerService.ScrapeResponse(2, 0, 1), swarm.scrape());
+        assertEquals(2, swarm.getLeechCount());
+
+        var stopped = announce(2, PeerEvent.STOPPED, 0, "10.0.0.2");
+        assertNull(stopped.peer());
+        assertArrayEquals(new byte[]{10, 0, 0, 2}, stopped.removedAddresses().getFirst());
+        assertEquals(new TrackerService.ScrapeResponse(1, 0, 1), swarm.scrape());
+        assertEquals(1, totalPeers.sum());
+    }
+
+    @Test
+    void trafficSurvivesClientCounterReset() throws UnknownHostException {
+        announceTraffic(1000, 500);
+        announceTraffic(3000, 800);
+        // 客户端重启，计数器从 0 开始
+        var result = announceTraffic(200, 100);
+        assertEquals(3200, result.peer().getUploaded());
+        assertEquals(900, result.peer().getDownloaded());
+    }
+
+    @Test
+    void addressesBeyondLimitEvictOldest() throws UnknownHostException {
+        announce(1, PeerEvent.STARTED, 100, "10.0.0.1", "2001:db8::1");
+        var result = announce(1, PeerEvent.EMPTY, 100, "10.0.0.2", "10.0.0.3", "10.0.0.4");
+        assertEquals(SwarmPeer.MAX_ADDRESSES, result.peer().getAddresses().length);
+        assertEquals(1, result.removedAddresses().size());
+        assertArrayEquals(new byte[]{10, 0, 0, 1}, result.removedAddresses().getFirst());
+        assertEquals(1, swarm.size());
+    }
+
+    @Test
+    void selectPeersExcludesRequesterAndPrefersSeeders() throws UnknownHostException {
+        announce(1, PeerEvent.STARTED, 100, "10.0.0.1");
+        announce(2, PeerEvent.STARTED, 0, "10.0.0.2");
+        announce(3, PeerEvent.STARTED, 100, "10.0.0.3", "2001:db8::3");
+
+        var forLeecher = swarm.selectPeers(1, bytes(1, PeerId.LENGTH), false, NOW, 0);
+        assertArrayEquals(new byte[]{10, 0, 0, 2, 0x1a, (byte) 0xe1}, forLeecher.v4());
+        assertEquals(1, forLeecher.seeders());
+        assertEquals(2, forLeecher.leechers());
+
+        // 做种者只获得下载者，且不包含自己
+        var forSeeder = swarm.selectPeers(10, bytes(2, PeerId.LENGTH), true, NOW, 0);
+        assertEquals(2 * 6, forSeeder.v4().length);
+        assertEquals(18, forSeeder.v6().length);
+        var forRequester = swarm.selectPeers(10, bytes(3, PeerId.LENGTH), false, NOW, 0);
+        assertEquals(2 * 6, forRequester.v4().length);
+        assertEquals(0, forRequester.v6().length);
+    }
+
+    @Test
+    void expireOnlyRemovesPeersThatHaveNotAnnouncedSince() throws UnknownHostException {
+        announce(1, PeerEvent.STARTED, 100, NOW, "10.0.0.1");
+        announce(1, PeerEvent.EMPTY, 100, NOW + 1000, "10.0.0.1");
+        List<SwarmPeer> expired = new ArrayList<>();
+        ExpiryWheel.EntryHandler handler = (s, peer, lastTimeSeen) -> {
+            var removed = s.expire(peer, lastTimeSeen);
+            if (removed != null) {
+                expired.add(removed);
+            }
+        };
+        // 第一次 Announce 登记的条目已经过时
+        wheel.advance(NOW, handler);
+        assertEquals(List.of(), expired);
+        assertEquals(1, swarm.size());
+
+        wheel.advance(NOW + 1000, handler);
+        assertEquals(1, expired.size());
+        assertEquals(NOW + 1000, expired.getFirst().getLastTimeSeen());
+        assertEquals(0, swarm.size());
+        assertEquals(0, totalPeers.sum());
+        assertNotNull(swarm.markEvictedIfEmpty());
+        // 已移除的 Swarm 不再接受 Announce
+        assertNull(announce(1, PeerEvent.STARTED, 100, "10.0.0.1"));
+    }
+
+    private Swarm.AnnounceResult announceTraffic(long uploaded, long downloaded) throws UnknownHostException {
+        var address = address("10.0.0.1");
+        return swarm.announce(new TrackerService.PeerAnnounce(INFO_HASH.bytes(), bytes(1, PeerId.LENGTH),
+                address, List.of(address), 6881, uploaded, downloaded, 100, PeerEvent.EMPTY, "test"), NOW);
+    }
+
+    private Swarm.AnnounceResult announce(int peer, PeerEvent event, long left, String... ips) throws UnknownHostException {
+        return announce(peer, event, left, NOW, ips);
+    }
+
+    private Swarm.AnnounceResult announce(int peer, PeerEvent event, long left, long now, String... ips)
+            throws UnknownHostException {
+        List<InetAddress> addresses = Arrays.stream(ips).map(SwarmTest::address).toList();
+        return swarm.announce(new TrackerService.PeerAnnounce(INFO_HASH.bytes(), bytes(peer, PeerId.LENGTH),
+                addresses.getFirst(), addresses, 6881, 0, 0, left, event, "test"), now);
+    }
+
+    private static InetAddress address(String ip) {
+        try {
+            return InetAddress.getByName(ip);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    static byte[] bytes(int value, int length) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+}